@@ -0,0 +1,120 @@
+package com.github.ddemin.envrouter.benchmark;
+
+import com.github.ddemin.envrouter.base.TestEntitiesQueues;
+import com.github.ddemin.envrouter.cucumber2.FeatureWrapper;
+import com.github.ddemin.envrouter.cucumber2.FeaturesUtils;
+import com.github.ddemin.envrouter.cucumber2.ScenarioWrapper;
+import com.github.ddemin.envrouter.cucumber2.ScenariosUtils;
+import cucumber.runtime.model.CucumberFeature;
+import gherkin.AstBuilder;
+import gherkin.Parser;
+import gherkin.ast.GherkinDocument;
+import gherkin.events.PickleEvent;
+import gherkin.pickles.Compiler;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Wrapping of parsed features and pickles (tags parsing) before routing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EntitiesWrappingBenchmark {
+
+  @Param({"100", "1000"})
+  private int featuresCount;
+
+  @Param({"20"})
+  private int scenariosPerFeature;
+
+  private List<CucumberFeature> features;
+  private Map<CucumberFeature, List<PickleEvent>> scenariosMap;
+
+  /**
+   * Parse generated features with feature-level and scenario-level routing tags.
+   */
+  @Setup
+  public void parseFeatures() {
+    Parser<GherkinDocument> parser = new Parser<>(new AstBuilder());
+    Compiler compiler = new Compiler();
+    features = new ArrayList<>(featuresCount);
+    scenariosMap = new LinkedHashMap<>();
+    for (int i = 0; i < featuresCount; i++) {
+      String uri = "features/generated" + i + ".feature";
+      String source = featureSource(i);
+      GherkinDocument document = parser.parse(source);
+      CucumberFeature feature = new CucumberFeature(document, uri, source);
+      features.add(feature);
+      scenariosMap.put(
+          feature,
+          compiler.compile(document).stream()
+              .map(pickle -> new PickleEvent(uri, pickle))
+              .collect(Collectors.toList())
+      );
+    }
+  }
+
+  @Benchmark
+  public List<FeatureWrapper> wrapFeatures() {
+    return FeaturesUtils.wrapFeatures(features);
+  }
+
+  @Benchmark
+  public List<ScenarioWrapper> wrapScenarios() {
+    return ScenariosUtils.wrapScenarios(scenariosMap);
+  }
+
+  @Benchmark
+  public TestEntitiesQueues<FeatureWrapper> wrapFeaturesIntoQueues() {
+    TestEntitiesQueues<FeatureWrapper> queues = new TestEntitiesQueues<>(false);
+    FeaturesUtils.wrapFeatures(features, queues);
+    return queues;
+  }
+
+  @Benchmark
+  public TestEntitiesQueues<ScenarioWrapper> wrapScenariosIntoQueues() {
+    TestEntitiesQueues<ScenarioWrapper> queues = new TestEntitiesQueues<>(false);
+    ScenariosUtils.wrapScenarios(scenariosMap, queues);
+    return queues;
+  }
+
+  private String featureSource(int featureIdx) {
+    StringBuilder source = new StringBuilder()
+        .append("@EnvBench").append(1 + featureIdx % 8).append(" @Priority").append(featureIdx % 5)
+        .append(" @Team").append(featureIdx % 7).append('\n')
+        .append("Feature: Generated feature ").append(featureIdx).append('\n');
+    for (int i = 0; i < scenariosPerFeature; i++) {
+      source.append('\n');
+      if (i % 3 == 0) {
+        source.append("  @Weight2 @Timeout60 @Smoke\n");
+      } else if (i % 3 == 1) {
+        source.append("  @Priority1 @Regression\n");
+      }
+      source.append("  Scenario: Scenario ").append(i).append('\n')
+          .append("    Given Step 1\n")
+          .append("    When Step 2\n")
+          .append("    Then Step 3\n");
+    }
+    return source.toString();
+  }
+
+}
@@ -0,0 +1,80 @@
+package com.github.ddemin.envrouter.benchmark;
+
+import static com.github.ddemin.envrouter.base.TestEntityWrapper.ANY_ENV;
+
+import com.github.ddemin.envrouter.base.EnvironmentLock;
+import com.github.ddemin.envrouter.base.EnvsLocksController;
+import com.github.ddemin.envrouter.base.TestEntitiesQueues;
+import com.github.ddemin.envrouter.base.TestEntityWrapper;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Routing cycle of one entity: find entity and lock environment for it, release environment, return entity to queue.
+ * Environments (see src/jmh/resources/environments) have 64 slots in total, so 64 threads contend on slots too.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvsLocksControllerBenchmark {
+
+  private static final int ENVS_COUNT = 8;
+  private static final int ENTITIES_PER_THREAD = 32;
+
+  @Benchmark
+  @Threads(1)
+  public EnvironmentLock<TestEntityWrapper<String>> lockAndRelease1Thread(ThreadQueues state) {
+    return lockAndRelease(state);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public EnvironmentLock<TestEntityWrapper<String>> lockAndRelease8Threads(ThreadQueues state) {
+    return lockAndRelease(state);
+  }
+
+  @Benchmark
+  @Threads(64)
+  public EnvironmentLock<TestEntityWrapper<String>> lockAndRelease64Threads(ThreadQueues state) {
+    return lockAndRelease(state);
+  }
+
+  private static EnvironmentLock<TestEntityWrapper<String>> lockAndRelease(ThreadQueues state) {
+    EnvironmentLock<TestEntityWrapper<String>> lock = EnvsLocksController.findUntestedEntityAndLockEnv(state.queues);
+    EnvsLocksController.release(lock);
+    state.queues.add(lock.getTargetEntity());
+    return lock;
+  }
+
+  @State(Scope.Thread)
+  public static class ThreadQueues {
+
+    TestEntitiesQueues<TestEntityWrapper<String>> queues;
+
+    /**
+     * Fill queues of thread: every 4th entity can be tested on any environment.
+     */
+    @Setup
+    public void fillQueues() {
+      queues = new TestEntitiesQueues<>();
+      for (int i = 0; i < ENTITIES_PER_THREAD; i++) {
+        String env = i % 4 == 0 ? ANY_ENV : "bench" + (1 + i % ENVS_COUNT);
+        queues.add(new TestEntityWrapper<>("entity" + i, env, i % 3));
+      }
+    }
+
+  }
+
+}
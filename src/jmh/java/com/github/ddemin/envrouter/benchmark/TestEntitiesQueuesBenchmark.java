@@ -0,0 +1,93 @@
+package com.github.ddemin.envrouter.benchmark;
+
+import static com.github.ddemin.envrouter.base.TestEntityWrapper.ANY_ENV;
+
+import com.github.ddemin.envrouter.base.TestEntitiesQueues;
+import com.github.ddemin.envrouter.base.TestEntityWrapper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Queues of entities with many environment keys: bulk adding and steady-state polling/lookup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TestEntitiesQueuesBenchmark {
+
+  @Param({"10000", "100000"})
+  private int entitiesCount;
+
+  @Param({"100", "500"})
+  private int envKeysCount;
+
+  private List<TestEntityWrapper<String>> entities;
+  private String[] envNames;
+  private TestEntitiesQueues<TestEntityWrapper<String>> filledQueues;
+  private int nextEnv;
+
+  /**
+   * Create entities that are distributed between environment keys, every 10th entity has no required environment.
+   */
+  @Setup
+  public void createEntities() {
+    envNames = new String[envKeysCount];
+    for (int i = 0; i < envKeysCount; i++) {
+      envNames[i] = "env" + i;
+    }
+    entities = new ArrayList<>(entitiesCount);
+    for (int i = 0; i < entitiesCount; i++) {
+      String env = i % 10 == 0 ? ANY_ENV : envNames[i % envKeysCount];
+      entities.add(new TestEntityWrapper<>("entity" + i, env, i % 5));
+    }
+    filledQueues = new TestEntitiesQueues<>();
+    filledQueues.addAll(entities);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public TestEntitiesQueues<TestEntityWrapper<String>> addAll() {
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.addAll(entities);
+    return queues;
+  }
+
+  /**
+   * Poll entity and add it back, so size of queues doesn't change between invocations.
+   *
+   * @return polled entity
+   */
+  @Benchmark
+  public TestEntityWrapper<String> pollAndAdd() {
+    TestEntityWrapper<String> entity = filledQueues.pollEntityFor(nextEnvName());
+    filledQueues.add(entity);
+    return entity;
+  }
+
+  @Benchmark
+  public Queue<TestEntityWrapper<String>> getQueueFor() {
+    return filledQueues.getQueueFor(nextEnvName());
+  }
+
+  private String nextEnvName() {
+    nextEnv = (nextEnv + 1) % envKeysCount;
+    return envNames[nextEnv];
+  }
+
+}
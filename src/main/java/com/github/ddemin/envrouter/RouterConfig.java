@@ -1,20 +1,57 @@
 package com.github.ddemin.envrouter;
 
+import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.DURATIONS_FILE_KEY;
 import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.ENVS_DIRECTORY_KEY;
+import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.ENVS_DISCOVERY_THREADS_KEY;
+import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.ENVS_WATCH_KEY;
 import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.ENV_DEFAULT_KEY;
 import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.ENV_FORCED_KEY;
 import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.ENV_THREADS_MAX_KEY;
+import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.HARD_LOCK_DRAIN_MS_KEY;
+import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.LEASES_DIR_KEY;
+import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.LEASE_HISTORY_FACTOR_KEY;
+import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.LEASE_TIMEOUT_MS_KEY;
+import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.LOCK_BATCH_IDLE_MS_KEY;
+import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.LOCK_BATCH_SIZE_KEY;
+import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.LOCK_BATCH_TIME_MS_KEY;
 import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.LOCK_TIMEOUT_MS_KEY;
+import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.QUEUE_LONGEST_FIRST_KEY;
+import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.RESOURCES_PREWARM_KEY;
+import static com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys.VIRTUAL_THREADS_KEY;
 
 public class RouterConfig {
 
   public static final String ENVS_DIRECTORY = System.getProperty(ENVS_DIRECTORY_KEY, "environments");
+  public static final int ENVS_DISCOVERY_THREADS = Integer.parseInt(
+      System.getProperty(ENVS_DISCOVERY_THREADS_KEY, String.valueOf(Runtime.getRuntime().availableProcessors()))
+  );
+  public static final boolean ENVS_WATCH = Boolean.parseBoolean(System.getProperty(ENVS_WATCH_KEY, "false"));
   public static final String ENV_DEFAULT = System.getProperty(ENV_DEFAULT_KEY);
   public static final String ENV_FORCED = System.getProperty(ENV_FORCED_KEY);
   public static final int ENV_THREADS_MAX
       = Integer.parseInt(System.getProperty(ENV_THREADS_MAX_KEY, "1"));
   public static final int LOCK_TIMEOUT_MS
       = Integer.parseInt(System.getProperty(LOCK_TIMEOUT_MS_KEY, "60000"));
+  public static final int HARD_LOCK_DRAIN_MS
+      = Integer.parseInt(System.getProperty(HARD_LOCK_DRAIN_MS_KEY, "0"));
+  public static final int LOCK_BATCH_SIZE
+      = Integer.parseInt(System.getProperty(LOCK_BATCH_SIZE_KEY, "1"));
+  public static final long LOCK_BATCH_TIME_MS
+      = Long.parseLong(System.getProperty(LOCK_BATCH_TIME_MS_KEY, "0"));
+  public static final long LOCK_BATCH_IDLE_MS
+      = Long.parseLong(System.getProperty(LOCK_BATCH_IDLE_MS_KEY, "500"));
+  public static final String LEASES_DIR = System.getProperty(LEASES_DIR_KEY);
+  public static final long LEASE_TIMEOUT_MS
+      = Long.parseLong(System.getProperty(LEASE_TIMEOUT_MS_KEY, "0"));
+  public static final double LEASE_HISTORY_FACTOR
+      = Double.parseDouble(System.getProperty(LEASE_HISTORY_FACTOR_KEY, "0"));
+  public static final boolean QUEUE_LONGEST_FIRST
+      = Boolean.parseBoolean(System.getProperty(QUEUE_LONGEST_FIRST_KEY, "false"));
+  public static final String DURATIONS_FILE = System.getProperty(DURATIONS_FILE_KEY);
+  public static final boolean RESOURCES_PREWARM
+      = Boolean.parseBoolean(System.getProperty(RESOURCES_PREWARM_KEY, "false"));
+  public static final boolean VIRTUAL_THREADS
+      = Boolean.parseBoolean(System.getProperty(VIRTUAL_THREADS_KEY, "false"));
 
   private RouterConfig() {
   }
@@ -22,10 +59,73 @@ public class RouterConfig {
   public static class RouterConfigKeys {
 
     public static final String ENVS_DIRECTORY_KEY = "router.envs.dir";
+    /**
+     * Count of threads that read environments directories in parallel. Default - count of available processors.
+     */
+    public static final String ENVS_DISCOVERY_THREADS_KEY = "router.envs.discoveryThreads";
+    /**
+     * Watch environments directory and apply changes during run: new environments are added, removed ones are
+     * drained (already locked slots are released as usual), changed properties files are reloaded.
+     */
+    public static final String ENVS_WATCH_KEY = "router.envs.watch";
     public static final String ENV_DEFAULT_KEY = "router.envs.default";
     public static final String ENV_FORCED_KEY = "router.envs.forced";
     public static final String ENV_THREADS_MAX_KEY = "router.threadsPerEnv";
     public static final String LOCK_TIMEOUT_MS_KEY = "router.lock.timeout";
+    /**
+     * Max time (ms) while environment rejects new locks to let waiting @SingleThread (or @Weight) entity lock it.
+     * 0 - disabled, heavy entity will lock environment only when enough slots will be released occasionally.
+     * If heavy entity doesn't get environment in time, lighter entities use it during the same time, then environment
+     * is reserved again.
+     */
+    public static final String HARD_LOCK_DRAIN_MS_KEY = "router.lock.hard.drain";
+    /**
+     * Max count of entities that are run one by one by the same thread under the same lock of environment (batch):
+     * slots of finished entity are kept for the next entity of the same environment, weight and lock mode.
+     * 1 - disabled, slots are released after each entity.
+     */
+    public static final String LOCK_BATCH_SIZE_KEY = "router.lock.batch.size";
+    /**
+     * Max time (ms) of batch, see LOCK_BATCH_SIZE_KEY. 0 - unlimited.
+     */
+    public static final String LOCK_BATCH_TIME_MS_KEY = "router.lock.batch.time";
+    /**
+     * Max time (ms) while slots are kept for the next entity of batch, after that they are released.
+     */
+    public static final String LOCK_BATCH_IDLE_MS_KEY = "router.lock.batch.idle";
+    /**
+     * Directory for lease files that share environments slots between JVMs on the same host (e.g. Gradle forks).
+     * Not defined - slots are controlled by current JVM only.
+     */
+    public static final String LEASES_DIR_KEY = "router.lock.leases.dir";
+    /**
+     * Max time (ms) of environment usage by entity without @Timeout tag, after that environment is reclaimed by
+     * watchdog. 0 - unlimited.
+     */
+    public static final String LEASE_TIMEOUT_MS_KEY = "router.lock.lease.timeout";
+    /**
+     * Max time of environment usage by entity without @Timeout tag as factor of its expected duration (see
+     * EntityDurations), but not less than 1 minute. 0 - disabled, LEASE_TIMEOUT_MS_KEY is used.
+     */
+    public static final String LEASE_HISTORY_FACTOR_KEY = "router.lock.lease.historyFactor";
+    /**
+     * Order entities with the same priority by expected duration (longest first), see EntityDurations.
+     */
+    public static final String QUEUE_LONGEST_FIRST_KEY = "router.queue.longestFirst";
+    /**
+     * Path to file where entities durations are persisted between runs. Not defined - durations are kept in memory.
+     */
+    public static final String DURATIONS_FILE_KEY = "router.durations.file";
+    /**
+     * Create resources of environments (see EnvResources) up to capacity of each environment on registration of
+     * resource and on init of environments. Otherwise resources are created on first request.
+     */
+    public static final String RESOURCES_PREWARM_KEY = "router.resources.prewarm";
+    /**
+     * Run routed entities of parallel RouterCucumberCli on virtual threads if JVM supports them (Java 21+).
+     * Ignored (with warning) by older JVMs.
+     */
+    public static final String VIRTUAL_THREADS_KEY = "router.threads.virtual";
 
     private RouterConfigKeys() {
     }
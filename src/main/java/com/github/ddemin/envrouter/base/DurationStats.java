@@ -0,0 +1,71 @@
+package com.github.ddemin.envrouter.base;
+
+import java.util.Arrays;
+import lombok.Getter;
+
+/**
+ * Immutable rolling statistics of entity durations on one environment: EWMA and p95 of the last measurements.
+ */
+@Getter
+public final class DurationStats {
+
+  static final double EWMA_ALPHA = 0.3;
+  static final int SAMPLES_WINDOW = 32;
+
+  private final long count;
+  private final double ewmaMs;
+  // The last measurements, the oldest first
+  private final long[] lastSamplesMs;
+
+  DurationStats(long count, double ewmaMs, long[] lastSamplesMs) {
+    this.count = count;
+    this.ewmaMs = ewmaMs;
+    this.lastSamplesMs = lastSamplesMs.clone();
+  }
+
+  static DurationStats of(long durationMs) {
+    return new DurationStats(1, durationMs, new long[]{durationMs});
+  }
+
+  /**
+   * Returns new statistics that includes one more measurement.
+   *
+   * @param durationMs measured duration
+   * @return updated statistics
+   */
+  DurationStats with(long durationMs) {
+    long[] samples;
+    if (lastSamplesMs.length < SAMPLES_WINDOW) {
+      samples = Arrays.copyOf(lastSamplesMs, lastSamplesMs.length + 1);
+    } else {
+      samples = Arrays.copyOfRange(lastSamplesMs, 1, SAMPLES_WINDOW + 1);
+    }
+    samples[samples.length - 1] = durationMs;
+    return new DurationStats(count + 1, EWMA_ALPHA * durationMs + (1 - EWMA_ALPHA) * ewmaMs, samples);
+  }
+
+  public long[] getLastSamplesMs() {
+    return lastSamplesMs.clone();
+  }
+
+  public long getEwmaMsRounded() {
+    return Math.round(ewmaMs);
+  }
+
+  /**
+   * Returns 95th percentile of the last measurements (nearest-rank method).
+   *
+   * @return p95 duration (ms)
+   */
+  public long getP95Ms() {
+    long[] sorted = lastSamplesMs.clone();
+    Arrays.sort(sorted);
+    return sorted[(int) Math.ceil(0.95 * sorted.length) - 1];
+  }
+
+  @Override
+  public String toString() {
+    return String.format("DurationStats(count=%d, ewma=%.1f ms, p95=%d ms)", count, ewmaMs, getP95Ms());
+  }
+
+}
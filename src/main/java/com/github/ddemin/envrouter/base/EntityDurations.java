@@ -0,0 +1,66 @@
+package com.github.ddemin.envrouter.base;
+
+import com.github.ddemin.envrouter.RouterConfig;
+import java.nio.file.Paths;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Entry point to durations history of test entities, that is used for longest-first ordering of queues
+ * (see RouterConfig.QUEUE_LONGEST_FIRST). History is persisted if RouterConfig.DURATIONS_FILE is defined.
+ */
+@Slf4j
+@UtilityClass
+public class EntityDurations {
+
+  private static volatile EntityDurationsStore store = RouterConfig.DURATIONS_FILE == null
+      ? new InMemoryDurationsStore()
+      : FileDurationsStore.open(Paths.get(RouterConfig.DURATIONS_FILE));
+
+  public static EntityDurationsStore getStore() {
+    return store;
+  }
+
+  public static void setStore(@NonNull EntityDurationsStore newStore) {
+    log.debug("Set durations store: {}", newStore);
+    store = newStore;
+  }
+
+  /**
+   * Returns key of entity that is used in durations store.
+   *
+   * @param entity wrapped entity
+   * @return path and name of entity or string representation of wrapped entity if they are empty
+   */
+  public static String keyOf(@NonNull TestEntityWrapper entity) {
+    String key = entity.getPath() + ":" + entity.getName();
+    return ":".equals(key) ? String.valueOf(entity.getEntity()) : key;
+  }
+
+  /**
+   * Returns expected duration of entity on its required environment. If entity wasn't measured there (or
+   * required environment is a prefix), the longest expected duration on all environments is returned.
+   *
+   * @param entity wrapped entity
+   * @return expected duration (ms) or -1 if entity wasn't measured yet
+   */
+  public static long getExpectedDurationMs(@NonNull TestEntityWrapper entity) {
+    String key = keyOf(entity);
+    long durationOnRequiredEnv = store.getExpectedDurationMs(key, entity.getRequiredEnvironmentName());
+    return durationOnRequiredEnv >= 0 ? durationOnRequiredEnv : store.getExpectedDurationMs(key, null);
+  }
+
+  /**
+   * Save measured duration of entity.
+   *
+   * @param entity wrapped entity
+   * @param env environment where entity was tested
+   * @param durationMs duration of entity's test (ms)
+   */
+  public static void record(@NonNull TestEntityWrapper entity, @NonNull Environment env, long durationMs) {
+    log.debug("Entity {} was tested on {} during {} ms", entity, env.getName(), durationMs);
+    store.record(keyOf(entity), env.getName().toLowerCase(), durationMs);
+  }
+
+}
@@ -0,0 +1,26 @@
+package com.github.ddemin.envrouter.base;
+
+/**
+ * Storage of test entities durations measured in previous (or current) runs. Implementations must be thread-safe.
+ */
+public interface EntityDurationsStore {
+
+  /**
+   * Returns expected duration of entity on environment.
+   *
+   * @param entityKey key of entity, see EntityDurations#keyOf
+   * @param envName name of environment or null for the longest expected duration on all environments
+   * @return expected duration (ms) or -1 if entity wasn't measured yet
+   */
+  long getExpectedDurationMs(String entityKey, String envName);
+
+  /**
+   * Save measured duration of entity.
+   *
+   * @param entityKey key of entity, see EntityDurations#keyOf
+   * @param envName name of environment where entity was tested
+   * @param durationMs duration of entity's test (ms)
+   */
+  void record(String entityKey, String envName, long durationMs);
+
+}
@@ -0,0 +1,149 @@
+package com.github.ddemin.envrouter.base;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pool of resources of one kind for one environment. Pool keeps not more than capacity of environment idle resources,
+ * because each slot of environment uses at most one resource of each kind. Pool is lock-free.
+ */
+@Slf4j
+class EnvResourcePool {
+
+  @Getter
+  private final Environment environment;
+  private final String name;
+  private final Function<Environment, ?> factory;
+  private final Consumer<Object> closer;
+  private final Deque<Object> idle = new ConcurrentLinkedDeque<>();
+  private final AtomicInteger idleCount = new AtomicInteger();
+  private volatile boolean closed;
+
+  EnvResourcePool(
+      Environment environment,
+      String name,
+      Function<Environment, ?> factory,
+      Consumer<Object> closer
+  ) {
+    this.environment = environment;
+    this.name = name;
+    this.factory = factory;
+    this.closer = closer;
+  }
+
+  /**
+   * Take idle resource or create new one.
+   *
+   * @return resource
+   */
+  Object borrow() {
+    Object resource = idle.pollFirst();
+    if (resource != null) {
+      idleCount.decrementAndGet();
+      return resource;
+    }
+    return create();
+  }
+
+  /**
+   * Return resource to pool. Resource is closed if pool is full (e.g. capacity of environment was reduced) or closed.
+   *
+   * @param resource resource that was borrowed from this pool
+   */
+  void giveBack(Object resource) {
+    if (closed) {
+      closeResource(resource);
+      return;
+    } else if (idleCount.incrementAndGet() > environment.getThreadsMax()) {
+      idleCount.decrementAndGet();
+      closeResource(resource);
+      return;
+    }
+    idle.offerFirst(resource);
+    if (closed) {
+      // Pool was closed concurrently
+      closeIdle();
+    }
+  }
+
+  /**
+   * Close resource that can't be reused (e.g. it can still be used by thread of reclaimed lock).
+   *
+   * @param resource resource that was borrowed from this pool
+   */
+  void discard(Object resource) {
+    closeResource(resource);
+  }
+
+  /**
+   * Create idle resources up to capacity of environment.
+   */
+  void prewarm() {
+    while (!closed) {
+      if (idleCount.incrementAndGet() > environment.getThreadsMax()) {
+        idleCount.decrementAndGet();
+        break;
+      }
+      try {
+        idle.offerFirst(create());
+      } catch (RuntimeException ex) {
+        idleCount.decrementAndGet();
+        throw ex;
+      }
+    }
+    if (closed) {
+      closeIdle();
+    }
+  }
+
+  int idleResources() {
+    return idleCount.get();
+  }
+
+  /**
+   * Close idle resources, borrowed resources are closed on return.
+   */
+  void close() {
+    closed = true;
+    closeIdle();
+  }
+
+  private Object create() {
+    long startNanos = System.nanoTime();
+    Object resource = factory.apply(environment);
+    if (resource == null) {
+      throw new IllegalStateException(
+          String.format("Factory of resource '%s' returned null for environment %s", name, environment.getName())
+      );
+    }
+    log.debug(
+        "Resource '{}' was created for environment {} during {} ms",
+        name,
+        environment.getName(),
+        (System.nanoTime() - startNanos) / 1_000_000
+    );
+    return resource;
+  }
+
+  private void closeIdle() {
+    Object resource;
+    while ((resource = idle.pollFirst()) != null) {
+      idleCount.decrementAndGet();
+      closeResource(resource);
+    }
+  }
+
+  private void closeResource(Object resource) {
+    try {
+      closer.accept(resource);
+    } catch (RuntimeException ex) {
+      log.warn("Resource '{}' of environment {} wasn't closed properly", name, environment.getName(), ex);
+    }
+  }
+
+}
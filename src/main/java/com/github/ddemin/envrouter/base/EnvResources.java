@@ -0,0 +1,278 @@
+package com.github.ddemin.envrouter.base;
+
+import static java.lang.String.format;
+
+import com.github.ddemin.envrouter.RouterConfig;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Per-environment resources (DB clients, API clients, emulators, etc.) that are expensive to create. Resources of
+ * each kind are pooled per environment, pool keeps not more than capacity (Environment#getThreadsMax) idle resources.
+ * Resource is borrowed by the first #get during lock of environment and is returned to pool on release of lock, so
+ * the next entity gets it ready. Resources of reclaimed locks are closed, because their owners may still use them.
+ * Resources are created lazily or in advance, see #prewarm and RouterConfig.RESOURCES_PREWARM.
+ */
+@Slf4j
+@UtilityClass
+public class EnvResources {
+
+  private static final ConcurrentMap<String, Definition> DEFINITIONS = new ConcurrentHashMap<>();
+  // Pools by name of resource and name of environment
+  private static final ConcurrentMap<String, ConcurrentMap<String, EnvResourcePool>> POOLS
+      = new ConcurrentHashMap<>();
+  // The last successful lock of current thread
+  private static final ThreadLocal<EnvironmentLock<?>> CURRENT_LOCK = new ThreadLocal<>();
+
+  /**
+   * See #register. Resources that implement AutoCloseable are closed when they are removed from pool.
+   *
+   * @param name name of resource
+   * @param factory creates resource for environment
+   */
+  public static void register(@NonNull String name, @NonNull Function<Environment, ?> factory) {
+    register(name, factory, EnvResources::closeIfCloseable);
+  }
+
+  /**
+   * Register kind of resource. Pools of previous definition with the same name are closed.
+   *
+   * @param name name of resource
+   * @param factory creates resource for environment, e.g. from Environment#getProperty
+   * @param closer closes resource that is removed from pool
+   * @param <R> type of resource
+   */
+  public static <R> void register(
+      @NonNull String name,
+      @NonNull Function<Environment, ? extends R> factory,
+      @NonNull Consumer<? super R> closer
+  ) {
+    log.debug("Register resource: {}", name);
+    DEFINITIONS.put(name, new Definition(factory, resource -> closer.accept((R) resource)));
+    closePools(name);
+    if (RouterConfig.RESOURCES_PREWARM) {
+      prewarm(name);
+    }
+  }
+
+  /**
+   * Unregister kind of resource and close its pools.
+   *
+   * @param name name of resource
+   */
+  public static void unregister(@NonNull String name) {
+    log.debug("Unregister resource: {}", name);
+    DEFINITIONS.remove(name);
+    closePools(name);
+  }
+
+  /**
+   * Create idle resources up to capacity of each environment. Failures are logged per environment, so resource is
+   * created lazily for environment where prewarming has failed.
+   *
+   * @param name name of resource
+   */
+  public static void prewarm(@NonNull String name) {
+    prewarmPools(name, EnvsLocksController.getAll());
+  }
+
+  /**
+   * Returns resource for environment that is locked by current thread. Resource is used exclusively by current
+   * thread till release of lock.
+   *
+   * @param name name of resource
+   * @param <R> type of resource
+   * @return resource
+   */
+  public static <R> R get(@NonNull String name) {
+    EnvironmentLock<?> lock = CURRENT_LOCK.get();
+    if (lock == null) {
+      throw new IllegalStateException(format("Resource '%s' is requested, but current thread doesn't lock env", name));
+    }
+    return get(lock, name);
+  }
+
+  /**
+   * Returns resource for environment of lock. Resource is used exclusively by owner of lock till release of lock.
+   *
+   * @param lock successful lock of environment
+   * @param name name of resource
+   * @param <R> type of resource
+   * @return resource
+   * @throws IllegalStateException if lock is already released (or reclaimed by watchdog)
+   */
+  public static <R> R get(@NonNull EnvironmentLock<?> lock, @NonNull String name) {
+    if (lock.getEnvironment() == null) {
+      throw new IllegalArgumentException("Lock doesn't have environment: " + lock.getLockStatus());
+    }
+    if (lock.isReleased()) {
+      throw releasedLockException(lock, name);
+    }
+    BorrowedResource borrowed = lock.getResources().get(name);
+    if (borrowed == null) {
+      // Resource is created outside of map's computation, because it can take a long time
+      EnvResourcePool pool = poolOf(name, lock.getEnvironment());
+      borrowed = new BorrowedResource(pool, pool.borrow());
+      lock.getResources().put(name, borrowed);
+      if (lock.isReleased()) {
+        // Lock was reclaimed concurrently
+        returnAll(lock);
+        throw releasedLockException(lock, name);
+      }
+    }
+    return (R) borrowed.getResource();
+  }
+
+  /**
+   * Returns count of idle resources of environment.
+   *
+   * @param name name of resource
+   * @param env environment
+   * @return count of resources in pool
+   */
+  public static int idleResources(@NonNull String name, @NonNull Environment env) {
+    Map<String, EnvResourcePool> pools = POOLS.get(name);
+    EnvResourcePool pool = pools == null ? null : pools.get(env.getName());
+    return pool == null || pool.getEnvironment() != env ? 0 : pool.idleResources();
+  }
+
+  static void bind(EnvironmentLock<?> lock) {
+    CURRENT_LOCK.set(lock);
+  }
+
+  // Resources are kept by the next lock of batch
+  static void transfer(EnvironmentLock<?> from, EnvironmentLock<?> to) {
+    to.getResources().putAll(from.getResources());
+    from.getResources().clear();
+  }
+
+  static void returnAll(EnvironmentLock<?> lock) {
+    boolean isReclaimed = lock.isReclaimed();
+    for (String name : lock.getResources().keySet()) {
+      BorrowedResource borrowed = lock.getResources().remove(name);
+      if (borrowed == null) {
+        continue;
+      } else if (isReclaimed) {
+        borrowed.pool.discard(borrowed.resource);
+      } else {
+        borrowed.pool.giveBack(borrowed.resource);
+      }
+    }
+  }
+
+  // Pools of removed (or recreated) environments are closed
+  static void refresh(Collection<Environment> envs) {
+    POOLS.forEach(
+        (name, pools) -> pools.values().removeIf(
+            pool -> {
+              boolean isActual = envs.stream().anyMatch(env -> env == pool.getEnvironment());
+              if (!isActual) {
+                pool.close();
+              }
+              return !isActual;
+            }
+        )
+    );
+  }
+
+  // Must be called outside of environments changes, because creation of resources can take a long time
+  static void prewarmAll(Collection<Environment> envs) {
+    if (RouterConfig.RESOURCES_PREWARM) {
+      DEFINITIONS.keySet().forEach(name -> prewarmPools(name, envs));
+    }
+  }
+
+  private static void prewarmPools(String name, Collection<Environment> envs) {
+    long startNanos = System.nanoTime();
+    envs.parallelStream().forEach(env -> prewarmPool(name, env));
+    log.info("Resource '{}' was prewarmed during {} ms", name, (System.nanoTime() - startNanos) / 1_000_000);
+  }
+
+  private static void prewarmPool(String name, Environment env) {
+    try {
+      poolOf(name, env).prewarm();
+    } catch (RuntimeException ex) {
+      log.warn("Resource '{}' wasn't prewarmed for environment {}", name, env.getName(), ex);
+    }
+  }
+
+  private static IllegalStateException releasedLockException(EnvironmentLock<?> lock, String name) {
+    return new IllegalStateException(
+        format("Resource '%s' is requested, but lock of env %s is released", name, lock.getEnvironment().getName())
+    );
+  }
+
+  private static EnvResourcePool poolOf(String name, Environment env) {
+    Definition definition = DEFINITIONS.get(name);
+    if (definition == null) {
+      throw new IllegalArgumentException("Resource isn't registered: " + name);
+    }
+    return POOLS.computeIfAbsent(name, key -> new ConcurrentHashMap<>()).compute(
+        env.getName(),
+        (envName, pool) -> {
+          if (pool != null && pool.getEnvironment() == env) {
+            return pool;
+          } else if (pool != null) {
+            pool.close();
+          }
+          return new EnvResourcePool(env, name, definition.factory, definition.closer);
+        }
+    );
+  }
+
+  private static void closePools(String name) {
+    Map<String, EnvResourcePool> pools = POOLS.remove(name);
+    if (pools != null) {
+      pools.values().forEach(EnvResourcePool::close);
+    }
+  }
+
+  private static void closeIfCloseable(Object resource) {
+    if (resource instanceof AutoCloseable) {
+      try {
+        ((AutoCloseable) resource).close();
+      } catch (Exception ex) {
+        throw new IllegalStateException(ex);
+      }
+    }
+  }
+
+  private static final class Definition {
+
+    private final Function<Environment, ?> factory;
+    private final Consumer<Object> closer;
+
+    Definition(Function<Environment, ?> factory, Consumer<Object> closer) {
+      this.factory = factory;
+      this.closer = closer;
+    }
+
+  }
+
+  /**
+   * Resource that is used by lock and the pool where it must be returned.
+   */
+  static final class BorrowedResource {
+
+    private final EnvResourcePool pool;
+    private final Object resource;
+
+    BorrowedResource(EnvResourcePool pool, Object resource) {
+      this.pool = pool;
+      this.resource = resource;
+    }
+
+    Object getResource() {
+      return resource;
+    }
+
+  }
+
+}
@@ -1,35 +1,57 @@
 package com.github.ddemin.envrouter.base;
 
+import com.github.ddemin.envrouter.RouterConfig;
+import com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys;
+import com.github.ddemin.envrouter.util.LayeredProperties;
 import com.github.ddemin.envrouter.util.PropertiesUtils;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.nio.file.Path;
 import java.util.Map;
 import java.util.Properties;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 @Data
 public class Environment {
 
+  @Setter(AccessLevel.PACKAGE)
+  private int id = -1;
   private String name;
   private Path pathToPropertiesDir;
-  private Properties properties;
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private volatile LayeredProperties layeredProperties;
 
   /**
    * Creates environment object that associated with some directory that contains config files.
    *
    * @param pathToPropertiesDir path to directory that associated with some environment
    */
-  @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
   public Environment(@NonNull Path pathToPropertiesDir) {
+    this(pathToPropertiesDir, LayeredProperties.ofSystemProperties());
+  }
+
+  /**
+   * Creates environment object on top of properties layers that are shared by several environments (e.g. common
+   * properties of environments directory and snapshot of system properties).
+   *
+   * @param pathToPropertiesDir path to directory that associated with some environment
+   * @param parentProperties properties that are overridden by properties files of environment
+   */
+  @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+  Environment(@NonNull Path pathToPropertiesDir, @NonNull LayeredProperties parentProperties) {
     log.debug("Create environment based on folder: {}", pathToPropertiesDir);
     this.pathToPropertiesDir = pathToPropertiesDir;
     this.name = pathToPropertiesDir.getFileName().toString().toLowerCase();
-    this.properties = new Properties();
-    withProperties(System.getProperties());
-    withProperties(PropertiesUtils.readProperties(pathToPropertiesDir.toUri()));
+    this.layeredProperties = LayeredProperties.of(
+        PropertiesUtils.readProperties(pathToPropertiesDir.toUri()),
+        parentProperties
+    );
   }
 
   @Override
@@ -48,13 +70,86 @@ public class Environment {
 
   @Override
   public int hashCode() {
-    int result = super.hashCode();
-    result = 31 * result + pathToPropertiesDir.hashCode();
-    return result;
+    return pathToPropertiesDir.hashCode();
+  }
+
+  /**
+   * Add properties that override all existing properties of environment.
+   *
+   * @param map properties
+   */
+  public synchronized void withProperties(@NonNull Map<?, ?> map) {
+    this.layeredProperties = layeredProperties.with(map);
+  }
+
+  /**
+   * Read properties files of environment again. Properties that were added via #withProperties are lost.
+   */
+  synchronized void reloadProperties() {
+    log.debug("Reload properties of environment: {}", name);
+    this.layeredProperties = layeredProperties.replaceLayer(
+        PropertiesUtils.readProperties(pathToPropertiesDir.toUri())
+    );
   }
 
-  public void withProperties(Map map) {
-    this.properties.putAll(map);
+  /**
+   * Take properties of another instance of the same environment (e.g. after repeated discovery).
+   *
+   * @param env the same environment
+   */
+  synchronized void reloadPropertiesFrom(@NonNull Environment env) {
+    this.layeredProperties = env.layeredProperties;
+  }
+
+  /**
+   * Get property of environment: own properties files, then common properties files of environments directory, then
+   * system properties.
+   *
+   * @param key name of property
+   * @return value or null
+   */
+  public String getProperty(@NonNull String key) {
+    return layeredProperties.getProperty(key);
+  }
+
+  public String getProperty(@NonNull String key, String defaultValue) {
+    return layeredProperties.getProperty(key, defaultValue);
+  }
+
+  /**
+   * Returns all properties of environment, see #getProperty. Layers are flattened once per change of properties (see
+   * #withProperties), so returned object is a snapshot. Use #withProperties to change properties.
+   *
+   * @return read-only properties, changes of them throw UnsupportedOperationException
+   */
+  public Properties getProperties() {
+    return layeredProperties.toProperties();
+  }
+
+  /**
+   * Returns max count of parallel threads for environment: property RouterConfigKeys.ENV_THREADS_MAX_KEY of
+   * environment or RouterConfig.ENV_THREADS_MAX if it isn't defined.
+   *
+   * @return capacity of environment
+   */
+  public int getThreadsMax() {
+    String threadsMax = getProperty(RouterConfigKeys.ENV_THREADS_MAX_KEY);
+    if (threadsMax == null) {
+      return RouterConfig.ENV_THREADS_MAX;
+    }
+    try {
+      int parsedThreadsMax = Integer.parseInt(threadsMax.trim());
+      if (parsedThreadsMax > 0) {
+        return parsedThreadsMax;
+      }
+    } catch (NumberFormatException ex) {
+      log.debug("Not a number: {}", threadsMax);
+    }
+    throw new IllegalArgumentException(
+        String.format(
+            "Environment %s has invalid %s: %s", name, RouterConfigKeys.ENV_THREADS_MAX_KEY, threadsMax
+        )
+    );
   }
 
   @Override
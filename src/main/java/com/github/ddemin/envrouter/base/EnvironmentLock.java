@@ -1,13 +1,18 @@
 package com.github.ddemin.envrouter.base;
 
-import lombok.AllArgsConstructor;
+import com.github.ddemin.envrouter.base.EnvResources.BorrowedResource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
 
 /**
  * Created by Dmitrii Demin on 19.09.2017.
  */
-@AllArgsConstructor
 @Getter
 public class EnvironmentLock<T> {
 
@@ -17,6 +22,47 @@ public class EnvironmentLock<T> {
 
   private String statusMessage;
 
+  @Getter(AccessLevel.NONE)
+  private final AtomicBoolean released = new AtomicBoolean();
+  @Getter(AccessLevel.PACKAGE)
+  private final long createdAtNanos = System.nanoTime();
+  // Count of slots that were taken (capacity of environment can be changed while lock is held)
+  @Getter(AccessLevel.PACKAGE)
+  @Setter(AccessLevel.PACKAGE)
+  private int lockedSlots;
+  // Lock was released by watchdog, because its lease was expired
+  private volatile boolean reclaimed;
+  // Entity is run by owner until it's stopped by owner or watchdog, see #stopEntity
+  @Getter(AccessLevel.NONE)
+  private final AtomicBoolean entityRunning = new AtomicBoolean(true);
+  @Getter(AccessLevel.NONE)
+  private final CountDownLatch ownerInterrupted = new CountDownLatch(1);
+  // Number of entity in batch of entities that use the same slots one by one (see RouterConfig.LOCK_BATCH_SIZE)
+  @Getter(AccessLevel.PACKAGE)
+  @Setter(AccessLevel.PACKAGE)
+  private int batchNumber = 1;
+  @Getter(AccessLevel.PACKAGE)
+  @Setter(AccessLevel.PACKAGE)
+  private long batchStartedAtNanos = createdAtNanos;
+  // Resources that are borrowed from pools of environment by name, see EnvResources
+  @Getter(AccessLevel.PACKAGE)
+  private final Map<String, BorrowedResource> resources = new ConcurrentHashMap<>();
+
+  /**
+   * Creates lock.
+   *
+   * @param environment locked environment
+   * @param targetEntity entity for test
+   * @param lockStatus status of locking
+   * @param statusMessage details of status
+   */
+  public EnvironmentLock(Environment environment, T targetEntity, LockStatus lockStatus, String statusMessage) {
+    this.environment = environment;
+    this.targetEntity = targetEntity;
+    this.lockStatus = lockStatus;
+    this.statusMessage = statusMessage;
+  }
+
   public EnvironmentLock(@NonNull LockStatus lockStatus) {
     this.lockStatus = lockStatus;
   }
@@ -25,6 +71,47 @@ public class EnvironmentLock<T> {
     this.statusMessage = statusMessage;
   }
 
+  public boolean isReleased() {
+    return released.get();
+  }
+
+  boolean markReleased() {
+    return released.compareAndSet(false, true);
+  }
+
+  void markReclaimed() {
+    this.reclaimed = true;
+  }
+
+  /**
+   * Stop entity: by owner when entity is finished or by watchdog before interruption of owner.
+   *
+   * @return true if entity was stopped by caller
+   */
+  boolean stopEntity() {
+    return entityRunning.compareAndSet(true, false);
+  }
+
+  void markOwnerInterrupted() {
+    ownerInterrupted.countDown();
+  }
+
+  void awaitOwnerInterrupted() {
+    boolean isInterrupted = false;
+    while (true) {
+      try {
+        ownerInterrupted.await();
+        break;
+      } catch (InterruptedException ex) {
+        // Expected interruption by watchdog can come before the end of waiting
+        isInterrupted = true;
+      }
+    }
+    if (isInterrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   public enum LockStatus {
     SUCCESS_LOCKED,
     SUCCESS_HARD_LOCKED,
@@ -32,7 +119,8 @@ public class EnvironmentLock<T> {
     FAILURE_NO_AVAILABLE,
     FAILURE_NO_TARGET_ENTITIES,
     FAILURE_UNDEFINED_ENV,
-    FAILURE_TIMEOUT
+    FAILURE_TIMEOUT,
+    FAILURE_INTERRUPTED
   }
 
 }
@@ -0,0 +1,228 @@
+package com.github.ddemin.envrouter.base;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+/**
+ * Slots (parallel threads) counter of one environment. Entity takes one slot, several slots (weight) or all slots
+ * (hard-lock). All state transitions are lock-free (CAS over immutable state snapshot), so locking of one
+ * environment never contends with locking of another one.
+ */
+@Getter
+class EnvironmentSlots {
+
+  private final Environment environment;
+  private final AtomicReference<SlotsState> state;
+  // Environment was removed: already taken slots are released as usual, but new locks are rejected
+  private volatile boolean retired;
+
+  EnvironmentSlots(@NonNull Environment environment, int capacity) {
+    this.environment = environment;
+    this.state = new AtomicReference<>(SlotsState.free(capacity));
+  }
+
+  SlotsState getState() {
+    return state.get();
+  }
+
+  boolean isAvailable() {
+    return !retired && state.get().isAvailable();
+  }
+
+  boolean isRetired() {
+    return retired;
+  }
+
+  boolean isDraining() {
+    return state.get().isDraining(System.nanoTime());
+  }
+
+  boolean tryLock() {
+    return tryLock(1);
+  }
+
+  /**
+   * Try to take several slots atomically. Weight that exceeds capacity takes all slots.
+   * Reservation of draining environment (see #tryReserve) can be used only by entity that is heavy enough.
+   *
+   * @param weight count of slots
+   * @return success of locking
+   */
+  boolean tryLock(int weight) {
+    if (retired) {
+      return false;
+    }
+    long now = System.nanoTime();
+    return update(
+        it -> {
+          int slots = Math.min(weight, it.capacity);
+          if (it.mode == LockMode.HARD_LOCKED || it.busy + slots > it.capacity) {
+            return null;
+          } else if (it.reservedWeight > 0 && slots >= it.reservedWeight) {
+            return new SlotsState(LockMode.LOCKED, it.busy + slots, it.capacity, 0, 0, 0);
+          }
+          return it.isDraining(now) ? null : it.withBusy(LockMode.LOCKED, it.busy + slots);
+        }
+    );
+  }
+
+  boolean tryHardLock() {
+    if (retired) {
+      return false;
+    }
+    return update(
+        it -> it.mode == LockMode.FREE
+            ? new SlotsState(LockMode.HARD_LOCKED, it.capacity, it.capacity, 0, 0, 0)
+            : null
+    );
+  }
+
+  /**
+   * Reserve environment for heavy (weighted or hard-lock) entity: locks of lighter entities will be rejected until
+   * enough slots are released or reservation timeout is reached. Expired reservation is renewed after pause of the
+   * same duration, so lighter entities use environment between reservations.
+   *
+   * @param weight count of slots that are required by entity
+   * @param timeoutNanos max duration of reservation
+   * @return true if environment is reserved (draining) now
+   */
+  boolean tryReserve(int weight, long timeoutNanos) {
+    long now = System.nanoTime();
+    update(
+        it -> {
+          if (it.mode == LockMode.HARD_LOCKED || it.isDraining(now)) {
+            return null;
+          } else if (it.reservedWeight > 0 && now - (it.drainDeadlineNanos + timeoutNanos) < 0) {
+            // Pause after expired reservation
+            return null;
+          }
+          return new SlotsState(it.mode, it.busy, it.capacity, Math.min(weight, it.capacity), now, now + timeoutNanos);
+        }
+    );
+    return state.get().isDraining(now);
+  }
+
+  void cancelReservation() {
+    update(it -> it.reservedWeight > 0 ? new SlotsState(it.mode, it.busy, it.capacity, 0, 0, 0) : null);
+  }
+
+  /**
+   * Returns count of slots that entity takes on this environment.
+   *
+   * @param entity wrapped entity
+   * @return all slots for hard-lock entity, otherwise weight of entity (but not greater than capacity)
+   */
+  int weightOf(TestEntityWrapper entity) {
+    int capacity = state.get().capacity;
+    return entity.isRequiresHardLock() ? capacity : Math.min(entity.getWeight(), capacity);
+  }
+
+  void release() {
+    release(1);
+  }
+
+  /**
+   * Release slots. Hard-locked environment is released completely.
+   *
+   * @param weight count of slots (weight that exceeds count of busy slots releases all slots)
+   */
+  void release(int weight) {
+    update(
+        it -> {
+          if (it.mode == LockMode.LOCKED && it.busy > weight) {
+            return it.withBusy(LockMode.LOCKED, it.busy - weight);
+          }
+          return it.withBusy(LockMode.FREE, 0);
+        }
+    );
+  }
+
+  void reset(int capacity) {
+    state.set(SlotsState.free(capacity));
+  }
+
+  /**
+   * Change capacity without loss of taken slots. If new capacity is less than count of busy slots, then environment
+   * isn't available until enough slots will be released.
+   *
+   * @param capacity new count of slots
+   */
+  void resize(int capacity) {
+    update(
+        it -> it.capacity == capacity
+            ? null
+            : new SlotsState(
+                it.mode,
+                it.mode == LockMode.HARD_LOCKED ? capacity : it.busy,
+                capacity,
+                Math.min(it.reservedWeight, capacity),
+                it.reservedAtNanos,
+                it.drainDeadlineNanos
+            )
+    );
+  }
+
+  void retire() {
+    retired = true;
+    cancelReservation();
+  }
+
+  private boolean update(UnaryOperator<SlotsState> transition) {
+    while (true) {
+      SlotsState current = state.get();
+      SlotsState next = transition.apply(current);
+      if (next == null) {
+        return false;
+      }
+      if (state.compareAndSet(current, next)) {
+        return true;
+      }
+    }
+  }
+
+  enum LockMode {
+    FREE,
+    LOCKED,
+    HARD_LOCKED
+  }
+
+  @Getter
+  @ToString
+  @AllArgsConstructor
+  static final class SlotsState {
+
+    private final LockMode mode;
+    private final int busy;
+    private final int capacity;
+    // Reservation for heavy entity (drain mode), 0 - no reservation
+    private final int reservedWeight;
+    private final long reservedAtNanos;
+    private final long drainDeadlineNanos;
+
+    static SlotsState free(int capacity) {
+      return new SlotsState(LockMode.FREE, 0, capacity, 0, 0, 0);
+    }
+
+    boolean isAvailable() {
+      return mode != LockMode.HARD_LOCKED && busy < capacity;
+    }
+
+    boolean isDraining(long nowNanos) {
+      return reservedWeight > 0 && nowNanos - drainDeadlineNanos < 0;
+    }
+
+    int freeSlots() {
+      return mode == LockMode.HARD_LOCKED ? 0 : capacity - busy;
+    }
+
+    SlotsState withBusy(LockMode newMode, int newBusy) {
+      return new SlotsState(newMode, newBusy, capacity, reservedWeight, reservedAtNanos, drainDeadlineNanos);
+    }
+
+  }
+
+}
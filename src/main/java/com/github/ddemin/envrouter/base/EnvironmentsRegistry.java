@@ -0,0 +1,141 @@
+package com.github.ddemin.envrouter.base;
+
+import com.github.ddemin.envrouter.util.PrefixTrie;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Registry of environments. Each registered environment gets stable integer id (index), so any per-environment
+ * data can be stored in arrays. Lookup by name (case-insensitive) and by name prefix (see @Env tag) is O(name length),
+ * also after unregistration of environments.
+ * Id of unregistered environment isn't reused, so its data stays available by id.
+ */
+@Slf4j
+public class EnvironmentsRegistry {
+
+  private final Map<String, Environment> envsByName = new ConcurrentHashMap<>();
+  private final PrefixTrie<Environment> envsByPrefix = new PrefixTrie<>();
+  private volatile Environment[] envsById = new Environment[0];
+
+  /**
+   * Register environment and assign id to it. Environment with the same name gets id of already registered one.
+   *
+   * @param env environment
+   * @return id of environment
+   */
+  public synchronized int register(@NonNull Environment env) {
+    String key = env.getName().toLowerCase();
+    Environment registered = envsByName.get(key);
+    if (registered != null) {
+      env.setId(registered.getId());
+      return registered.getId();
+    }
+
+    int id = envsById.length;
+    env.setId(id);
+    Environment[] newEnvsById = Arrays.copyOf(envsById, id + 1);
+    newEnvsById[id] = env;
+    envsByName.put(key, env);
+    envsByPrefix.put(key, env);
+    envsById = newEnvsById;
+    log.debug("Environment {} was registered with id {}", env.getName(), id);
+    return id;
+  }
+
+  /**
+   * Unregister environment: it can't be found by name anymore, but it is still available by id.
+   *
+   * @param env environment
+   * @return true if environment was registered
+   */
+  public synchronized boolean unregister(@NonNull Environment env) {
+    String key = env.getName().toLowerCase();
+    Environment registered = envsByName.get(key);
+    if (registered == null || registered.getId() != env.getId()) {
+      return false;
+    }
+    envsByName.remove(key);
+    envsByPrefix.remove(key);
+    log.debug("Environment {} with id {} was unregistered", env.getName(), env.getId());
+    return true;
+  }
+
+  /**
+   * Create copy of registry with the same environments and ids. Changes of copy don't affect this registry, so several
+   * changes can be prepared and then published at once.
+   *
+   * @return new registry
+   */
+  public synchronized EnvironmentsRegistry copy() {
+    EnvironmentsRegistry copy = new EnvironmentsRegistry();
+    copy.envsByName.putAll(envsByName);
+    envsByName.forEach(copy.envsByPrefix::put);
+    // Array is replaced on registration, so it can be shared
+    copy.envsById = envsById;
+    return copy;
+  }
+
+  /**
+   * Get environment by id.
+   *
+   * @param id id of environment
+   * @return environment or null
+   */
+  public Environment getById(int id) {
+    Environment[] envs = envsById;
+    return id >= 0 && id < envs.length ? envs[id] : null;
+  }
+
+  /**
+   * Get environment by name (case-insensitive).
+   *
+   * @param envName name of environment
+   * @return environment or null
+   */
+  public Environment getByName(@NonNull String envName) {
+    return envsByName.get(envName.toLowerCase());
+  }
+
+  /**
+   * Check that some registered environment has name that starts with prefix.
+   *
+   * @param prefix prefix of environment name (lower case)
+   * @return true if at least one environment matches
+   */
+  public boolean containsPrefix(@NonNull String prefix) {
+    return envsByPrefix.containsKeyStartingWith(prefix);
+  }
+
+  /**
+   * Returns all registered environments ordered by id.
+   *
+   * @return list of environments
+   */
+  public List<Environment> getAll() {
+    Environment[] envs = envsById;
+    if (envsByName.size() == envs.length) {
+      return Collections.unmodifiableList(Arrays.asList(envs));
+    }
+    return Collections.unmodifiableList(
+        Arrays.stream(envs)
+            .filter(env -> envsByName.get(env.getName().toLowerCase()) == env)
+            .collect(Collectors.toList())
+    );
+  }
+
+  /**
+   * Returns count of ids (including ids of unregistered environments).
+   *
+   * @return max id + 1
+   */
+  public int size() {
+    return envsById.length;
+  }
+
+}
@@ -1,13 +1,18 @@
 package com.github.ddemin.envrouter.base;
 
 import com.github.ddemin.envrouter.RouterConfig;
-import com.github.ddemin.envrouter.cucumber2.testng.AbstractCucumberFeatureTest;
+import com.github.ddemin.envrouter.metrics.RouterMetrics;
 import com.github.ddemin.envrouter.util.FileSystemUtils;
+import com.github.ddemin.envrouter.util.LayeredProperties;
 import com.github.ddemin.envrouter.util.PropertiesUtils;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import lombok.Data;
 import lombok.experimental.UtilityClass;
@@ -30,44 +35,66 @@ public class EnvironmentsUtils {
   }
 
   /**
-   * Create set of Environments after scanning of directory with subdir-s.
+   * Create set of Environments after scanning of directory with subdir-s. Shared properties (system properties and
+   * properties files of directory itself) are read once and shared by all environments, subdir-s are read in
+   * parallel.
    *
    * @param pathToDir path to directory with subdir-s
    * @return environment objects that based on subdir-s in provided directory
    */
   public static Set<Environment> getAllEnvironmentsFromDirectory(String pathToDir) {
     log.debug("Find environments directories in {}", pathToDir);
+    final long startNanos = System.nanoTime();
 
-    URL dirUrl = AbstractCucumberFeatureTest.class.getClassLoader().getResource(pathToDir);
+    URI dirUri = resolveDirectory(pathToDir);
+    LayeredProperties commonProperties = LayeredProperties.of(
+        PropertiesUtils.readProperties(dirUri),
+        LayeredProperties.ofSystemProperties()
+    );
+    Set<Path> envDirs = FileSystemUtils.getSubdirectories(dirUri);
+
+    Set<Environment> envs;
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(RouterConfig.ENVS_DISCOVERY_THREADS, envDirs.size())));
+    try {
+      envs = pool.invoke(
+          ForkJoinTask.adapt(
+              () -> envDirs.parallelStream()
+                  .map(path -> new Environment(path, commonProperties))
+                  .collect(Collectors.toSet())
+          )
+      );
+    } finally {
+      pool.shutdown();
+    }
+
+    long discoveryNanos = System.nanoTime() - startNanos;
+    RouterMetrics.recordNanos(RouterMetrics.ENVS_DISCOVERY, RouterMetrics.ALL_ENVS, discoveryNanos);
+    log.info(
+        "{} environments were found in {} during {} ms",
+        envs.size(),
+        pathToDir,
+        TimeUnit.NANOSECONDS.toMillis(discoveryNanos)
+    );
+    return envs;
+  }
+
+  /**
+   * Find directory with environments subdir-s in classpath.
+   *
+   * @param pathToDir path to directory in classpath
+   * @return URI of directory
+   */
+  public static URI resolveDirectory(String pathToDir) {
+    URL dirUrl = EnvironmentsUtils.class.getClassLoader().getResource(pathToDir);
     if (dirUrl == null) {
       throw new IllegalArgumentException("Directory isn't found: " + pathToDir);
     }
 
-    URI dirUri;
     try {
-      dirUri = dirUrl.toURI();
+      return dirUrl.toURI();
     } catch (URISyntaxException e) {
       throw new IllegalArgumentException("Directory URL can't be converted to URI: " + e.getMessage(), e);
     }
-
-    return FileSystemUtils.getSubdirectories(dirUri).stream()
-        .map(path -> {
-          Environment env = new Environment(path);
-          try {
-            env.withProperties(
-                PropertiesUtils.readProperties(
-                    EnvironmentsUtils.class
-                        .getClassLoader()
-                        .getResource(pathToDir)
-                        .toURI()
-                )
-            );
-          } catch (URISyntaxException e) {
-            throw new RuntimeException(e);
-          }
-          return env;
-        })
-        .collect(Collectors.toSet());
   }
 
   /**
@@ -0,0 +1,123 @@
+package com.github.ddemin.envrouter.base;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Watcher of environments directory. Changes are collected until the directory is quiet for DEBOUNCE_MS, then:
+ * changes of root directory (environment subdir-s added or removed, common properties changed) are reported as a
+ * whole, changes of properties files in environment subdir-s are reported per environment.
+ */
+@Slf4j
+class EnvironmentsWatcher implements Closeable {
+
+  static final long DEBOUNCE_MS = 300;
+
+  private final Path root;
+  private final Runnable onEnvironmentsChanged;
+  private final Consumer<String> onEnvironmentChanged;
+  private final WatchService watchService;
+  private final Thread thread;
+
+  EnvironmentsWatcher(Path root, Runnable onEnvironmentsChanged, Consumer<String> onEnvironmentChanged)
+      throws IOException {
+    this.root = root;
+    this.onEnvironmentsChanged = onEnvironmentsChanged;
+    this.onEnvironmentChanged = onEnvironmentChanged;
+    this.watchService = root.getFileSystem().newWatchService();
+    register(root);
+    try (DirectoryStream<Path> envDirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+      for (Path envDir : envDirs) {
+        register(envDir);
+      }
+    }
+    this.thread = new Thread(this::watch, "envrouter-envs-watcher");
+    this.thread.setDaemon(true);
+    this.thread.start();
+    log.info("Watch environments directory: {}", root);
+  }
+
+  @Override
+  public void close() throws IOException {
+    thread.interrupt();
+    watchService.close();
+  }
+
+  private void register(Path dir) throws IOException {
+    dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+  }
+
+  private void watch() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        boolean rootChanged = false;
+        Set<String> changedEnvs = new HashSet<>();
+        WatchKey key = watchService.take();
+        while (key != null) {
+          rootChanged |= collectChanges(key, changedEnvs);
+          key = watchService.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+        }
+        notifyListeners(rootChanged, changedEnvs);
+      }
+    } catch (InterruptedException | ClosedWatchServiceException ex) {
+      log.debug("Watching of environments directory is stopped");
+    }
+  }
+
+  private boolean collectChanges(WatchKey key, Set<String> changedEnvs) {
+    Path dir = (Path) key.watchable();
+    boolean rootChanged = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW) {
+        rootChanged = true;
+      } else if (dir.equals(root)) {
+        Path child = root.resolve((Path) event.context());
+        if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+          try {
+            register(child);
+          } catch (IOException ex) {
+            log.warn("Environment directory can't be watched: {}", child, ex);
+          }
+        }
+        rootChanged = true;
+      } else {
+        changedEnvs.add(dir.getFileName().toString().toLowerCase());
+      }
+    }
+    if (!key.reset() && !dir.equals(root)) {
+      // Environment directory was removed
+      rootChanged = true;
+    }
+    return rootChanged;
+  }
+
+  private void notifyListeners(boolean rootChanged, Set<String> changedEnvs) {
+    try {
+      if (rootChanged) {
+        onEnvironmentsChanged.run();
+      } else {
+        changedEnvs.forEach(onEnvironmentChanged);
+      }
+    } catch (RuntimeException ex) {
+      log.error("Changes of environments directory weren't applied", ex);
+    }
+  }
+
+}
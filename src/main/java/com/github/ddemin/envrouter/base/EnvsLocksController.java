@@ -1,5 +1,6 @@
 package com.github.ddemin.envrouter.base;
 
+import static com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus.FAILURE_INTERRUPTED;
 import static com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus.FAILURE_NO_AVAILABLE;
 import static com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus.FAILURE_NO_ENTITY_FOR_AVAILABLE_ENVS;
 import static com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus.FAILURE_NO_TARGET_ENTITIES;
@@ -8,32 +9,32 @@ import static com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus.FAILUR
 import static com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus.SUCCESS_HARD_LOCKED;
 import static com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus.SUCCESS_LOCKED;
 import static java.lang.String.format;
-import static org.awaitility.Awaitility.await;
-import static org.hamcrest.CoreMatchers.anyOf;
-import static org.hamcrest.Matchers.hasProperty;
-import static org.hamcrest.Matchers.not;
-import static org.hamcrest.core.Is.is;
 
 import com.github.ddemin.envrouter.RouterConfig;
 import com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys;
+import com.github.ddemin.envrouter.base.EnvironmentSlots.LockMode;
+import com.github.ddemin.envrouter.base.EnvironmentSlots.SlotsState;
+import com.github.ddemin.envrouter.metrics.RouterMetrics;
 import com.google.common.base.Joiner;
-import com.google.common.collect.Maps;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Synchronized;
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
-import org.awaitility.core.ConditionTimeoutException;
 
 /**
  * Created by Dmitrii Demin on 18.09.2017.
@@ -43,31 +44,199 @@ import org.awaitility.core.ConditionTimeoutException;
 @UtilityClass
 public class EnvsLocksController {
 
-  private static Map<Environment, Integer> testDatasLockMap;
+  private static final long MIN_HISTORY_LEASE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1);
+  private static final LocksWaitingQueue WAITERS = new LocksWaitingQueue();
+  private static final LeaseWatchdog WATCHDOG = new LeaseWatchdog(EnvsLocksController::freeSlots);
+  // Slots of finished entity that are kept by thread for the next entity of batch
+  private static final ThreadLocal<EnvironmentLock<? extends TestEntityWrapper>> RETAINED_LOCK = new ThreadLocal<>();
+  // Guards changes of environments set (reinit, refresh)
+  private static final Object ENVS_CHANGE_LOCK = new Object();
+  private static volatile EnvironmentsRegistry registry;
+  private static volatile EnvironmentSlots[] slotsById;
+  private static volatile Set<Environment> allEnvs;
+  private static volatile SlotLeases leases;
+  private static EnvironmentsWatcher watcher;
 
   static {
-    reinit();
+    // Resources aren't prewarmed during initialization of class, they are prewarmed on registration
+    synchronized (ENVS_CHANGE_LOCK) {
+      reinitEnvironments();
+    }
+    if (RouterConfig.ENVS_WATCH) {
+      startEnvironmentsWatcher();
+    }
+    RouterMetrics.registerGauge(
+        RouterMetrics.SLOTS_BUSY,
+        () -> Arrays.stream(slotsById).collect(
+            Collectors.toMap(
+                slots -> slots.getEnvironment().getName(),
+                slots -> slots.getState().getBusy(),
+                Integer::sum
+            )
+        )
+    );
+    RouterMetrics.registerGauge(
+        RouterMetrics.SLOTS_CAPACITY,
+        () -> Arrays.stream(slotsById).collect(
+            Collectors.toMap(
+                slots -> slots.getEnvironment().getName(),
+                slots -> slots.getState().getCapacity(),
+                Integer::sum
+            )
+        )
+    );
   }
 
   /**
-   * Creates controller that handle availability of environments for usage in demo threads. ENVS_DIRECTORY and
-   * ENV_THREADS_MAX from RouterConfig will be used.
+   * Creates controller that handle availability of environments for usage in demo threads. ENVS_DIRECTORY from
+   * RouterConfig will be used, capacity of each environment is defined by Environment#getThreadsMax.
    */
   public static void reinit() {
+    Set<Environment> envs;
+    synchronized (ENVS_CHANGE_LOCK) {
+      reinitEnvironments();
+      envs = allEnvs;
+    }
+    EnvResources.prewarmAll(envs);
+  }
+
+  private static void reinitEnvironments() {
     log.debug("Create lock controller...");
-    testDatasLockMap = new TreeMap<>((o1, o2) -> o1.getName().compareToIgnoreCase(o2.getName()));
-    testDatasLockMap.putAll(
-        Maps.asMap(
-            EnvironmentsUtils.getAllEnvironments(),
-            e -> RouterConfig.ENV_THREADS_MAX
-        )
-    );
-    if (testDatasLockMap.isEmpty()) {
+    EnvironmentsRegistry newRegistry = new EnvironmentsRegistry();
+    EnvironmentsUtils.getAllEnvironments().stream()
+        .sorted((o1, o2) -> o1.getName().compareToIgnoreCase(o2.getName()))
+        .forEach(newRegistry::register);
+    if (newRegistry.size() == 0) {
       throw new IllegalStateException(
           "No any environments were found and initiated, check property: "
               + RouterConfigKeys.ENVS_DIRECTORY_KEY
       );
     }
+
+    EnvironmentSlots[] newSlotsById = new EnvironmentSlots[newRegistry.size()];
+    newRegistry.getAll().forEach(
+        env -> newSlotsById[env.getId()] = new EnvironmentSlots(env, env.getThreadsMax())
+    );
+    SlotLeases oldLeases = leases;
+    if (oldLeases != null) {
+      oldLeases.close();
+    }
+    leases = RouterConfig.LEASES_DIR == null ? null : new SlotLeases(Paths.get(RouterConfig.LEASES_DIR));
+    slotsById = newSlotsById;
+    allEnvs = Collections.unmodifiableSet(new LinkedHashSet<>(newRegistry.getAll()));
+    registry = newRegistry;
+    EnvResources.refresh(allEnvs);
+  }
+
+  /**
+   * Apply changes of environments directory without reset of locks: new environments are added with fresh slots,
+   * removed ones are drained (new locks are rejected, taken slots are released as usual), properties of existing
+   * ones are reloaded and their capacity is changed.
+   */
+  public static void refreshEnvironments() {
+    Set<Environment> envs;
+    synchronized (ENVS_CHANGE_LOCK) {
+      Set<Environment> discoveredEnvs = EnvironmentsUtils.getAllEnvironments();
+      EnvironmentsRegistry currentRegistry = registry;
+      // Changes are prepared in copy of registry and published after slots, so each registered env has slots
+      EnvironmentsRegistry newRegistry = currentRegistry.copy();
+      List<Environment> addedEnvs = new ArrayList<>();
+      List<Environment> removedEnvs = new ArrayList<>(currentRegistry.getAll());
+
+      List<Environment> sortedEnvs = discoveredEnvs.stream()
+          .sorted((o1, o2) -> o1.getName().compareToIgnoreCase(o2.getName()))
+          .collect(Collectors.toList());
+      for (Environment discovered : sortedEnvs) {
+        Environment existing = currentRegistry.getByName(discovered.getName());
+        if (existing == null) {
+          addedEnvs.add(discovered);
+        } else {
+          removedEnvs.remove(existing);
+          existing.reloadPropertiesFrom(discovered);
+          slotsOf(existing).resize(existing.getThreadsMax());
+        }
+      }
+
+      EnvironmentSlots[] newSlotsById = Arrays.copyOf(slotsById, currentRegistry.size() + addedEnvs.size());
+      for (Environment env : addedEnvs) {
+        int id = newRegistry.register(env);
+        newSlotsById[id] = new EnvironmentSlots(env, env.getThreadsMax());
+      }
+      for (Environment env : removedEnvs) {
+        newRegistry.unregister(env);
+        newSlotsById[env.getId()].retire();
+      }
+      slotsById = newSlotsById;
+      registry = newRegistry;
+      envs = Collections.unmodifiableSet(new LinkedHashSet<>(newRegistry.getAll()));
+      allEnvs = envs;
+      EnvResources.refresh(envs);
+      log.info("Environments were refreshed, added: {}, removed: {}", addedEnvs, removedEnvs);
+    }
+    WAITERS.signalAll();
+    EnvResources.prewarmAll(envs);
+  }
+
+  /**
+   * Reload properties of environment and change its capacity without reset of locks.
+   *
+   * @param envName name of environment
+   */
+  public static void reloadEnvironment(@NonNull String envName) {
+    synchronized (ENVS_CHANGE_LOCK) {
+      Environment env = getByName(envName);
+      if (env == null) {
+        log.debug("Environment isn't controlled by router, so it can't be reloaded: {}", envName);
+        return;
+      }
+      env.reloadProperties();
+      slotsOf(env).resize(env.getThreadsMax());
+      log.info("Environment was reloaded: {}", env);
+    }
+    WAITERS.signalAll();
+  }
+
+  /**
+   * Start watching of environments directory, see RouterConfigKeys.ENVS_WATCH_KEY. Directory must be on file system
+   * (not in jar).
+   */
+  public static void startEnvironmentsWatcher() {
+    synchronized (ENVS_CHANGE_LOCK) {
+      if (watcher != null) {
+        return;
+      }
+      URI dirUri = EnvironmentsUtils.resolveDirectory(RouterConfig.ENVS_DIRECTORY);
+      if (!"file".equals(dirUri.getScheme())) {
+        log.warn("Environments directory can't be watched, because it isn't on file system: {}", dirUri);
+        return;
+      }
+      try {
+        watcher = new EnvironmentsWatcher(
+            Paths.get(dirUri),
+            EnvsLocksController::refreshEnvironments,
+            EnvsLocksController::reloadEnvironment
+        );
+      } catch (IOException ex) {
+        log.warn("Environments directory can't be watched: {}", dirUri, ex);
+      }
+    }
+  }
+
+  /**
+   * Stop watching of environments directory.
+   */
+  public static void stopEnvironmentsWatcher() {
+    synchronized (ENVS_CHANGE_LOCK) {
+      if (watcher == null) {
+        return;
+      }
+      try {
+        watcher.close();
+      } catch (IOException ex) {
+        log.warn("Watcher of environments directory wasn't closed properly", ex);
+      }
+      watcher = null;
+    }
   }
 
   /**
@@ -76,7 +245,7 @@ public class EnvsLocksController {
    * @return set of environments
    */
   public static Set<Environment> getAll() {
-    return testDatasLockMap.keySet();
+    return allEnvs;
   }
 
   /**
@@ -86,10 +255,7 @@ public class EnvsLocksController {
    * @return environment object
    */
   public static Environment getByName(@NonNull String envName) {
-    return getAll().stream()
-        .filter(it -> it.getName().equalsIgnoreCase(envName))
-        .findFirst()
-        .orElse(null);
+    return registry.getByName(envName);
   }
 
   /**
@@ -98,9 +264,8 @@ public class EnvsLocksController {
    * @param env environment
    * @return possibility to use this environment in one more demo thread
    */
-  @Synchronized
   public static boolean isAvailable(@NonNull Environment env) {
-    return testDatasLockMap.get(env) > 0;
+    return slotsOf(env).isAvailable();
   }
 
   /**
@@ -109,7 +274,6 @@ public class EnvsLocksController {
    * @param envName name of environment
    * @return possibility to use this environment in one more demo thread
    */
-  @Synchronized
   public static boolean isAvailable(@NonNull String envName) {
     Environment td = getByName(envName);
     return td != null && isAvailable(td);
@@ -120,11 +284,10 @@ public class EnvsLocksController {
    *
    * @return set of all environments that can be used in one more demo thread
    */
-  @Synchronized
   public static Set<Environment> getAllAvailable() {
-    return testDatasLockMap.entrySet().stream()
-        .map(Entry::getKey)
-        .filter(EnvsLocksController::isAvailable)
+    return Arrays.stream(slotsById)
+        .filter(EnvironmentSlots::isAvailable)
+        .map(EnvironmentSlots::getEnvironment)
         .collect(Collectors.toCollection(LinkedHashSet::new));
   }
 
@@ -134,13 +297,16 @@ public class EnvsLocksController {
    * @param env environment for locking
    * @return success of environment lock
    */
-  @Synchronized
   public static boolean hardLock(@NonNull Environment env) {
-    if (testDatasLockMap.get(env) < RouterConfig.ENV_THREADS_MAX) {
+    EnvironmentSlots slots = slotsOf(env);
+    if (!slots.tryHardLock()) {
+      return false;
+    }
+    int capacity = slots.getState().getCapacity();
+    if (!tryAcquireLeases(slots, capacity)) {
       return false;
     }
     log.debug("Hard-lock of environment: {}", env);
-    testDatasLockMap.put(env, testDatasLockMap.get(env) * -1);
     return true;
   }
 
@@ -150,13 +316,40 @@ public class EnvsLocksController {
    * @param env environment for locking
    * @return success of environment lock
    */
-  @Synchronized
   public static boolean lock(@NonNull Environment env) {
-    if (!isAvailable(env)) {
+    return lock(env, 1);
+  }
+
+  /**
+   * Try to lock several slots of environment atomically.
+   *
+   * @param env environment for locking
+   * @param weight count of slots, weight that exceeds capacity of environment takes all slots
+   * @return success of environment lock
+   */
+  public static boolean lock(@NonNull Environment env, int weight) {
+    EnvironmentSlots slots = slotsOf(env);
+    if (!slots.tryLock(weight) || !tryAcquireLeases(slots, weight)) {
+      return false;
+    }
+    log.debug("Lock environment: {} (weight {})", env, weight);
+    return true;
+  }
+
+  /**
+   * Mark that owner thread has finished entity of lock, must be called by owner before recording of duration and
+   * release. If lease of lock was expired and watchdog interrupts owner, then this method waits for interruption and
+   * clears it, so it doesn't affect the next entities of owner. Otherwise watchdog won't interrupt owner anymore.
+   *
+   * @param lock successful lock of environment
+   * @return true if owner was interrupted by watchdog, because lease of lock was expired
+   */
+  public static boolean finishEntity(@NonNull EnvironmentLock<? extends TestEntityWrapper> lock) {
+    if (lock.stopEntity()) {
       return false;
     }
-    log.debug("Lock environment: {}", env);
-    testDatasLockMap.put(env, testDatasLockMap.get(env) - 1);
+    lock.awaitOwnerInterrupted();
+    Thread.interrupted();
     return true;
   }
 
@@ -165,20 +358,83 @@ public class EnvsLocksController {
    *
    * @param env environment for release
    */
-  @Synchronized
   public static void release(@NonNull Environment env) {
-    log.debug("Release environment: {}", env);
-    int envFreeThreads = testDatasLockMap.get(env);
-    if (Math.abs(envFreeThreads) < RouterConfig.ENV_THREADS_MAX) {
-      if (envFreeThreads < 0) {
-        log.debug("Release after hard-lock: {}", env);
-        testDatasLockMap.put(env, envFreeThreads * -1);
-      } else {
-        testDatasLockMap.put(env, envFreeThreads + 1);
-      }
-    } else {
-      testDatasLockMap.put(env, RouterConfig.ENV_THREADS_MAX);
+    release(env, 1);
+  }
+
+  /**
+   * Release several slots of environment. Hard-locked environment is released completely.
+   *
+   * @param env environment for release
+   * @param weight count of slots
+   */
+  public static void release(@NonNull Environment env, int weight) {
+    log.debug("Release environment: {} (weight {})", env, weight);
+    EnvironmentSlots slots = slotsOf(env);
+    SlotLeases currentLeases = leases;
+    if (currentLeases != null) {
+      SlotsState state = slots.getState();
+      currentLeases.release(env, state.getMode() == LockMode.HARD_LOCKED ? state.getCapacity() : weight);
+    }
+    slots.release(weight);
+    WAITERS.signalAll();
+  }
+
+  /**
+   * Release environment that was locked for entity.
+   *
+   * @param lock successful lock of environment
+   */
+  public static void release(@NonNull EnvironmentLock<? extends TestEntityWrapper> lock) {
+    if (lock.getLockStatus() != SUCCESS_HARD_LOCKED && lock.getLockStatus() != SUCCESS_LOCKED) {
+      log.warn("Unsuccessful lock can't be released: {}", lock.getLockStatus());
+      return;
+    } else if (!lock.markReleased()) {
+      log.debug("Lock was already released: {}", lock.getEnvironment());
+      return;
+    }
+    freeSlots(lock);
+  }
+
+  /**
+   * Release environment that was locked for entity or, in batching mode (see RouterConfig.LOCK_BATCH_SIZE), keep its
+   * slots for current thread. Then the next #findUntestedEntityAndLockEnv of this thread takes entity of the same
+   * environment, weight and lock mode without release and search. Slots are kept only if queues have such entity,
+   * kept slots are released if batch can't be continued or they aren't used during RouterConfig.LOCK_BATCH_IDLE_MS.
+   *
+   * @param lock successful lock of environment
+   * @param queues queues with untested entities, the same as for #findUntestedEntityAndLockEnv
+   */
+  public static <T extends TestEntityWrapper> void releaseOrRetain(
+      @NonNull EnvironmentLock<T> lock,
+      @NonNull TestEntitiesQueues<T> queues
+  ) {
+    releaseRetained();
+    if (!isBatchable(lock) || !queues.hasEntityForRouting(lock.getEnvironment().getName(), batchFilterOf(lock))) {
+      release(lock);
+      return;
     }
+    log.debug("Keep slots of environment for the next entity: {}", lock.getEnvironment());
+    WATCHDOG.unwatch(lock);
+    RETAINED_LOCK.set(lock);
+    WATCHDOG.schedule(
+        () -> {
+          if (!lock.isReleased()) {
+            log.debug("Kept slots weren't used in time and will be released: {}", lock.getEnvironment());
+            release(lock);
+          }
+        },
+        RouterConfig.LOCK_BATCH_IDLE_MS
+    );
+  }
+
+  /**
+   * Returns locks that were reclaimed by watchdog, because their owners didn't release them in time.
+   *
+   * @return the last events of reclaiming
+   */
+  public static List<ExpiredLeaseEvent> getExpiredLeaseEvents() {
+    return WATCHDOG.getEvents();
   }
 
   /**
@@ -186,30 +442,35 @@ public class EnvsLocksController {
    *
    * @param env environment for reset
    */
-  @Synchronized
   public static void resetLock(@NonNull Environment env) {
     log.debug("Reset locking of environment: {}", env);
-    testDatasLockMap.put(env, RouterConfig.ENV_THREADS_MAX);
+    SlotLeases currentLeases = leases;
+    if (currentLeases != null) {
+      currentLeases.releaseAll(env);
+    }
+    slotsOf(env).reset(env.getThreadsMax());
+    WAITERS.signalAll();
   }
 
   /**
    * Release all environments.
    */
-  @Synchronized
   public static void releaseAll() {
-    testDatasLockMap.keySet().forEach(EnvsLocksController::release);
+    getAll().forEach(EnvsLocksController::release);
   }
 
   /**
    * Reset locking of all environments.
    */
-  @Synchronized
   public static void resetLockingOfAll() {
-    testDatasLockMap.keySet().forEach(EnvsLocksController::resetLock);
+    getAll().forEach(EnvsLocksController::resetLock);
   }
 
   /**
    * Find untested entity and try to lock appropriate environment for it.
+   * If there are no available environments (or entities for them) then current thread waits for release of some
+   * environment. Waiting threads are woken up in FIFO order, each one waits not longer than LOCK_TIMEOUT_MS.
+   * Interrupted thread stops waiting with status FAILURE_INTERRUPTED (it isn't counted as timeout).
    *
    * @param envQueues queues with untested entities
    * @return environment-for-entity lock with some status
@@ -217,48 +478,70 @@ public class EnvsLocksController {
   public static <T extends TestEntityWrapper> EnvironmentLock<T> findUntestedEntityAndLockEnv(
       @NonNull TestEntitiesQueues<T> envQueues
   ) {
-    EnvironmentLock<T> rez;
+    EnvironmentLock<T> batchLock = continueBatch(envQueues);
+    if (batchLock != null) {
+      return batchLock;
+    }
+
+    long startNanos = System.nanoTime();
+    long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(RouterConfig.LOCK_TIMEOUT_MS);
     try {
-      rez = await()
-          .pollInSameThread()
-          .timeout(RouterConfig.LOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS)
-          .pollInterval(500, TimeUnit.MILLISECONDS)
-          .until(
-              () -> findEntityAndLockEnv(envQueues),
-              hasProperty(
-                  "lockStatus",
-                  not(
-                      anyOf(
-                          is(FAILURE_NO_AVAILABLE),
-                          is(FAILURE_NO_ENTITY_FOR_AVAILABLE_ENVS)
-                      )
-                  )
-              )
+      while (true) {
+        long epoch = WAITERS.epoch();
+        EnvironmentLock<T> rez = findEntityAndLockEnv(envQueues);
+        if (rez.getLockStatus() == SUCCESS_LOCKED || rez.getLockStatus() == SUCCESS_HARD_LOCKED) {
+          RouterMetrics.recordNanos(
+              RouterMetrics.LOCK_WAIT,
+              rez.getEnvironment().getName(),
+              System.nanoTime() - startNanos
           );
-    } catch (ConditionTimeoutException timeoutEx) {
-      rez = new EnvironmentLock<>(FAILURE_TIMEOUT);
-      List<T> untestedEntities = envQueues.getQueuesMap().values().stream()
-          .flatMap(Collection::stream)
-          .collect(Collectors.toList());
+          return rez;
+        } else if (rez.getLockStatus() != FAILURE_NO_AVAILABLE
+            && rez.getLockStatus() != FAILURE_NO_ENTITY_FOR_AVAILABLE_ENVS) {
+          return rez;
+        }
+        long waitDeadlineNanos = leases == null
+            ? deadlineNanos
+            : Math.min(deadlineNanos, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SlotLeases.POLL_INTERVAL_MS));
+        if (!WAITERS.awaitChange(epoch, waitDeadlineNanos) && deadlineNanos - System.nanoTime() <= 0) {
+          break;
+        }
+      }
+    } catch (InterruptedException ex) {
+      log.warn("Waiting for environment was interrupted");
+      Thread.currentThread().interrupt();
+      EnvironmentLock<T> rez = new EnvironmentLock<>(FAILURE_INTERRUPTED);
       rez.setStatusMessage(
           format(
-              "Tests routing timeout occurred (%d ms). Untested entities:%n%s",
-              RouterConfig.LOCK_TIMEOUT_MS,
-              Joiner.on(System.lineSeparator()).join(untestedEntities))
+              "Tests routing was interrupted after %d ms",
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+          )
       );
+      return rez;
     }
+
+    RouterMetrics.increment(RouterMetrics.LOCKS_TIMEOUTS, RouterMetrics.ALL_ENVS);
+    EnvironmentLock<T> rez = new EnvironmentLock<>(FAILURE_TIMEOUT);
+    List<T> untestedEntities = envQueues.getQueuesMap().values().stream()
+        .flatMap(Collection::stream)
+        .collect(Collectors.toList());
+    rez.setStatusMessage(
+        format(
+            "Tests routing timeout occurred (%d ms). Untested entities:%n%s",
+            RouterConfig.LOCK_TIMEOUT_MS,
+            Joiner.on(System.lineSeparator()).join(untestedEntities))
+    );
     return rez;
   }
 
-  @Synchronized
-  private static <T extends TestEntityWrapper>  EnvironmentLock<T> findEntityAndLockEnv(
+  private static <T extends TestEntityWrapper> EnvironmentLock<T> findEntityAndLockEnv(
       @NonNull TestEntitiesQueues<T> queues
   ) {
-    List<Entry<String, Queue<T>>> queuesForUndefEnvs = queues.getQueuesForUndefinedEnvs(getAll());
+    List<Entry<String, Queue<T>>> queuesForUndefEnvs = queues.getQueuesForUnregisteredEnvs(registry);
     Set<Environment> availableEnvs = getAllAvailable();
     T entityForTest;
 
-    if (queues.entitiesInAllQueues() <= 0) {
+    if (queues.untestedEntities() <= 0) {
       log.error("No any entities in queues");
       return new EnvironmentLock<>(FAILURE_NO_TARGET_ENTITIES);
     } else if (queuesForUndefEnvs.size() > 0) {
@@ -271,25 +554,40 @@ public class EnvsLocksController {
     } else {
       log.trace("Search untested entities for available environments...");
       for (Environment env : availableEnvs) {
-        entityForTest = queues.pollEntityFor(env.getName());
+        EnvironmentSlots slots = slotsOf(env);
+        entityForTest = pollEntityForRouting(queues, slots);
         if (entityForTest == null) {
           continue;
-        } else if (entityForTest.isRequiresHardLock() && hardLock(env)) {
-          log.info(
-              "Untested entity was found: {} and environment was HARD-locked: {}",
-              entityForTest,
-              env
-          );
-          return new EnvironmentLock<>(env, entityForTest, SUCCESS_HARD_LOCKED, "");
-        } else if (!entityForTest.isRequiresHardLock() && lock(env)) {
-          log.info(
-              "Untested entity was found: {} and environment was locked: {}",
-              entityForTest,
-              env
+        }
+        EnvironmentLock<T> lock = lockForEntity(queues, slots, entityForTest);
+        if (lock != null) {
+          return lock;
+        }
+
+        boolean isHeavy = slots.weightOf(entityForTest) > 1;
+        boolean isReserved = isHeavy && RouterConfig.HARD_LOCK_DRAIN_MS > 0
+            && slots.tryReserve(
+                slots.weightOf(entityForTest),
+                TimeUnit.MILLISECONDS.toNanos(RouterConfig.HARD_LOCK_DRAIN_MS)
+            );
+        queues.returnAfterRouting(entityForTest);
+        RouterMetrics.increment(RouterMetrics.ENTITIES_REENQUEUED, env.getName());
+        if (isReserved) {
+          log.debug("Environment is reserved for heavy entity and will be drained: {}", env);
+        } else if (isHeavy) {
+          // Fit lighter entity into the remaining slots
+          int freeSlots = slots.getState().freeSlots();
+          T lighterEntity = queues.pollForRouting(
+              env.getName(),
+              it -> !it.isRequiresHardLock() && it.getWeight() <= freeSlots
           );
-          return new EnvironmentLock<>(env, entityForTest, SUCCESS_LOCKED, "");
-        } else {
-          queues.add(entityForTest);
+          lock = lighterEntity == null ? null : lockForEntity(queues, slots, lighterEntity);
+          if (lock != null) {
+            return lock;
+          } else if (lighterEntity != null) {
+            queues.returnAfterRouting(lighterEntity);
+            RouterMetrics.increment(RouterMetrics.ENTITIES_REENQUEUED, env.getName());
+          }
         }
       }
     }
@@ -297,4 +595,217 @@ public class EnvsLocksController {
     return new EnvironmentLock<>(FAILURE_NO_ENTITY_FOR_AVAILABLE_ENVS);
   }
 
+  private static <T extends TestEntityWrapper> EnvironmentLock<T> lockForEntity(
+      TestEntitiesQueues<T> queues,
+      EnvironmentSlots slots,
+      T entity
+  ) {
+    Environment env = slots.getEnvironment();
+    final SlotsState stateBeforeLock = slots.getState();
+    EnvironmentLock<T> lock;
+    if (entity.isRequiresHardLock() && hardLock(env)) {
+      log.info("Untested entity was found: {} and environment was HARD-locked: {}", entity, env);
+      lock = new EnvironmentLock<>(env, entity, SUCCESS_HARD_LOCKED, "");
+    } else if (!entity.isRequiresHardLock() && lock(env, entity.getWeight())) {
+      log.info("Untested entity was found: {} and environment was locked: {}", entity, env);
+      lock = new EnvironmentLock<>(env, entity, SUCCESS_LOCKED, "");
+    } else {
+      return null;
+    }
+
+    lock.setLockedSlots(slots.weightOf(entity));
+    RouterMetrics.increment(RouterMetrics.LOCKS_ACQUIRED, env.getName());
+    if (stateBeforeLock.getReservedWeight() > 0 && slots.weightOf(entity) >= stateBeforeLock.getReservedWeight()) {
+      RouterMetrics.recordNanos(
+          RouterMetrics.HEAVY_LOCK_DRAIN,
+          env.getName(),
+          System.nanoTime() - stateBeforeLock.getReservedAtNanos()
+      );
+    }
+
+    watchAndCommit(queues, lock);
+    return lock;
+  }
+
+  private static <T extends TestEntityWrapper> EnvironmentLock<T> continueBatch(TestEntitiesQueues<T> queues) {
+    EnvironmentLock<? extends TestEntityWrapper> retained = RETAINED_LOCK.get();
+    if (retained == null) {
+      return null;
+    }
+    RETAINED_LOCK.remove();
+    if (!isBatchable(retained)) {
+      release(retained);
+      return null;
+    }
+
+    Environment env = retained.getEnvironment();
+    int lockedSlots = retained.getLockedSlots();
+    T entity = queues.pollForRouting(env.getName(), batchFilterOf(retained));
+    if (entity == null) {
+      release(retained);
+      return null;
+    } else if (!retained.markReleased()) {
+      // Slots were released after idle timeout concurrently
+      queues.returnAfterRouting(entity);
+      return null;
+    }
+
+    RouterMetrics.increment(
+        RouterMetrics.SLOTS_BUSY_NANOS,
+        env.getName(),
+        lockedSlots * (System.nanoTime() - retained.getCreatedAtNanos())
+    );
+    EnvironmentLock<T> lock = new EnvironmentLock<>(env, entity, retained.getLockStatus(), "");
+    lock.setLockedSlots(lockedSlots);
+    lock.setBatchNumber(retained.getBatchNumber() + 1);
+    lock.setBatchStartedAtNanos(retained.getBatchStartedAtNanos());
+    EnvResources.transfer(retained, lock);
+    log.info("Untested entity was found: {} and environment is still locked: {}", entity, env);
+    RouterMetrics.increment(RouterMetrics.LOCKS_BATCHED, env.getName());
+    watchAndCommit(queues, lock);
+    return lock;
+  }
+
+  private static boolean isBatchable(EnvironmentLock<? extends TestEntityWrapper> lock) {
+    if (RouterConfig.LOCK_BATCH_SIZE <= 1
+        || lock.getBatchNumber() >= RouterConfig.LOCK_BATCH_SIZE
+        || lock.getLockedSlots() <= 0
+        || lock.isReleased()
+        || lock.isReclaimed()
+        || (lock.getLockStatus() != SUCCESS_LOCKED && lock.getLockStatus() != SUCCESS_HARD_LOCKED)) {
+      return false;
+    } else if (RouterConfig.LOCK_BATCH_TIME_MS > 0
+        && System.nanoTime() - lock.getBatchStartedAtNanos()
+        >= TimeUnit.MILLISECONDS.toNanos(RouterConfig.LOCK_BATCH_TIME_MS)) {
+      return false;
+    }
+    EnvironmentSlots slots;
+    try {
+      slots = slotsOf(lock.getEnvironment());
+    } catch (IllegalArgumentException ex) {
+      // Environment was removed
+      return false;
+    }
+    // Draining environment waits for heavy entity, so slots must be returned
+    return !slots.isRetired() && !slots.isDraining();
+  }
+
+  // Entity continues batch if it takes the same slots in the same lock mode
+  private static Predicate<TestEntityWrapper> batchFilterOf(EnvironmentLock<? extends TestEntityWrapper> lock) {
+    EnvironmentSlots slots = slotsOf(lock.getEnvironment());
+    int lockedSlots = lock.getLockedSlots();
+    boolean isHardLocked = lock.getLockStatus() == SUCCESS_HARD_LOCKED;
+    return it -> isHardLocked
+        ? it.isRequiresHardLock()
+        : !it.isRequiresHardLock() && slots.weightOf(it) == lockedSlots;
+  }
+
+  private static void releaseRetained() {
+    EnvironmentLock<? extends TestEntityWrapper> retained = RETAINED_LOCK.get();
+    if (retained != null) {
+      RETAINED_LOCK.remove();
+      release(retained);
+    }
+  }
+
+  // Lock must be claimed by EnvironmentLock#markReleased, so slots are freed exactly once
+  private static void freeSlots(EnvironmentLock<? extends TestEntityWrapper> lock) {
+    WATCHDOG.unwatch(lock);
+    EnvResources.returnAll(lock);
+    // Lock can be created outside of router, so it has weight of entity only
+    int lockedSlots = lock.getLockedSlots() > 0 ? lock.getLockedSlots() : lock.getTargetEntity().getWeight();
+    RouterMetrics.increment(
+        RouterMetrics.SLOTS_BUSY_NANOS,
+        lock.getEnvironment().getName(),
+        lockedSlots * (System.nanoTime() - lock.getCreatedAtNanos())
+    );
+    if (lock.getLockStatus() == SUCCESS_HARD_LOCKED) {
+      release(lock.getEnvironment());
+    } else {
+      release(lock.getEnvironment(), lockedSlots);
+    }
+  }
+
+  private static <T extends TestEntityWrapper> void watchAndCommit(
+      TestEntitiesQueues<T> queues,
+      EnvironmentLock<T> lock
+  ) {
+    EnvResources.bind(lock);
+    long leaseTimeoutMs = leaseTimeoutMsOf(lock.getTargetEntity());
+    if (leaseTimeoutMs > 0) {
+      WATCHDOG.watch(lock, Thread.currentThread(), leaseTimeoutMs);
+    }
+    commitRouting(queues);
+  }
+
+  private static long leaseTimeoutMsOf(TestEntityWrapper entity) {
+    if (entity.getTimeoutMs() > 0) {
+      return entity.getTimeoutMs();
+    } else if (RouterConfig.LEASE_HISTORY_FACTOR > 0) {
+      long expectedDurationMs = EntityDurations.getExpectedDurationMs(entity);
+      if (expectedDurationMs > 0) {
+        return Math.max(
+            MIN_HISTORY_LEASE_TIMEOUT_MS,
+            (long) (expectedDurationMs * RouterConfig.LEASE_HISTORY_FACTOR)
+        );
+      }
+    }
+    return RouterConfig.LEASE_TIMEOUT_MS;
+  }
+
+  private static <T extends TestEntityWrapper> T pollEntityForRouting(
+      TestEntitiesQueues<T> queues,
+      EnvironmentSlots slots
+  ) {
+    String envName = slots.getEnvironment().getName();
+    SlotsState state = slots.getState();
+    if (!state.isDraining(System.nanoTime())) {
+      return queues.pollForRouting(envName);
+    }
+
+    // Draining environment is waiting for heavy entity only
+    T entity = queues.pollForRouting(envName, it -> slots.weightOf(it) >= state.getReservedWeight());
+    if (entity == null) {
+      log.debug("No any heavy entities for reserved environment, cancel reservation: {}", envName);
+      slots.cancelReservation();
+      entity = queues.pollForRouting(envName);
+    }
+    return entity;
+  }
+
+  // In-JVM slots are already taken, so they are returned if slots are busy in other JVMs
+  private static boolean tryAcquireLeases(EnvironmentSlots slots, int weight) {
+    SlotLeases currentLeases = leases;
+    int capacity = slots.getState().getCapacity();
+    if (currentLeases == null
+        || currentLeases.tryAcquire(slots.getEnvironment(), Math.min(weight, capacity), capacity)) {
+      return true;
+    }
+    slots.release(weight);
+    WAITERS.signalAll();
+    return false;
+  }
+
+  private static void commitRouting(TestEntitiesQueues<?> queues) {
+    queues.commitRouting();
+    if (queues.untestedEntities() <= 0) {
+      // Wake up threads that wait for entities that were in routing
+      WAITERS.signalAll();
+    }
+  }
+
+  private static EnvironmentSlots slotsOf(Environment env) {
+    EnvironmentSlots[] slots = slotsById;
+    int id = env.getId();
+    if (id < 0 || id >= slots.length || !slots[id].getEnvironment().equals(env)) {
+      // Environment object wasn't created by this controller, so find registered one
+      Environment registered = registry.getByName(env.getName());
+      if (registered == null || !registered.equals(env) || registered.getId() >= slots.length) {
+        throw new IllegalArgumentException("Environment isn't controlled by router: " + env);
+      }
+      id = registered.getId();
+    }
+    return slots[id];
+  }
+
 }
@@ -0,0 +1,21 @@
+package com.github.ddemin.envrouter.base;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Record about environment lock that was reclaimed by watchdog, because its owner didn't release it in time.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class ExpiredLeaseEvent {
+
+  private final String environmentName;
+  private final String entity;
+  private final String ownerThreadName;
+  private final long timeoutMs;
+  private final long reclaimedAtEpochMs;
+
+}
@@ -0,0 +1,323 @@
+package com.github.ddemin.envrouter.base;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Durations store that is persisted in append-only binary log. Each measurement is appended as one record,
+ * so writers never rewrite the file. Log is replayed at startup and compacted (one snapshot record per entity
+ * and environment) if it contains too many records or torn records. Torn record (e.g. of crashed fork) is skipped,
+ * records that were appended after it are loaded.
+ *
+ * <p>Writers from several JVMs (e.g. parallel Gradle test forks) are serialized by file lock on the sibling
+ * ".lock" file. Measurements of other JVMs become visible after reopening of the store. Channels of log and lock
+ * files are kept open by store, log is reopened only if it was replaced by compaction in another store.
+ *
+ * <p>Record format (big-endian): length of body (int), CRC32 of body (int), then body: type (byte), entity key and
+ * environment name (unsigned short length + UTF-8), then duration (long) for sample record or count (long), EWMA
+ * (double), samples count (byte) and samples (long) for snapshot record. Entity keys and environment names longer
+ * than 65535 bytes aren't recorded.
+ */
+@Slf4j
+public class FileDurationsStore extends InMemoryDurationsStore {
+
+  static final int MAGIC = 0x45524453;
+  static final short VERSION = 2;
+  static final byte SAMPLE_RECORD = 1;
+  static final byte SNAPSHOT_RECORD = 2;
+
+  private static final int HEADER_SIZE = Integer.BYTES + Short.BYTES;
+  private static final int FRAME_HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+  private static final int COMPACTION_MIN_RECORDS = 1024;
+  private static final int MAX_STRING_BYTES = 0xFFFF;
+  private static final int MAX_RECORD_SIZE = 1 + 2 * (Short.BYTES + MAX_STRING_BYTES) + Long.BYTES + Double.BYTES + 1
+      + 0xFF * Long.BYTES;
+  // Length of too long strings in logs
+  private static final int ABBREVIATED_LENGTH = 64;
+  // File locks are held on behalf of the whole JVM, so threads (and stores) of one JVM are serialized additionally
+  private static final Map<Path, ReentrantLock> JVM_LOCKS = new ConcurrentHashMap<>();
+
+  @Getter
+  private final Path path;
+  private final Path lockPath;
+  private final ReentrantLock jvmLock;
+  // Channels are guarded by jvmLock
+  private FileChannel lockChannel;
+  private FileChannel appendChannel;
+  private Object appendFileKey;
+
+  private FileDurationsStore(Path path) {
+    this.path = path.toAbsolutePath().normalize();
+    this.lockPath = this.path.resolveSibling(this.path.getFileName() + ".lock");
+    this.jvmLock = JVM_LOCKS.computeIfAbsent(this.path, key -> new ReentrantLock());
+  }
+
+  /**
+   * Open store and load all measurements from file. File will be created if it doesn't exist.
+   *
+   * @param path path to file of store
+   * @return store with loaded statistics
+   */
+  public static FileDurationsStore open(@NonNull Path path) {
+    FileDurationsStore store = new FileDurationsStore(path);
+    store.load();
+    return store;
+  }
+
+  @Override
+  public void record(@NonNull String entityKey, @NonNull String envName, long durationMs) {
+    byte[] entityKeyBytes = entityKey.getBytes(UTF_8);
+    byte[] envNameBytes = envName.getBytes(UTF_8);
+    if (entityKeyBytes.length > MAX_STRING_BYTES || envNameBytes.length > MAX_STRING_BYTES) {
+      // Otherwise measurement is kept in memory only and is lost after reopening
+      log.warn("Duration of {} isn't recorded: key is too long for {}", abbreviate(entityKey), path);
+      return;
+    }
+    super.record(entityKey, envName, durationMs);
+    ByteBuffer record = allocateRecord(entityKeyBytes, envNameBytes, Long.BYTES);
+    record.put(SAMPLE_RECORD);
+    putString(record, entityKeyBytes);
+    putString(record, envNameBytes);
+    record.putLong(durationMs);
+    sealRecord(record);
+    try {
+      withFileLock(() -> append(record));
+    } catch (IOException | RuntimeException ex) {
+      // Scheduling hints must not break tests
+      log.warn("Duration of {} wasn't saved to {}: {}", abbreviate(entityKey), path, ex.toString());
+    }
+  }
+
+  private void load() {
+    try {
+      withFileLock(
+          () -> {
+            long startNanos = System.nanoTime();
+            ByteBuffer buffer = ByteBuffer.wrap(Files.exists(path) ? Files.readAllBytes(path) : new byte[0]);
+            boolean isCompactionRequired = buffer.remaining() == 0 || !readHeader(buffer);
+            int records = 0;
+            int brokenBytes = 0;
+            while (buffer.hasRemaining()) {
+              int position = buffer.position();
+              if (readRecord(buffer)) {
+                records++;
+              } else {
+                // Torn record: the next record is searched from the next byte, because its length can be broken too
+                buffer.position(position + 1);
+                brokenBytes++;
+              }
+            }
+            if (brokenBytes > 0) {
+              log.warn("Durations log {} has {} bytes of torn records, they will be dropped", path, brokenBytes);
+              isCompactionRequired = true;
+            }
+            int keys = getAllStats().values().stream().mapToInt(Map::size).sum();
+            log.debug(
+                "{} records ({} keys) were loaded from {} during {} ms",
+                records, keys, path, (System.nanoTime() - startNanos) / 1_000_000
+            );
+            if (isCompactionRequired || records >= COMPACTION_MIN_RECORDS && records > 2 * keys) {
+              compact();
+            }
+          }
+      );
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Durations store can't be loaded: " + path, ex);
+    }
+  }
+
+  private boolean readHeader(ByteBuffer buffer) {
+    if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+      log.warn("Durations log {} has unknown format, it will be rewritten", path);
+      buffer.position(buffer.limit());
+      return false;
+    }
+    return true;
+  }
+
+  // Returns false and doesn't move position if there is no intact record at position
+  private boolean readRecord(ByteBuffer buffer) {
+    if (buffer.remaining() < FRAME_HEADER_SIZE) {
+      return false;
+    }
+    int position = buffer.position();
+    int length = buffer.getInt();
+    if (length < 1 || length > MAX_RECORD_SIZE || length > buffer.remaining() - Integer.BYTES) {
+      buffer.position(position);
+      return false;
+    }
+    int checksum = buffer.getInt();
+    ByteBuffer body = buffer.slice();
+    body.limit(length);
+    CRC32 crc = new CRC32();
+    crc.update(body.duplicate());
+    if ((int) crc.getValue() != checksum) {
+      buffer.position(position);
+      return false;
+    }
+    buffer.position(buffer.position() + length);
+    try {
+      readRecordBody(body);
+    } catch (BufferUnderflowException | IllegalArgumentException ex) {
+      // Checksum is correct, so record is skipped as a whole
+      log.warn("Durations log {} has invalid record at {}: {}", path, position, ex.toString());
+    }
+    return true;
+  }
+
+  private void readRecordBody(ByteBuffer buffer) {
+    byte type = buffer.get();
+    String entityKey = getString(buffer);
+    String envName = getString(buffer);
+    if (type == SAMPLE_RECORD) {
+      long durationMs = buffer.getLong();
+      merge(entityKey, envName, DurationStats.of(durationMs), durationMs);
+    } else if (type == SNAPSHOT_RECORD) {
+      long count = buffer.getLong();
+      double ewmaMs = buffer.getDouble();
+      long[] samples = new long[Byte.toUnsignedInt(buffer.get())];
+      for (int i = 0; i < samples.length; i++) {
+        samples[i] = buffer.getLong();
+      }
+      put(entityKey, envName, new DurationStats(count, ewmaMs, samples));
+    } else {
+      throw new IllegalArgumentException("Unknown record type: " + type);
+    }
+  }
+
+  private void compact() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putShort(VERSION);
+    header.flip();
+    Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(
+        tmpPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE
+    )) {
+      writeFully(channel, header);
+      for (Map.Entry<String, Map<String, DurationStats>> entityStats : getAllStats().entrySet()) {
+        for (Map.Entry<String, DurationStats> envStats : entityStats.getValue().entrySet()) {
+          writeFully(channel, snapshotRecord(entityStats.getKey(), envStats.getKey(), envStats.getValue()));
+        }
+      }
+      channel.force(false);
+    }
+    Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    log.debug("Durations log {} was compacted", path);
+  }
+
+  private ByteBuffer snapshotRecord(String entityKey, String envName, DurationStats stats) {
+    byte[] entityKeyBytes = entityKey.getBytes(UTF_8);
+    byte[] envNameBytes = envName.getBytes(UTF_8);
+    long[] samples = stats.getLastSamplesMs();
+    ByteBuffer record = allocateRecord(
+        entityKeyBytes, envNameBytes, Long.BYTES + Double.BYTES + 1 + samples.length * Long.BYTES
+    );
+    record.put(SNAPSHOT_RECORD);
+    putString(record, entityKeyBytes);
+    putString(record, envNameBytes);
+    record.putLong(stats.getCount());
+    record.putDouble(stats.getEwmaMs());
+    record.put((byte) samples.length);
+    for (long sample : samples) {
+      record.putLong(sample);
+    }
+    sealRecord(record);
+    return record;
+  }
+
+  // Must be called under file lock, so log isn't replaced by compaction concurrently
+  private void append(ByteBuffer record) throws IOException {
+    // File key is unknown on some platforms, so log is reopened for each record there
+    Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    if (appendChannel == null || !appendChannel.isOpen() || fileKey == null || !fileKey.equals(appendFileKey)) {
+      if (appendChannel != null) {
+        appendChannel.close();
+      }
+      appendChannel = FileChannel.open(path, StandardOpenOption.APPEND);
+      appendFileKey = fileKey;
+    }
+    writeFully(appendChannel, record);
+  }
+
+  private void withFileLock(IoAction action) throws IOException {
+    jvmLock.lock();
+    try {
+      // Channel is closed if thread was interrupted during I/O
+      if (lockChannel == null || !lockChannel.isOpen()) {
+        lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      }
+      try (FileLock ignored = lockChannel.lock()) {
+        action.run();
+      }
+    } finally {
+      jvmLock.unlock();
+    }
+  }
+
+  // Buffer is positioned at the start of body, see #sealRecord
+  private static ByteBuffer allocateRecord(byte[] entityKey, byte[] envName, int payloadSize) {
+    int bodySize = 1 + Short.BYTES + entityKey.length + Short.BYTES + envName.length + payloadSize;
+    ByteBuffer record = ByteBuffer.allocate(FRAME_HEADER_SIZE + bodySize);
+    record.position(FRAME_HEADER_SIZE);
+    return record;
+  }
+
+  // Put length and checksum of written body and flip buffer
+  private static void sealRecord(ByteBuffer record) {
+    record.flip();
+    ByteBuffer body = record.duplicate();
+    body.position(FRAME_HEADER_SIZE);
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    record.putInt(0, record.limit() - FRAME_HEADER_SIZE);
+    record.putInt(Integer.BYTES, (int) crc.getValue());
+  }
+
+  private static void putString(ByteBuffer buffer, byte[] bytes) {
+    buffer.putShort((short) bytes.length);
+    buffer.put(bytes);
+  }
+
+  private static String abbreviate(String str) {
+    return str.codePointCount(0, str.length()) <= ABBREVIATED_LENGTH
+        ? str
+        : str.substring(0, str.offsetByCodePoints(0, ABBREVIATED_LENGTH)) + "...";
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+    buffer.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  @FunctionalInterface
+  private interface IoAction {
+
+    void run() throws IOException;
+
+  }
+
+}
@@ -0,0 +1,65 @@
+package com.github.ddemin.envrouter.base;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import lombok.NonNull;
+
+/**
+ * Durations store that keeps rolling statistics of each entity on each environment while JVM is alive.
+ * Expected duration is EWMA of measurements.
+ */
+public class InMemoryDurationsStore implements EntityDurationsStore {
+
+  private final ConcurrentMap<String, ConcurrentMap<String, DurationStats>> statsByEntity = new ConcurrentHashMap<>();
+
+  @Override
+  public long getExpectedDurationMs(@NonNull String entityKey, String envName) {
+    Map<String, DurationStats> statsByEnv = statsByEntity.get(entityKey);
+    if (statsByEnv == null) {
+      return -1;
+    } else if (envName == null) {
+      return statsByEnv.values().stream().mapToLong(DurationStats::getEwmaMsRounded).max().orElse(-1);
+    }
+    DurationStats stats = statsByEnv.get(envName);
+    return stats == null ? -1 : stats.getEwmaMsRounded();
+  }
+
+  @Override
+  public void record(@NonNull String entityKey, @NonNull String envName, long durationMs) {
+    merge(entityKey, envName, DurationStats.of(durationMs), durationMs);
+  }
+
+  /**
+   * Returns statistics of entity on environment.
+   *
+   * @param entityKey key of entity
+   * @param envName name of environment
+   * @return statistics or null if entity wasn't measured on environment
+   */
+  public DurationStats getStats(@NonNull String entityKey, @NonNull String envName) {
+    Map<String, DurationStats> statsByEnv = statsByEntity.get(entityKey);
+    return statsByEnv == null ? null : statsByEnv.get(envName);
+  }
+
+  /**
+   * Returns statistics of all entities.
+   *
+   * @return map of entity key to map of environment name to statistics
+   */
+  public Map<String, Map<String, DurationStats>> getAllStats() {
+    return Collections.<String, Map<String, DurationStats>>unmodifiableMap(statsByEntity);
+  }
+
+  void merge(String entityKey, String envName, DurationStats initialStats, long durationMs) {
+    statsByEntity
+        .computeIfAbsent(entityKey, key -> new ConcurrentHashMap<>())
+        .merge(envName, initialStats, (stats, ignored) -> stats.with(durationMs));
+  }
+
+  void put(String entityKey, String envName, DurationStats stats) {
+    statsByEntity.computeIfAbsent(entityKey, key -> new ConcurrentHashMap<>()).put(envName, stats);
+  }
+
+}
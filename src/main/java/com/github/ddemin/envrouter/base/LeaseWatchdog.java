@@ -0,0 +1,118 @@
+package com.github.ddemin.envrouter.base;
+
+import com.github.ddemin.envrouter.metrics.RouterMetrics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Watchdog of environment locks (leases) with deadlines. If owner thread hangs or dies and doesn't release lock
+ * before deadline, then lock is claimed like by release, marked as reclaimed, its slots are freed and owner is
+ * interrupted. If owner releases lock concurrently, then only one of them wins and owner isn't interrupted. Owner is
+ * interrupted only if entity of lock wasn't finished yet (see EnvsLocksController#finishEntity), so interruption
+ * doesn't leak to the next entity of owner.
+ * Each lease is checked exactly once at its deadline, so there is no periodic scanning.
+ */
+@Slf4j
+class LeaseWatchdog {
+
+  private static final int MAX_EVENTS = 1000;
+
+  // Frees slots of claimed lock
+  private final Consumer<EnvironmentLock<? extends TestEntityWrapper>> reclaimer;
+  private final ScheduledThreadPoolExecutor scheduler;
+  private final Map<EnvironmentLock<? extends TestEntityWrapper>, ScheduledFuture<?>> leases
+      = new ConcurrentHashMap<>();
+  private final Queue<ExpiredLeaseEvent> events = new ConcurrentLinkedQueue<>();
+
+  LeaseWatchdog(Consumer<EnvironmentLock<? extends TestEntityWrapper>> reclaimer) {
+    this.reclaimer = reclaimer;
+    this.scheduler = new ScheduledThreadPoolExecutor(
+        1,
+        runnable -> {
+          Thread thread = new Thread(runnable, "envrouter-watchdog");
+          thread.setDaemon(true);
+          return thread;
+        }
+    );
+    this.scheduler.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Start watching of lock.
+   *
+   * @param lock successful lock
+   * @param owner thread that uses locked environment
+   * @param timeoutMs max duration of lock
+   */
+  void watch(EnvironmentLock<? extends TestEntityWrapper> lock, Thread owner, long timeoutMs) {
+    log.debug("Watch lock of {} during {} ms", lock.getEnvironment(), timeoutMs);
+    leases.put(lock, scheduler.schedule(() -> expire(lock, owner, timeoutMs), timeoutMs, TimeUnit.MILLISECONDS));
+  }
+
+  void unwatch(EnvironmentLock<? extends TestEntityWrapper> lock) {
+    ScheduledFuture<?> deadline = leases.remove(lock);
+    if (deadline != null) {
+      deadline.cancel(false);
+    }
+  }
+
+  /**
+   * Run task by watchdog thread after delay.
+   *
+   * @param task task
+   * @param delayMs delay
+   */
+  void schedule(Runnable task, long delayMs) {
+    scheduler.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  int watchedLeases() {
+    return leases.size();
+  }
+
+  List<ExpiredLeaseEvent> getEvents() {
+    return new ArrayList<>(events);
+  }
+
+  private void expire(EnvironmentLock<? extends TestEntityWrapper> lock, Thread owner, long timeoutMs) {
+    if (leases.remove(lock) == null || !lock.markReleased()) {
+      // Lock was released concurrently
+      return;
+    }
+    ExpiredLeaseEvent event = new ExpiredLeaseEvent(
+        lock.getEnvironment().getName(),
+        String.valueOf(lock.getTargetEntity()),
+        owner.getName(),
+        timeoutMs,
+        System.currentTimeMillis()
+    );
+    log.warn("Lease of environment is expired and will be reclaimed: {}", event);
+    RouterMetrics.increment(RouterMetrics.LEASES_RECLAIMED, event.getEnvironmentName());
+    events.add(event);
+    while (events.size() > MAX_EVENTS) {
+      events.poll();
+    }
+
+    lock.markReclaimed();
+    try {
+      reclaimer.accept(lock);
+    } catch (RuntimeException ex) {
+      log.error("Expired lease wasn't reclaimed", ex);
+    }
+    // Environment is already free when owner notices interruption
+    if (lock.stopEntity()) {
+      owner.interrupt();
+      lock.markOwnerInterrupted();
+    }
+  }
+
+}
@@ -0,0 +1,75 @@
+package com.github.ddemin.envrouter.base;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Waiting room for threads that didn't find any available environment for their entities.
+ * Each change of locks state (release, reset) increments the epoch and wakes up waiters in FIFO order.
+ * If nobody waits then signalling is lock-free, so releases of different environments don't contend.
+ */
+@Slf4j
+class LocksWaitingQueue {
+
+  private final ReentrantLock lock = new ReentrantLock(true);
+  private final Condition locksChanged = lock.newCondition();
+  private final AtomicLong epoch = new AtomicLong();
+  private final AtomicInteger waiting = new AtomicInteger();
+
+  /**
+   * Returns current epoch. Must be read BEFORE the attempt to find and lock environment.
+   *
+   * @return number of locks state changes
+   */
+  long epoch() {
+    return epoch.get();
+  }
+
+  /**
+   * Wait until locks state will be changed after observed epoch or deadline will be reached.
+   *
+   * @param observedEpoch epoch that was read before the last unsuccessful attempt
+   * @param deadlineNanos deadline in terms of System.nanoTime()
+   * @return false if deadline was reached and locks state wasn't changed
+   * @throws InterruptedException if waiting thread was interrupted
+   */
+  boolean awaitChange(long observedEpoch, long deadlineNanos) throws InterruptedException {
+    waiting.incrementAndGet();
+    lock.lock();
+    try {
+      while (epoch.get() == observedEpoch) {
+        long leftNanos = deadlineNanos - System.nanoTime();
+        if (leftNanos <= 0) {
+          return false;
+        }
+        log.trace("Wait for locks state change during {} ms", TimeUnit.NANOSECONDS.toMillis(leftNanos));
+        locksChanged.awaitNanos(leftNanos);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+      waiting.decrementAndGet();
+    }
+  }
+
+  /**
+   * Notify all waiting threads that locks state was changed.
+   */
+  void signalAll() {
+    epoch.incrementAndGet();
+    if (waiting.get() <= 0) {
+      return;
+    }
+    lock.lock();
+    try {
+      locksChanged.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
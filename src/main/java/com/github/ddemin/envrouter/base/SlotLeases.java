@@ -0,0 +1,187 @@
+package com.github.ddemin.envrouter.base;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Slots of environments that are shared by several JVMs on the same host. Each slot is a lease file
+ * ("env.N.lease") in common directory, slot is taken while JVM holds file lock on it. File locks are released
+ * by OS when process dies, so leases of crashed processes are reclaimed automatically.
+ *
+ * <p>File locks are held on behalf of the whole JVM, so this class only complements in-JVM slots counter
+ * (EnvironmentSlots) and must be used after successful in-JVM locking.
+ */
+@Slf4j
+class SlotLeases {
+
+  // Other JVMs can't wake up waiting threads of this JVM, so waiting threads re-check locks periodically
+  static final long POLL_INTERVAL_MS = 200;
+
+  private static final String OWNER = ManagementFactory.getRuntimeMXBean().getName();
+
+  @Getter
+  private final Path directory;
+  private final Map<String, HeldLeases> heldByEnv = new ConcurrentHashMap<>();
+
+  SlotLeases(@NonNull Path directory) {
+    try {
+      this.directory = Files.createDirectories(directory);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Directory for leases can't be created: " + directory, ex);
+    }
+  }
+
+  /**
+   * Try to take several slots of environment.
+   *
+   * @param env environment
+   * @param count count of slots
+   * @param capacity capacity of environment
+   * @return true if all slots were taken, nothing is taken otherwise
+   */
+  boolean tryAcquire(@NonNull Environment env, int count, int capacity) {
+    HeldLeases held = heldByEnv.computeIfAbsent(env.getName(), name -> new HeldLeases());
+    held.lock.lock();
+    try {
+      List<Lease> acquired = new ArrayList<>(count);
+      for (int index = 0; index < capacity && acquired.size() < count; index++) {
+        if (!held.isHeld(index)) {
+          Lease lease = tryLease(env, index);
+          if (lease != null) {
+            acquired.add(lease);
+          }
+        }
+      }
+      if (acquired.size() < count) {
+        log.debug("Only {} of {} slots of {} are free in all JVMs", acquired.size(), count, env.getName());
+        acquired.forEach(Lease::close);
+        return false;
+      }
+      acquired.forEach(held.leases::push);
+      return true;
+    } finally {
+      held.lock.unlock();
+    }
+  }
+
+  /**
+   * Release slots of environment that are held by this JVM.
+   *
+   * @param env environment
+   * @param count count of slots, all slots are released if count is greater than count of held slots
+   */
+  void release(@NonNull Environment env, int count) {
+    HeldLeases held = heldByEnv.get(env.getName());
+    if (held == null) {
+      return;
+    }
+    held.lock.lock();
+    try {
+      for (int i = 0; i < count && !held.leases.isEmpty(); i++) {
+        held.leases.pop().close();
+      }
+    } finally {
+      held.lock.unlock();
+    }
+  }
+
+  void releaseAll(@NonNull Environment env) {
+    release(env, Integer.MAX_VALUE);
+  }
+
+  void close() {
+    heldByEnv.values().forEach(
+        held -> {
+          held.lock.lock();
+          try {
+            held.leases.forEach(Lease::close);
+            held.leases.clear();
+          } finally {
+            held.lock.unlock();
+          }
+        }
+    );
+  }
+
+  private Lease tryLease(Environment env, int index) {
+    Path path = directory.resolve(env.getName() + "." + index + ".lease");
+    FileChannel channel = null;
+    try {
+      channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      FileLock fileLock = channel.tryLock();
+      if (fileLock == null) {
+        channel.close();
+        return null;
+      }
+      // Owner of lease, for diagnostics only
+      channel.truncate(0);
+      channel.write(ByteBuffer.wrap(OWNER.getBytes(UTF_8)));
+      return new Lease(index, channel);
+    } catch (OverlappingFileLockException ex) {
+      closeQuietly(channel);
+      return null;
+    } catch (IOException ex) {
+      closeQuietly(channel);
+      throw new UncheckedIOException("Lease can't be taken: " + path, ex);
+    }
+  }
+
+  private static void closeQuietly(FileChannel channel) {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException ex) {
+        log.warn("Lease channel can't be closed", ex);
+      }
+    }
+  }
+
+  private static class HeldLeases {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<Lease> leases = new ArrayDeque<>();
+
+    private boolean isHeld(int index) {
+      return leases.stream().anyMatch(lease -> lease.index == index);
+    }
+
+  }
+
+  private static class Lease {
+
+    private final int index;
+    private final FileChannel channel;
+
+    Lease(int index, FileChannel channel) {
+      this.index = index;
+      this.channel = channel;
+    }
+
+    // Lock is released with channel
+    void close() {
+      closeQuietly(channel);
+    }
+
+  }
+
+}
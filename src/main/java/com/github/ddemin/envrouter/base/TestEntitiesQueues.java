@@ -2,14 +2,32 @@ package com.github.ddemin.envrouter.base;
 
 import static com.github.ddemin.envrouter.base.TestEntityWrapper.ANY_ENV;
 
+import com.github.ddemin.envrouter.RouterConfig;
+import com.github.ddemin.envrouter.metrics.RouterMetrics;
+import com.github.ddemin.envrouter.util.PrefixTrie;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 
@@ -19,7 +37,40 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class TestEntitiesQueues<T extends TestEntityWrapper> {
 
-  private Map<String, Queue<T>> entitiesQueuesForEnvs = new HashMap<>();
+  // Sources count from which wrapping is split between threads of common fork-join pool
+  public static final int PARALLEL_WRAPPING_THRESHOLD = 256;
+
+  // All alive queues, for metrics only
+  private static final Set<TestEntitiesQueues<?>> ALL_QUEUES
+      = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+  static {
+    RouterMetrics.registerGauge(RouterMetrics.QUEUE_DEPTH, TestEntitiesQueues::depthsOfAllQueues);
+  }
+
+  private final ConcurrentMap<String, CountingQueue<T>> entitiesQueuesForEnvs = new ConcurrentHashMap<>();
+  private final PrefixTrie<CountingQueue<T>> queuesByEnvPrefix = new PrefixTrie<>();
+  private final boolean longestFirst;
+  private final Comparator<T> entitiesComparator;
+  // Entities in queues
+  private final AtomicInteger queuedCount = new AtomicInteger();
+  // Entities in queues + entities that were polled by router, but weren't locked or returned yet
+  private final AtomicInteger untestedCount = new AtomicInteger();
+
+  public TestEntitiesQueues() {
+    this(RouterConfig.QUEUE_LONGEST_FIRST);
+  }
+
+  /**
+   * Creates queues of entities.
+   *
+   * @param longestFirst order entities with the same priority by expected duration (longest first)
+   */
+  public TestEntitiesQueues(boolean longestFirst) {
+    this.longestFirst = longestFirst;
+    this.entitiesComparator = entitiesComparator();
+    ALL_QUEUES.add(this);
+  }
 
   /**
    * See #add.
@@ -30,31 +81,38 @@ public class TestEntitiesQueues<T extends TestEntityWrapper> {
     entities.forEach(this::add);
   }
 
+  /**
+   * Wrap test entities and add them straight to queues without intermediate collections. Large collections are
+   * wrapped in parallel (common fork-join pool), so wrapper must be thread-safe.
+   *
+   * @param sources raw test entities
+   * @param wrapper function that wraps entity, null result is skipped
+   * @param <S> type of raw entity
+   */
+  public <S> void wrapAndAddAll(@NonNull Collection<S> sources, @NonNull Function<? super S, T> wrapper) {
+    Stream<S> stream = sources.size() < PARALLEL_WRAPPING_THRESHOLD ? sources.stream() : sources.parallelStream();
+    stream.map(wrapper)
+        .filter(Objects::nonNull)
+        .forEach(this::add);
+  }
+
   /**
    * Add entity to appropriate queue by environment name that required for entity.
    *
    * @param entity wrapped cucumber entity
    */
   public void add(@NonNull T entity) {
-    String requiredEnv = entity.getRequiredEnvironmentName();
-    if (entitiesQueuesForEnvs.get(requiredEnv) == null) {
-      entitiesQueuesForEnvs.put(
-          requiredEnv,
-          new PriorityQueue<>(
-              (o1, o2) -> {
-                int compareInt = Integer.compare(o1.getPriority(), o2.getPriority());
-                if (compareInt == 0 && o1.isRequiresHardLock() && o2.isRequiresHardLock()) {
-                  compareInt = 0;
-                } else if (compareInt == 0 && o1.isRequiresHardLock()) {
-                  compareInt = 1;
-                } else if (compareInt == 0 && o2.isRequiresHardLock()) {
-                  compareInt = -1;
-                }
-                return compareInt;
-              })
-      );
+    if (longestFirst) {
+      entity.setExpectedDurationMs(EntityDurations.getExpectedDurationMs(entity));
     }
-    entitiesQueuesForEnvs.get(requiredEnv).add(entity);
+    entitiesQueuesForEnvs.computeIfAbsent(
+        entity.getRequiredEnvironmentName(),
+        requiredEnv -> {
+          CountingQueue<T> queue = new CountingQueue<>(entitiesComparator, queuedCount, untestedCount);
+          queuesByEnvPrefix.put(requiredEnv, queue);
+          return queue;
+        }
+    ).add(entity);
   }
 
   /**
@@ -69,26 +127,40 @@ public class TestEntitiesQueues<T extends TestEntityWrapper> {
     T chosenEntity;
     Queue<T> queueForEnv = getQueueFor(envName);
     Queue<T> queueForAnyEnv = getQueueFor(ANY_ENV);
+    T headForEnv = queueForEnv == null ? null : queueForEnv.peek();
+    T headForAnyEnv = queueForAnyEnv == null ? null : queueForAnyEnv.peek();
 
-    if (queueForEnv == null && queueForAnyEnv == null) {
+    if (headForEnv == null && headForAnyEnv == null) {
       chosenEntity = null;
-    } else if (queueForEnv == null) {
-      chosenEntity = queueForAnyEnv.poll();
-    } else if (queueForAnyEnv == null) {
-      chosenEntity = queueForEnv.poll();
+    } else if (headForEnv == null) {
+      chosenEntity = pollFirstAvailable(queueForAnyEnv, queueForEnv);
+    } else if (headForAnyEnv == null) {
+      chosenEntity = pollFirstAvailable(queueForEnv, queueForAnyEnv);
     } else {
       chosenEntity =
-          queueForEnv.peek().getPriority() <= queueForAnyEnv.peek().getPriority()
-              ? queueForEnv.poll()
-              : queueForAnyEnv.poll();
+          compareHeads(headForEnv, headForAnyEnv) <= 0
+              ? pollFirstAvailable(queueForEnv, queueForAnyEnv)
+              : pollFirstAvailable(queueForAnyEnv, queueForEnv);
     }
 
     log.debug("Entity was pulled from queue: {}", chosenEntity);
     return chosenEntity;
   }
 
+  /**
+   * Poll entity that matches filter from queue that assign to environment name. Head of queue is checked first, other
+   * entities are scanned only if head doesn't match filter.
+   *
+   * @param envName environment
+   * @param filter condition for entity
+   * @return extract entity from environment queue
+   */
+  public T pollEntityFor(@NonNull String envName, @NonNull Predicate<? super T> filter) {
+    return pollFiltered(envName, filter, false);
+  }
+
   public Map<String, Queue<T>> getQueuesMap() {
-    return entitiesQueuesForEnvs;
+    return Collections.unmodifiableMap(entitiesQueuesForEnvs);
   }
 
   /**
@@ -97,9 +169,16 @@ public class TestEntitiesQueues<T extends TestEntityWrapper> {
    * @return total count of found entity files
    */
   public int entitiesInAllQueues() {
-    return entitiesQueuesForEnvs.values().stream()
-        .map(Queue::size)
-        .reduce(0, Integer::sum);
+    return queuedCount.get();
+  }
+
+  /**
+   * Get total count of entities that are in queues or are being routed by some thread right now.
+   *
+   * @return count of entities that weren't passed to tests yet
+   */
+  public int untestedEntities() {
+    return untestedCount.get();
   }
 
   /**
@@ -109,11 +188,14 @@ public class TestEntitiesQueues<T extends TestEntityWrapper> {
    * @return queue for environment
    */
   public Queue<T> getQueueFor(@NonNull String definedEnv) {
-    Entry<String, Queue<T>> entry = entitiesQueuesForEnvs.entrySet().stream()
-        .filter(it -> definedEnv.startsWith(it.getKey()) && it.getValue().size() > 0)
+    return queueFor(definedEnv);
+  }
+
+  private CountingQueue<T> queueFor(String definedEnv) {
+    return queuesByEnvPrefix.getByPrefixesOf(definedEnv).stream()
+        .filter(queue -> queue.size() > 0)
         .findFirst()
         .orElse(null);
-    return entry == null ? null : entry.getValue();
   }
 
   /**
@@ -136,4 +218,310 @@ public class TestEntitiesQueues<T extends TestEntityWrapper> {
         .collect(Collectors.toList());
   }
 
+  /**
+   * Get list of queues that have required environments that aren't registered.
+   *
+   * @param registry registry of environments that exist now
+   * @return list of queues for environments that don't exist (weren't provided)
+   */
+  public List<Entry<String, Queue<T>>> getQueuesForUnregisteredEnvs(@NonNull EnvironmentsRegistry registry) {
+    log.trace("Get all queues for unregistered environments...");
+    return this.getQueuesMap().entrySet().stream()
+        .filter(entry -> !entry.getKey().equals(ANY_ENV))
+        .filter(entry -> entry.getValue().size() > 0)
+        .filter(entry -> !registry.containsPrefix(entry.getKey()))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Poll entity for routing. Entity is still counted as untested until #commitRouting or #returnAfterRouting.
+   *
+   * @param envName environment
+   * @return extract entity from environment queue
+   */
+  T pollForRouting(String envName) {
+    untestedCount.incrementAndGet();
+    T entity = pollEntityFor(envName);
+    if (entity == null) {
+      untestedCount.decrementAndGet();
+    }
+    return entity;
+  }
+
+  /**
+   * Poll entity of some kind for routing, see #pollForRouting. Filter must depend on weight and hard-lock flag of
+   * entity only: it's checked for the best entity of each kind, so queue isn't scanned.
+   *
+   * @param envName environment
+   * @param kindFilter condition for weight and hard-lock flag of entity
+   * @return extract entity from environment queue
+   */
+  T pollForRouting(String envName, Predicate<? super T> kindFilter) {
+    untestedCount.incrementAndGet();
+    T entity = pollFiltered(envName, kindFilter, true);
+    if (entity == null) {
+      untestedCount.decrementAndGet();
+    }
+    return entity;
+  }
+
+  /**
+   * Check if queues have entity of some kind for environment, see #pollForRouting.
+   *
+   * @param envName environment
+   * @param kindFilter condition for weight and hard-lock flag of entity
+   * @return true if such entity is queued
+   */
+  boolean hasEntityForRouting(String envName, Predicate<? super T> kindFilter) {
+    CountingQueue<T> queueForEnv = queueFor(envName);
+    CountingQueue<T> queueForAnyEnv = queueFor(ANY_ENV);
+    return queueForEnv != null && queueForEnv.peekBest(kindFilter, true) != null
+        || queueForAnyEnv != null && queueForAnyEnv.peekBest(kindFilter, true) != null;
+  }
+
+  void commitRouting() {
+    untestedCount.decrementAndGet();
+  }
+
+  void returnAfterRouting(T entity) {
+    add(entity);
+    untestedCount.decrementAndGet();
+  }
+
+  private static Map<String, Integer> depthsOfAllQueues() {
+    Map<String, Integer> depths = new HashMap<>();
+    synchronized (ALL_QUEUES) {
+      ALL_QUEUES.forEach(
+          queues -> queues.entitiesQueuesForEnvs.forEach((env, queue) -> depths.merge(env, queue.size(), Integer::sum))
+      );
+    }
+    return depths;
+  }
+
+  private T pollFirstAvailable(Queue<T> preferred, Queue<T> another) {
+    T entity = preferred.poll();
+    if (entity == null && another != null) {
+      entity = another.poll();
+    }
+    return entity;
+  }
+
+  private T pollFiltered(String envName, Predicate<? super T> filter, boolean byKind) {
+    log.trace("Try to poll filtered entity for environment: {}", envName);
+
+    CountingQueue<T> queueForEnv = queueFor(envName);
+    CountingQueue<T> queueForAnyEnv = queueFor(ANY_ENV);
+    while (true) {
+      T headForEnv = queueForEnv == null ? null : queueForEnv.peekBest(filter, byKind);
+      T headForAnyEnv = queueForAnyEnv == null ? null : queueForAnyEnv.peekBest(filter, byKind);
+
+      T chosenEntity;
+      Queue<T> chosenQueue;
+      if (headForEnv == null && headForAnyEnv == null) {
+        log.debug("Entity that matches filter wasn't found for environment: {}", envName);
+        return null;
+      } else if (headForAnyEnv == null
+          || headForEnv != null && compareHeads(headForEnv, headForAnyEnv) <= 0) {
+        chosenEntity = headForEnv;
+        chosenQueue = queueForEnv;
+      } else {
+        chosenEntity = headForAnyEnv;
+        chosenQueue = queueForAnyEnv;
+      }
+
+      // Entity can be polled by another thread, so search again in this case
+      if (chosenQueue.remove(chosenEntity)) {
+        log.debug("Entity was pulled from queue: {}", chosenEntity);
+        return chosenEntity;
+      }
+    }
+  }
+
+  private int compareHeads(T headForEnv, T headForAnyEnv) {
+    return longestFirst
+        ? entitiesComparator.compare(headForEnv, headForAnyEnv)
+        : Integer.compare(headForEnv.getPriority(), headForAnyEnv.getPriority());
+  }
+
+  private Comparator<T> entitiesComparator() {
+    return (o1, o2) -> {
+      int compareInt = Integer.compare(o1.getPriority(), o2.getPriority());
+      if (compareInt == 0 && o1.isRequiresHardLock() && o2.isRequiresHardLock()) {
+        compareInt = 0;
+      } else if (compareInt == 0 && o1.isRequiresHardLock()) {
+        compareInt = 1;
+      } else if (compareInt == 0 && o2.isRequiresHardLock()) {
+        compareInt = -1;
+      }
+      if (compareInt == 0 && longestFirst) {
+        compareInt = Long.compare(expectedDurationOf(o2), expectedDurationOf(o1));
+      }
+      return compareInt;
+    };
+  }
+
+  // Entities that weren't measured yet go first, because they may be the longest ones
+  private static long expectedDurationOf(TestEntityWrapper entity) {
+    return entity.getExpectedDurationMs() < 0 ? Long.MAX_VALUE : entity.getExpectedDurationMs();
+  }
+
+  /**
+   * Thread-safe priority queue that tracks total count of entities in all queues. Entities are grouped by kind (weight
+   * and hard-lock flag), so the best entity of required kind is found by heads of groups without scanning of queue.
+   */
+  private static class CountingQueue<E extends TestEntityWrapper> extends AbstractQueue<E> {
+
+    private static final int HARD_LOCK_KIND = 0;
+
+    // Not a monitor, so virtual thread doesn't pin carrier thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Comparator<? super E> comparator;
+    // Groups of entities by kind, see #kindOf
+    private final Map<Integer, PriorityQueue<E>> groups = new HashMap<>();
+    private final AtomicInteger queuedCount;
+    private final AtomicInteger untestedCount;
+    private volatile int size;
+
+    CountingQueue(Comparator<? super E> comparator, AtomicInteger queuedCount, AtomicInteger untestedCount) {
+      this.comparator = comparator;
+      this.queuedCount = queuedCount;
+      this.untestedCount = untestedCount;
+    }
+
+    @Override
+    public boolean offer(E entity) {
+      untestedCount.incrementAndGet();
+      queuedCount.incrementAndGet();
+      lock.lock();
+      try {
+        groups.computeIfAbsent(kindOf(entity), kind -> new PriorityQueue<>(comparator)).add(entity);
+        size++;
+      } finally {
+        lock.unlock();
+      }
+      return true;
+    }
+
+    @Override
+    public E poll() {
+      E entity;
+      lock.lock();
+      try {
+        PriorityQueue<E> group = bestGroup(it -> true);
+        if (group == null) {
+          return null;
+        }
+        entity = group.poll();
+        removeIfEmpty(group, entity);
+      } finally {
+        lock.unlock();
+      }
+      queuedCount.decrementAndGet();
+      untestedCount.decrementAndGet();
+      return entity;
+    }
+
+    @Override
+    public boolean remove(Object object) {
+      if (!(object instanceof TestEntityWrapper)) {
+        return false;
+      }
+      lock.lock();
+      try {
+        PriorityQueue<E> group = groups.get(kindOf((TestEntityWrapper) object));
+        // Head of group is found at once
+        if (group == null || !group.remove(object)) {
+          return false;
+        }
+        removeIfEmpty(group, (TestEntityWrapper) object);
+      } finally {
+        lock.unlock();
+      }
+      queuedCount.decrementAndGet();
+      untestedCount.decrementAndGet();
+      return true;
+    }
+
+    @Override
+    public E peek() {
+      lock.lock();
+      try {
+        PriorityQueue<E> group = bestGroup(it -> true);
+        return group == null ? null : group.peek();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Find the best entity that matches filter.
+     *
+     * @param filter condition for entity
+     * @param byKind filter depends on kind of entity only, so it's checked for heads of groups only
+     * @return entity that is still in queue or null
+     */
+    E peekBest(Predicate<? super E> filter, boolean byKind) {
+      lock.lock();
+      try {
+        PriorityQueue<E> headGroup = bestGroup(byKind ? filter : it -> true);
+        if (headGroup == null) {
+          return null;
+        } else if (byKind || filter.test(headGroup.peek())) {
+          return headGroup.peek();
+        }
+        E best = null;
+        for (PriorityQueue<E> group : groups.values()) {
+          for (E entity : group) {
+            if (filter.test(entity) && (best == null || comparator.compare(entity, best) < 0)) {
+              best = entity;
+            }
+          }
+        }
+        return best;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+      List<E> snapshot = new ArrayList<>(size);
+      lock.lock();
+      try {
+        groups.values().forEach(snapshot::addAll);
+      } finally {
+        lock.unlock();
+      }
+      return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    private PriorityQueue<E> bestGroup(Predicate<? super E> filter) {
+      PriorityQueue<E> best = null;
+      for (PriorityQueue<E> group : groups.values()) {
+        E head = group.peek();
+        if (filter.test(head) && (best == null || comparator.compare(head, best.peek()) < 0)) {
+          best = group;
+        }
+      }
+      return best;
+    }
+
+    private void removeIfEmpty(PriorityQueue<E> group, TestEntityWrapper removedEntity) {
+      size--;
+      if (group.isEmpty()) {
+        groups.remove(kindOf(removedEntity));
+      }
+    }
+
+    private static int kindOf(TestEntityWrapper entity) {
+      return entity.isRequiresHardLock() ? HARD_LOCK_KIND : entity.getWeight();
+    }
+
+  }
+
 }
@@ -4,8 +4,10 @@ import static java.lang.String.format;
 
 import com.github.ddemin.envrouter.RouterConfig;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -22,6 +24,14 @@ public class TestEntityWrapper<T> {
   private int priority;
   // TODO Unit-test
   private boolean requiresHardLock;
+  // Count of environment slots that entity takes
+  private int weight;
+  // Max duration of environment usage, 0 - not defined
+  @Setter
+  private long timeoutMs;
+  // Snapshot from durations history that is taken when entity is added to queue, -1 if unknown
+  @Setter(AccessLevel.PACKAGE)
+  private volatile long expectedDurationMs = -1;
 
   public String getName() {
     return "";
@@ -61,6 +71,26 @@ public class TestEntityWrapper<T> {
       String requiredEnvironmentName,
       int priority,
       boolean requiresHardLock
+  ) {
+    this(entity, requiredEnvironmentName, priority, requiresHardLock, 1);
+  }
+
+  /**
+   * Creates wrapper for test entity.
+   *
+   * @param entity entity
+   * @param requiredEnvironmentName name of environment that required for this entity
+   * @param priority entity's priority. Lower - more chances to be tested first
+   * @param requiresHardLock entity requires hard-lock of target environment
+   * @param weight count of environment slots that entity takes (at least 1)
+   */
+  @SuppressFBWarnings
+  public TestEntityWrapper(
+      @NonNull T entity,
+      String requiredEnvironmentName,
+      int priority,
+      boolean requiresHardLock,
+      int weight
   ) {
     this.entity = entity;
 
@@ -73,6 +103,7 @@ public class TestEntityWrapper<T> {
     }
     this.priority = priority;
     this.requiresHardLock = requiresHardLock;
+    this.weight = Math.max(1, weight);
   }
 
   @Override
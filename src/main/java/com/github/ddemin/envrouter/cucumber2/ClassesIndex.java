@@ -0,0 +1,226 @@
+package com.github.ddemin.envrouter.cucumber2;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Suppliers;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.reflect.ClassPath;
+import com.google.common.reflect.ClassPath.ClassInfo;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Index of classes of configured packages that are (not abstract) subtypes of indexed types. Classpath is scanned
+ * once (lazily) and only for packages that aren't indexed yet. Index can be persisted to file, then it's reused by next
+ * runs while classpath (entries of java.class.path, their sizes and modification times) is unchanged, so only found
+ * classes are loaded.
+ */
+@Slf4j
+public final class ClassesIndex {
+
+  private static final String FINGERPRINT_KEY = "#fingerprint";
+
+  private final ClassLoader classLoader;
+  private final Path file;
+  private final List<Class<?>> indexedTypes;
+  private final Supplier<ClassPath> classPath;
+  private final Supplier<String> fingerprint = Suppliers.memoize(ClassesIndex::classPathFingerprint);
+  // Names of indexed classes by package (or class) name
+  private final Map<String, List<String>> classesNames = new ConcurrentHashMap<>();
+
+  /**
+   * Creates index.
+   *
+   * @param classLoader loader of classes
+   * @param file file of persisted index, null - index is kept in memory only
+   * @param indexedTypes types which subtypes are indexed
+   */
+  public ClassesIndex(@NonNull ClassLoader classLoader, Path file, @NonNull Class<?>... indexedTypes) {
+    this.classLoader = classLoader;
+    this.file = file;
+    this.indexedTypes = Arrays.asList(indexedTypes);
+    this.classPath = Suppliers.memoize(() -> scanClassPath(classLoader));
+    if (file != null) {
+      readIndex();
+    }
+  }
+
+  /**
+   * Find classes of given type.
+   *
+   * @param packagesOrClasses names of packages (classes are searched recursively) or full names of classes
+   * @param type one of indexed types
+   * @param <T> type of classes
+   * @return found classes
+   */
+  public synchronized <T> List<Class<? extends T>> find(
+      @NonNull List<String> packagesOrClasses,
+      @NonNull Class<T> type
+  ) {
+    if (!indexedTypes.contains(type)) {
+      throw new IllegalArgumentException("Type isn't indexed: " + type);
+    }
+    boolean indexChanged = false;
+    for (String name : packagesOrClasses) {
+      if (!classesNames.containsKey(name)) {
+        classesNames.put(name, index(name));
+        indexChanged = true;
+      }
+    }
+    if (indexChanged && file != null) {
+      writeIndex();
+    }
+    return packagesOrClasses.stream()
+        .flatMap(name -> classesNames.get(name).stream())
+        .map(this::load)
+        .filter(type::isAssignableFrom)
+        .map(clz -> (Class<? extends T>) clz.asSubclass(type))
+        .collect(Collectors.toList());
+  }
+
+  private List<String> index(String packageOrClass) {
+    if (Thread.currentThread().getContextClassLoader().getResource(packageOrClass.replace('.', '/')) == null) {
+      return Collections.singletonList(packageOrClass);
+    }
+    long startNanos = System.nanoTime();
+    List<String> names = classPath.get().getTopLevelClassesRecursive(packageOrClass).stream()
+        .map(ClassInfo::getName)
+        .filter(name -> isIndexed(load(name)))
+        .collect(Collectors.toList());
+    log.debug(
+        "Package {} was indexed during {} ms: {}",
+        packageOrClass,
+        (System.nanoTime() - startNanos) / 1_000_000,
+        names
+    );
+    return names;
+  }
+
+  // Only classes that can be instantiated
+  private boolean isIndexed(Class<?> clz) {
+    return !clz.isInterface()
+        && !Modifier.isAbstract(clz.getModifiers())
+        && indexedTypes.stream().anyMatch(type -> type.isAssignableFrom(clz));
+  }
+
+  private Class<?> load(String name) {
+    try {
+      return classLoader.loadClass(name);
+    } catch (ClassNotFoundException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private void readIndex() {
+    if (!Files.isRegularFile(file)) {
+      return;
+    }
+    Properties properties = new Properties();
+    try (InputStream input = Files.newInputStream(file)) {
+      properties.load(input);
+    } catch (IOException | IllegalArgumentException ex) {
+      log.warn("Index of classes is broken and will be rebuilt: {}", file, ex);
+      return;
+    }
+    if (!fingerprint.get().equals(properties.getProperty(FINGERPRINT_KEY))) {
+      log.info("Classpath was changed, index of classes will be rebuilt: {}", file);
+      return;
+    }
+    for (String name : properties.stringPropertyNames()) {
+      if (!FINGERPRINT_KEY.equals(name)) {
+        classesNames.put(name, Splitter.on(',').omitEmptyStrings().splitToList(properties.getProperty(name)));
+      }
+    }
+  }
+
+  private void writeIndex() {
+    Properties properties = new Properties();
+    properties.setProperty(FINGERPRINT_KEY, fingerprint.get());
+    classesNames.forEach((name, classes) -> properties.setProperty(name, Joiner.on(',').join(classes)));
+    Path tmpFile = null;
+    try {
+      Path dir = file.toAbsolutePath().getParent();
+      Files.createDirectories(dir);
+      tmpFile = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+      try (OutputStream output = Files.newOutputStream(tmpFile)) {
+        properties.store(output, "Index of classes for RouterCucumberCli");
+      }
+      Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ex) {
+      log.warn("Index of classes can't be saved: {}", file, ex);
+      deleteQuietly(tmpFile);
+    }
+  }
+
+  private static void deleteQuietly(Path file) {
+    try {
+      if (file != null) {
+        Files.deleteIfExists(file);
+      }
+    } catch (IOException ex) {
+      log.debug("Temporary file of classes index can't be deleted: {}", file, ex);
+    }
+  }
+
+  private static ClassPath scanClassPath(ClassLoader classLoader) {
+    long startNanos = System.nanoTime();
+    try {
+      ClassPath classPath = ClassPath.from(classLoader);
+      log.info("Classpath was scanned during {} ms", (System.nanoTime() - startNanos) / 1_000_000);
+      return classPath;
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  private static String classPathFingerprint() {
+    Hasher hasher = Hashing.sha256().newHasher();
+    for (String entry : Splitter.on(File.pathSeparatorChar).omitEmptyStrings()
+        .split(System.getProperty("java.class.path", ""))) {
+      hasher.putString(entry, UTF_8);
+      Path path = Paths.get(entry);
+      try (Stream<Path> files = Files.isDirectory(path) ? Files.walk(path) : Stream.of(path)) {
+        files.filter(Files::exists).sorted().forEach(
+            file -> {
+              try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                hasher.putString(file.toString(), UTF_8)
+                    .putLong(attributes.size())
+                    .putLong(attributes.lastModifiedTime().toMillis());
+              } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+              }
+            }
+        );
+      } catch (IOException | UncheckedIOException ex) {
+        log.debug("Classpath entry can't be read: {}", entry, ex);
+        hasher.putLong(System.nanoTime());
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+}
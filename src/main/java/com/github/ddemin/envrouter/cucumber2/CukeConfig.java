@@ -1,6 +1,8 @@
 package com.github.ddemin.envrouter.cucumber2;
 
+import static com.github.ddemin.envrouter.cucumber2.CukeConfig.CukeTestNgConfigKeys.CLASSES_INDEX_FILE_KEY;
 import static com.github.ddemin.envrouter.cucumber2.CukeConfig.CukeTestNgConfigKeys.CONVERTERS_KEY;
+import static com.github.ddemin.envrouter.cucumber2.CukeConfig.CukeTestNgConfigKeys.GHERKIN_CACHE_DIR_KEY;
 import static com.github.ddemin.envrouter.cucumber2.CukeConfig.CukeTestNgConfigKeys.GUICE_MODULES_KEY;
 import static com.github.ddemin.envrouter.cucumber2.CukeConfig.CukeTestNgConfigKeys.TAGS_KEY;
 
@@ -24,12 +26,24 @@ public class CukeConfig {
   public static final List<String> GUICE_MODULES = Splitter.on(",").omitEmptyStrings().splitToList(
       System.getProperty(GUICE_MODULES_KEY, "")
   );
+  public static final String GHERKIN_CACHE_DIR = System.getProperty(GHERKIN_CACHE_DIR_KEY);
+  public static final String CLASSES_INDEX_FILE = System.getProperty(CLASSES_INDEX_FILE_KEY);
 
   public static class CukeTestNgConfigKeys {
 
     public static final String TAGS_KEY = "cuke.tags";
     public static final String CONVERTERS_KEY = "cuke.converters";
     public static final String GUICE_MODULES_KEY = "cuke.guice.modules";
+    /**
+     * Directory for cache of parsed features (keyed by content hash and gherkin version), so unchanged feature files
+     * aren't reparsed on next runs. Not defined - cache is disabled.
+     */
+    public static final String GHERKIN_CACHE_DIR_KEY = "cuke.gherkin.cacheDir";
+    /**
+     * File for index of Guice modules and XStream converters found in configured packages, so classpath isn't scanned
+     * by RouterCucumberCli while it's unchanged. Not defined - classpath is scanned once per run.
+     */
+    public static final String CLASSES_INDEX_FILE_KEY = "cuke.classesIndex.file";
 
     private CukeTestNgConfigKeys() {
     }
@@ -11,5 +11,8 @@ public class CukeTags {
   public static final String CUKE_ENV_TAG = "@Env";
   public static final String CUKE_PRIORITY_TAG = "@Priority";
   public static final String CUKE_HARDLOCK_TAG = "@SingleThread";
+  public static final String CUKE_WEIGHT_TAG = "@Weight";
+  // Max duration in seconds
+  public static final String CUKE_TIMEOUT_TAG = "@Timeout";
 
 }
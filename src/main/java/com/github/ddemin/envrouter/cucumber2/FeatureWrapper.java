@@ -26,6 +26,17 @@ public class FeatureWrapper extends TestEntityWrapper<CucumberFeature> {
     super(entity, requiredEnvironmentName, priority, requiresHardLocking);
   }
 
+  @SuppressFBWarnings
+  public FeatureWrapper(
+      @NonNull CucumberFeature entity,
+      String requiredEnvironmentName,
+      int priority,
+      boolean requiresHardLocking,
+      int weight
+  ) {
+    super(entity, requiredEnvironmentName, priority, requiresHardLocking, weight);
+  }
+
   @Override
   public String toString() {
     return format(
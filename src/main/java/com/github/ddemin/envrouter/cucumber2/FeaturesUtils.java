@@ -1,41 +1,47 @@
 package com.github.ddemin.envrouter.cucumber2;
 
-import static com.github.ddemin.envrouter.cucumber2.CukeTags.CUKE_ENV_TAG;
-import static com.github.ddemin.envrouter.cucumber2.CukeTags.CUKE_HARDLOCK_TAG;
-import static com.github.ddemin.envrouter.cucumber2.CukeTags.CUKE_PRIORITY_TAG;
+import static com.github.ddemin.envrouter.cucumber2.RouterTags.RouterTag.ENV;
+import static com.github.ddemin.envrouter.cucumber2.RouterTags.RouterTag.HARD_LOCK;
+import static com.github.ddemin.envrouter.cucumber2.RouterTags.RouterTag.PRIORITY;
+import static com.github.ddemin.envrouter.cucumber2.RouterTags.RouterTag.TIMEOUT;
+import static com.github.ddemin.envrouter.cucumber2.RouterTags.RouterTag.WEIGHT;
 
+import com.github.ddemin.envrouter.base.TestEntitiesQueues;
 import cucumber.runtime.model.CucumberFeature;
-import gherkin.events.PickleEvent;
+import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import lombok.NonNull;
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
 
 /**
  * Created by Dmitrii Demin on 18.09.2017.
  */
 @Slf4j
 @UtilityClass
-// TODO Deduplicate
 public class FeaturesUtils {
 
   /**
-   * Wrap cucumber-jvm feature and parse its priority tag and required environment tag.
+   * Wrap cucumber-jvm feature and parse its priority tag, required environment tag, hard-lock, weight and
+   * timeout tags.
    *
    * @param feature cucumber-jvm feature
    * @return list of wrapped features
    */
   public static FeatureWrapper wrapFeature(@NonNull CucumberFeature feature) {
     log.debug("Wrap feature: {}", feature.getUri());
-    return new FeatureWrapper(
+    RouterTags tags = RouterTags.of(feature);
+    FeatureWrapper wrapper = new FeatureWrapper(
         feature,
-        getFeatureRequiredEnvironment(feature),
-        getFeaturePriority(feature),
-        getHardLockingRequirement(feature)
+        tags.get(ENV),
+        tags.getInt(PRIORITY, Integer.MAX_VALUE),
+        tags.isPresent(HARD_LOCK),
+        tags.getInt(WEIGHT, 1)
     );
+    wrapper.setTimeoutMs(TimeUnit.SECONDS.toMillis(tags.getNumber(TIMEOUT, 0)));
+    return wrapper;
   }
 
   /**
@@ -45,36 +51,34 @@ public class FeaturesUtils {
    * @return list of wrapped features
    */
   public static List<FeatureWrapper> wrapFeatures(@NonNull List<CucumberFeature> features) {
-    log.info(
-        "Wrap features: {}",
-        features.stream().map(CucumberFeature::getUri).collect(Collectors.toList())
-    );
+    logFeatures(features);
     return features.stream()
         .map(FeaturesUtils::wrapFeature)
         .collect(Collectors.toList());
   }
 
-  static int getFeaturePriority(@NonNull CucumberFeature feature) {
-    return extractTagEnding(feature, CUKE_PRIORITY_TAG)
-        .filter(priorityStr -> priorityStr.matches("[\\d]+"))
-        .map(Integer::parseInt)
-        .orElse(Integer.MAX_VALUE);
-  }
-
-  static String getFeatureRequiredEnvironment(@NonNull CucumberFeature feature) {
-    return extractTagEnding(feature, CUKE_ENV_TAG).orElse(null);
-  }
-
-  static boolean getHardLockingRequirement(@NonNull CucumberFeature feature) {
-    return extractTagEnding(feature, CUKE_HARDLOCK_TAG).isPresent();
+  /**
+   * Wrap cucumber-jvm features (in parallel for large suites) and add them straight to queues.
+   *
+   * @param features cucumber-jvm features
+   * @param queues target queues
+   */
+  public static void wrapFeatures(
+      @NonNull Collection<CucumberFeature> features,
+      @NonNull TestEntitiesQueues<FeatureWrapper> queues
+  ) {
+    logFeatures(features);
+    queues.wrapAndAddAll(features, FeaturesUtils::wrapFeature);
   }
 
-  private static Optional<String> extractTagEnding(@NonNull CucumberFeature feature,
-      @NonNull String str) {
-    return feature.getGherkinFeature().getFeature().getTags().stream()
-        .filter(tag -> tag.getName().startsWith(str))
-        .map(tag -> StringUtils.substringAfterLast(tag.getName(), str))
-        .findFirst();
+  private static void logFeatures(Collection<CucumberFeature> features) {
+    log.info("Wrap {} features", features.size());
+    if (log.isDebugEnabled()) {
+      log.debug(
+          "Wrap features: {}",
+          features.stream().map(CucumberFeature::getUri).collect(Collectors.toList())
+      );
+    }
   }
 
 }
@@ -0,0 +1,520 @@
+package com.github.ddemin.envrouter.cucumber2;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.Hashing;
+import cucumber.runtime.io.Resource;
+import cucumber.runtime.io.ResourceLoader;
+import cucumber.runtime.model.CucumberFeature;
+import cucumber.util.Encoding;
+import gherkin.AstBuilder;
+import gherkin.Parser;
+import gherkin.TokenMatcher;
+import gherkin.ast.Background;
+import gherkin.ast.Comment;
+import gherkin.ast.DataTable;
+import gherkin.ast.DocString;
+import gherkin.ast.Examples;
+import gherkin.ast.Feature;
+import gherkin.ast.GherkinDocument;
+import gherkin.ast.Location;
+import gherkin.ast.Node;
+import gherkin.ast.Scenario;
+import gherkin.ast.ScenarioDefinition;
+import gherkin.ast.ScenarioOutline;
+import gherkin.ast.Step;
+import gherkin.ast.TableCell;
+import gherkin.ast.TableRow;
+import gherkin.ast.Tag;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Persistent cache of parsed features. Gherkin documents are stored in compact binary form, one file per key (SHA-256
+ * of format version, gherkin version and feature source), so unchanged feature files are loaded without reparsing
+ * and changed ones get a new key. Broken or unreadable cache files are ignored and features are reparsed.
+ */
+@Slf4j
+public final class GherkinCache {
+
+  static final String GHERKIN_VERSION = gherkinVersion();
+
+  // Must be incremented on any change of binary format
+  private static final int FORMAT_VERSION = 1;
+  private static final int MAGIC = 0x47484B43;
+  private static final String FILE_EXTENSION = ".bin";
+
+  private static final byte NONE = 0;
+  private static final byte BACKGROUND = 1;
+  private static final byte SCENARIO = 2;
+  private static final byte SCENARIO_OUTLINE = 3;
+  private static final byte DATA_TABLE = 4;
+  private static final byte DOC_STRING = 5;
+
+  @Getter
+  private final Path directory;
+
+  /**
+   * Creates cache in directory (directory is created if needed).
+   *
+   * @param directory directory for cache files
+   */
+  public GherkinCache(@NonNull Path directory) {
+    try {
+      this.directory = Files.createDirectories(directory);
+    } catch (IOException ex) {
+      throw new IllegalStateException("Directory for gherkin cache can't be created: " + directory, ex);
+    }
+  }
+
+  /**
+   * Load features like cucumber-jvm does (CucumberFeature.load), but take parsed documents from cache if possible.
+   * Rerun files (@path) and paths that aren't resolved by loader are delegated to cucumber-jvm as is.
+   *
+   * @param resourceLoader loader of feature files
+   * @param featurePaths paths to feature files or directories (see RuntimeOptions.getFeaturePaths)
+   * @return features sorted by URI
+   */
+  public List<CucumberFeature> loadFeatures(
+      @NonNull ResourceLoader resourceLoader,
+      @NonNull List<String> featurePaths
+  ) {
+    List<CucumberFeature> features = new ArrayList<>();
+    Set<String> loadedKeys = new HashSet<>();
+    for (String featurePath : featurePaths) {
+      Iterable<Resource> resources = featurePath.startsWith("@") ? null : resourcesOf(resourceLoader, featurePath);
+      if (resources == null) {
+        features.addAll(CucumberFeature.load(resourceLoader, Collections.singletonList(featurePath)));
+        continue;
+      }
+      for (Resource resource : resources) {
+        String source = read(resource);
+        String key = keyOf(source);
+        String uri = resource.getPath().replace(File.separatorChar, '/');
+        if (!loadedKeys.add(key)) {
+          log.warn("Duplicate feature is ignored: {}", uri);
+          continue;
+        }
+        features.add(new CucumberFeature(parseCached(key, source), uri, source));
+      }
+    }
+    features.sort(Comparator.comparing(CucumberFeature::getUri));
+    return features;
+  }
+
+  /**
+   * Get parsed document from cache or parse source and put document to cache.
+   *
+   * @param source source of feature file
+   * @return gherkin document
+   */
+  public GherkinDocument parseCached(@NonNull String source) {
+    return parseCached(keyOf(source), source);
+  }
+
+  private GherkinDocument parseCached(String key, String source) {
+    GherkinDocument document = readFromCache(key);
+    if (document == null) {
+      document = parse(source);
+      writeToCache(key, document);
+    }
+    return document;
+  }
+
+  static String keyOf(String source) {
+    return Hashing.sha256().newHasher()
+        .putInt(FORMAT_VERSION)
+        .putString(GHERKIN_VERSION, UTF_8)
+        .putString(source, UTF_8)
+        .hash()
+        .toString();
+  }
+
+  private static GherkinDocument parse(String source) {
+    return new Parser<>(new AstBuilder()).parse(source, new TokenMatcher());
+  }
+
+  private static Iterable<Resource> resourcesOf(ResourceLoader resourceLoader, String path) {
+    try {
+      Iterable<Resource> resources = resourceLoader.resources(path, ".feature");
+      return resources.iterator().hasNext() ? resources : null;
+    } catch (IllegalArgumentException ex) {
+      return null;
+    }
+  }
+
+  private static String read(Resource resource) {
+    try {
+      return Encoding.readFile(resource);
+    } catch (IOException ex) {
+      throw new IllegalStateException("Feature file can't be read: " + resource.getPath(), ex);
+    }
+  }
+
+  private GherkinDocument readFromCache(String key) {
+    Path file = directory.resolve(key + FILE_EXTENSION);
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try (Decoder decoder = new Decoder(Files.newInputStream(file))) {
+      return decoder.readDocument();
+    } catch (IOException | RuntimeException ex) {
+      log.warn("Cached feature is broken and will be reparsed: {}", file, ex);
+      return null;
+    }
+  }
+
+  private void writeToCache(String key, GherkinDocument document) {
+    Path tmpFile = null;
+    try {
+      tmpFile = Files.createTempFile(directory, key, ".tmp");
+      try (Encoder encoder = new Encoder(Files.newOutputStream(tmpFile))) {
+        encoder.writeDocument(document);
+      }
+      Files.move(
+          tmpFile,
+          directory.resolve(key + FILE_EXTENSION),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE
+      );
+    } catch (IOException ex) {
+      log.warn("Parsed feature can't be cached: {}", key, ex);
+      deleteQuietly(tmpFile);
+    }
+  }
+
+  private static void deleteQuietly(Path file) {
+    try {
+      if (file != null) {
+        Files.deleteIfExists(file);
+      }
+    } catch (IOException ex) {
+      log.debug("Temporary file of gherkin cache can't be deleted: {}", file, ex);
+    }
+  }
+
+  private static String gherkinVersion() {
+    try (InputStream pom = Parser.class.getResourceAsStream("/META-INF/maven/io.cucumber/gherkin/pom.properties")) {
+      if (pom != null) {
+        Properties properties = new Properties();
+        properties.load(pom);
+        return properties.getProperty("version", "unknown");
+      }
+    } catch (IOException ex) {
+      log.debug("Version of gherkin can't be read", ex);
+    }
+    return String.valueOf(Parser.class.getProtectionDomain().getCodeSource());
+  }
+
+  /**
+   * Writer of AST. Strings are written once per file, repeats are written as index in strings table.
+   */
+  private static final class Encoder implements AutoCloseable {
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    Encoder(OutputStream stream) throws IOException {
+      this.out = new DataOutputStream(new BufferedOutputStream(stream));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+    }
+
+    void writeDocument(GherkinDocument document) throws IOException {
+      Feature feature = document.getFeature();
+      out.writeBoolean(feature != null);
+      if (feature != null) {
+        writeTags(feature.getTags());
+        writeLocation(feature.getLocation());
+        writeString(feature.getLanguage());
+        writeString(feature.getKeyword());
+        writeString(feature.getName());
+        writeString(feature.getDescription());
+        out.writeInt(feature.getChildren().size());
+        for (ScenarioDefinition child : feature.getChildren()) {
+          writeScenarioDefinition(child);
+        }
+      }
+      out.writeInt(document.getComments().size());
+      for (Comment comment : document.getComments()) {
+        writeLocation(comment.getLocation());
+        writeString(comment.getText());
+      }
+    }
+
+    private void writeScenarioDefinition(ScenarioDefinition definition) throws IOException {
+      if (definition instanceof Background) {
+        out.writeByte(BACKGROUND);
+      } else if (definition instanceof ScenarioOutline) {
+        out.writeByte(SCENARIO_OUTLINE);
+        writeTags(((ScenarioOutline) definition).getTags());
+      } else if (definition instanceof Scenario) {
+        out.writeByte(SCENARIO);
+        writeTags(((Scenario) definition).getTags());
+      } else {
+        throw new IOException("Unknown scenario definition: " + definition.getClass());
+      }
+      writeLocation(definition.getLocation());
+      writeString(definition.getKeyword());
+      writeString(definition.getName());
+      writeString(definition.getDescription());
+      out.writeInt(definition.getSteps().size());
+      for (Step step : definition.getSteps()) {
+        writeStep(step);
+      }
+      if (definition instanceof ScenarioOutline) {
+        List<Examples> examples = ((ScenarioOutline) definition).getExamples();
+        out.writeInt(examples.size());
+        for (Examples example : examples) {
+          writeExamples(example);
+        }
+      }
+    }
+
+    private void writeStep(Step step) throws IOException {
+      writeLocation(step.getLocation());
+      writeString(step.getKeyword());
+      writeString(step.getText());
+      Node argument = step.getArgument();
+      if (argument instanceof DataTable) {
+        out.writeByte(DATA_TABLE);
+        writeRows(((DataTable) argument).getRows());
+      } else if (argument instanceof DocString) {
+        DocString docString = (DocString) argument;
+        out.writeByte(DOC_STRING);
+        writeLocation(docString.getLocation());
+        writeString(docString.getContentType());
+        writeString(docString.getContent());
+      } else if (argument == null) {
+        out.writeByte(NONE);
+      } else {
+        throw new IOException("Unknown step argument: " + argument.getClass());
+      }
+    }
+
+    private void writeExamples(Examples examples) throws IOException {
+      writeLocation(examples.getLocation());
+      writeTags(examples.getTags());
+      writeString(examples.getKeyword());
+      writeString(examples.getName());
+      writeString(examples.getDescription());
+      out.writeBoolean(examples.getTableHeader() != null);
+      if (examples.getTableHeader() != null) {
+        writeRow(examples.getTableHeader());
+      }
+      // Body is null if examples have no table
+      out.writeBoolean(examples.getTableBody() != null);
+      if (examples.getTableBody() != null) {
+        writeRows(examples.getTableBody());
+      }
+    }
+
+    private void writeRows(List<TableRow> rows) throws IOException {
+      out.writeInt(rows.size());
+      for (TableRow row : rows) {
+        writeRow(row);
+      }
+    }
+
+    private void writeRow(TableRow row) throws IOException {
+      writeLocation(row.getLocation());
+      out.writeInt(row.getCells().size());
+      for (TableCell cell : row.getCells()) {
+        writeLocation(cell.getLocation());
+        writeString(cell.getValue());
+      }
+    }
+
+    private void writeTags(List<Tag> tags) throws IOException {
+      out.writeInt(tags.size());
+      for (Tag tag : tags) {
+        writeLocation(tag.getLocation());
+        writeString(tag.getName());
+      }
+    }
+
+    private void writeLocation(Location location) throws IOException {
+      out.writeInt(location.getLine());
+      out.writeInt(location.getColumn());
+    }
+
+    private void writeString(String str) throws IOException {
+      if (str == null) {
+        out.writeInt(-1);
+        return;
+      }
+      Integer idx = strings.get(str);
+      if (idx != null) {
+        out.writeInt(idx);
+        return;
+      }
+      strings.put(str, strings.size());
+      byte[] bytes = str.getBytes(UTF_8);
+      out.writeInt(-2 - bytes.length);
+      out.write(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+
+  }
+
+  /**
+   * Reader of AST, see Encoder.
+   */
+  private static final class Decoder implements AutoCloseable {
+
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<>();
+
+    Decoder(InputStream stream) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(stream));
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        throw new IOException("Unknown format of cache file");
+      }
+    }
+
+    GherkinDocument readDocument() throws IOException {
+      Feature feature = null;
+      if (in.readBoolean()) {
+        List<Tag> tags = readTags();
+        Location location = readLocation();
+        String language = readString();
+        String keyword = readString();
+        String name = readString();
+        String description = readString();
+        List<ScenarioDefinition> children = readList(this::readScenarioDefinition);
+        feature = new Feature(tags, location, language, keyword, name, description, children);
+      }
+      List<Comment> comments = readList(() -> new Comment(readLocation(), readString()));
+      return new GherkinDocument(feature, comments);
+    }
+
+    private ScenarioDefinition readScenarioDefinition() throws IOException {
+      byte kind = in.readByte();
+      List<Tag> tags = kind == BACKGROUND ? null : readTags();
+      Location location = readLocation();
+      String keyword = readString();
+      String name = readString();
+      String description = readString();
+      List<Step> steps = readList(this::readStep);
+      switch (kind) {
+        case BACKGROUND:
+          return new Background(location, keyword, name, description, steps);
+        case SCENARIO:
+          return new Scenario(tags, location, keyword, name, description, steps);
+        case SCENARIO_OUTLINE:
+          return new ScenarioOutline(tags, location, keyword, name, description, steps, readList(this::readExamples));
+        default:
+          throw new IOException("Unknown kind of scenario definition: " + kind);
+      }
+    }
+
+    private Step readStep() throws IOException {
+      Location location = readLocation();
+      String keyword = readString();
+      String text = readString();
+      byte argumentKind = in.readByte();
+      Node argument;
+      switch (argumentKind) {
+        case NONE:
+          argument = null;
+          break;
+        case DATA_TABLE:
+          argument = new DataTable(readList(this::readRow));
+          break;
+        case DOC_STRING:
+          argument = new DocString(readLocation(), readString(), readString());
+          break;
+        default:
+          throw new IOException("Unknown kind of step argument: " + argumentKind);
+      }
+      return new Step(location, keyword, text, argument);
+    }
+
+    private Examples readExamples() throws IOException {
+      Location location = readLocation();
+      List<Tag> tags = readTags();
+      String keyword = readString();
+      String name = readString();
+      String description = readString();
+      TableRow header = in.readBoolean() ? readRow() : null;
+      List<TableRow> body = in.readBoolean() ? readList(this::readRow) : null;
+      return new Examples(location, tags, keyword, name, description, header, body);
+    }
+
+    private TableRow readRow() throws IOException {
+      Location location = readLocation();
+      return new TableRow(location, readList(() -> new TableCell(readLocation(), readString())));
+    }
+
+    private List<Tag> readTags() throws IOException {
+      return readList(() -> new Tag(readLocation(), readString()));
+    }
+
+    private Location readLocation() throws IOException {
+      int line = in.readInt();
+      return new Location(line, in.readInt());
+    }
+
+    private String readString() throws IOException {
+      int header = in.readInt();
+      if (header == -1) {
+        return null;
+      } else if (header >= 0) {
+        return strings.get(header);
+      }
+      byte[] bytes = new byte[-2 - header];
+      in.readFully(bytes);
+      String str = new String(bytes, UTF_8);
+      strings.add(str);
+      return str;
+    }
+
+    private <T> List<T> readList(ElementReader<T> reader) throws IOException {
+      int size = in.readInt();
+      List<T> list = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        list.add(reader.read());
+      }
+      return Collections.unmodifiableList(list);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+  }
+
+  @FunctionalInterface
+  private interface ElementReader<T> {
+
+    T read() throws IOException;
+
+  }
+
+}
@@ -0,0 +1,259 @@
+package com.github.ddemin.envrouter.cucumber2;
+
+import static com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus.FAILURE_NO_TARGET_ENTITIES;
+import static com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus.FAILURE_UNDEFINED_ENV;
+import static com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus.SUCCESS_HARD_LOCKED;
+import static com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus.SUCCESS_LOCKED;
+import static java.lang.String.format;
+
+import com.github.ddemin.envrouter.RouterConfig;
+import com.github.ddemin.envrouter.base.EntityDurations;
+import com.github.ddemin.envrouter.base.Environment;
+import com.github.ddemin.envrouter.base.EnvironmentLock;
+import com.github.ddemin.envrouter.base.EnvironmentsUtils;
+import com.github.ddemin.envrouter.base.EnvsLocksController;
+import com.github.ddemin.envrouter.base.TestEntitiesQueues;
+import com.github.ddemin.envrouter.base.TestEntityWrapper;
+import com.github.ddemin.envrouter.util.ThreadsUtils;
+import cucumber.api.event.EmbedEvent;
+import cucumber.api.event.Event;
+import cucumber.api.event.SnippetsSuggestedEvent;
+import cucumber.api.event.TestCaseFinished;
+import cucumber.api.event.TestCaseStarted;
+import cucumber.api.event.TestRunFinished;
+import cucumber.api.event.TestStepFinished;
+import cucumber.api.event.TestStepStarted;
+import cucumber.api.event.WriteEvent;
+import cucumber.runner.EventBus;
+import cucumber.runtime.Runtime;
+import cucumber.runtime.RuntimeOptions;
+import cucumber.runtime.io.ResourceLoader;
+import cucumber.runtime.model.CucumberFeature;
+import gherkin.events.PickleEvent;
+import gherkin.pickles.Compiler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Parallel mode of RouterCucumberCli. All features (or scenarios) are put to one shared queue and are run by
+ * workers, count of workers is limited by total capacity of environments. Each worker has own cucumber runtime
+ * (glue, backends, event bus). Events of entity are buffered by worker and replayed to the main runtime (plugins,
+ * summary, exit status) when entity is finished, so plugins get events of each entity in sequence and from one
+ * thread at a time. Workers can be virtual threads (see RouterConfigKeys.VIRTUAL_THREADS_KEY), they mostly wait for
+ * environments and remote systems.
+ */
+@Slf4j
+final class ParallelRouterRun {
+
+  private static final List<Class<? extends Event>> REPLAYED_EVENTS = Arrays.asList(
+      TestCaseStarted.class,
+      TestStepStarted.class,
+      TestStepFinished.class,
+      TestCaseFinished.class,
+      SnippetsSuggestedEvent.class,
+      WriteEvent.class,
+      EmbedEvent.class
+  );
+
+  private final Runtime mainRuntime;
+  private final Supplier<Runtime> workerRuntimeFactory;
+  private final int threads;
+  private final boolean scenarios;
+  private final AtomicReference<RuntimeException> firstFailure = new AtomicReference<>();
+  // Not a monitor, so virtual worker doesn't pin carrier thread while plugins write output
+  private final ReentrantLock replayLock = new ReentrantLock();
+
+  /**
+   * Creates parallel run.
+   *
+   * @param mainRuntime runtime that owns plugins and collects results
+   * @param workerRuntimeFactory creates runtime for worker, its options must not have plugins (events are replayed)
+   * @param threads max count of workers
+   * @param scenarios route scenarios instead of features
+   */
+  ParallelRouterRun(Runtime mainRuntime, Supplier<Runtime> workerRuntimeFactory, int threads, boolean scenarios) {
+    this.mainRuntime = mainRuntime;
+    this.workerRuntimeFactory = workerRuntimeFactory;
+    this.threads = threads;
+    this.scenarios = scenarios;
+  }
+
+  /**
+   * Run features like Runtime.run() does, but in parallel.
+   *
+   * @param runtimeOptions options of main runtime
+   * @param resourceLoader loader of features
+   * @param classLoader classloader of glue
+   * @return exit status
+   * @throws IOException if resources couldn't be loaded
+   */
+  byte run(RuntimeOptions runtimeOptions, ResourceLoader resourceLoader, ClassLoader classLoader) throws IOException {
+    EventBus bus = mainRuntime.getEventBus();
+    List<CucumberFeature> features = runtimeOptions.cucumberFeatures(resourceLoader, bus);
+    mainRuntime.reportStepDefinitions(runtimeOptions.stepDefinitionReporter(classLoader));
+
+    // Results of finished entities are reported even if run has failed
+    try {
+      if (scenarios) {
+        TestEntitiesQueues<ScenarioWrapper> queues = new TestEntitiesQueues<>();
+        ScenariosUtils.wrapScenarios(
+            features,
+            feature -> new Compiler().compile(feature.getGherkinFeature()).stream()
+                .map(pickle -> new PickleEvent(feature.getUri(), pickle))
+                .filter(mainRuntime::matchesFilters)
+                .collect(Collectors.toList()),
+            queues
+        );
+        runEntities(queues, (worker, wrapper) -> runPickle(worker, wrapper.getEntity()));
+      } else {
+        TestEntitiesQueues<FeatureWrapper> queues = new TestEntitiesQueues<>();
+        FeaturesUtils.wrapFeatures(features, queues);
+        runEntities(queues, (worker, wrapper) -> worker.runFeature(wrapper.getEntity()));
+      }
+    } finally {
+      bus.send(new TestRunFinished(bus.getTime()));
+      mainRuntime.printSummary();
+    }
+    if (firstFailure.get() != null) {
+      throw firstFailure.get();
+    }
+    return mainRuntime.exitStatus();
+  }
+
+  private static void runPickle(Runtime worker, PickleEvent pickle) {
+    worker.getRunner().runPickle(pickle);
+  }
+
+  private <T extends TestEntityWrapper> void runEntities(
+      TestEntitiesQueues<T> queues,
+      BiConsumer<Runtime, T> entityRunner
+  ) {
+    int capacity = EnvsLocksController.getAll().stream().mapToInt(Environment::getThreadsMax).sum();
+    int workersCount = Math.max(1, Math.min(threads, Math.min(capacity, queues.entitiesInAllQueues())));
+    log.info("Run {} entities by {} workers", queues.entitiesInAllQueues(), workersCount);
+
+    // Runtimes are created in one thread, because loading of glue isn't thread-safe
+    List<Runtime> workers = new ArrayList<>(workersCount);
+    for (int i = 0; i < workersCount; i++) {
+      workers.add(workerRuntimeFactory.get());
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(
+        workersCount,
+        ThreadsUtils.workersFactory("envrouter-cli-worker-", RouterConfig.VIRTUAL_THREADS)
+    );
+    try {
+      List<Future<?>> futures = workers.stream()
+          .map(worker -> pool.submit(() -> work(worker, queues, entityRunner)))
+          .collect(Collectors.toList());
+      // Other workers finish remaining entities, so their events are replayed before the end of run
+      Throwable workerFailure = null;
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException ex) {
+          workerFailure = workerFailure == null ? ex.getCause() : workerFailure;
+        }
+      }
+      if (workerFailure != null) {
+        throw new IllegalStateException("Worker failed", workerFailure);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Parallel run was interrupted", ex);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private <T extends TestEntityWrapper> void work(
+      Runtime worker,
+      TestEntitiesQueues<T> queues,
+      BiConsumer<Runtime, T> entityRunner
+  ) {
+    List<Event> buffer = new ArrayList<>();
+    for (Class<? extends Event> type : REPLAYED_EVENTS) {
+      record(worker.getEventBus(), type, buffer);
+    }
+
+    while (true) {
+      EnvironmentLock<T> lock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+      if (lock.getLockStatus() == FAILURE_NO_TARGET_ENTITIES) {
+        return;
+      } else if (lock.getLockStatus() == FAILURE_UNDEFINED_ENV) {
+        // Entity can be polled by another worker between search of queue and polling
+        if (lock.getTargetEntity() != null) {
+          firstFailure.compareAndSet(null, failureOf(lock));
+        }
+        continue;
+      } else if (lock.getLockStatus() != SUCCESS_LOCKED && lock.getLockStatus() != SUCCESS_HARD_LOCKED) {
+        firstFailure.compareAndSet(null, failureOf(lock));
+        return;
+      }
+
+      T entity = lock.getTargetEntity();
+      EnvironmentsUtils.setCurrent(lock.getEnvironment());
+      long startNanos = System.nanoTime();
+      try {
+        entityRunner.accept(worker, entity);
+      } catch (RuntimeException ex) {
+        // Failure of entity (e.g. of hook or plugin) doesn't stop worker, run fails when all entities are finished
+        log.error("Entity failed: {}", entity, ex);
+        firstFailure.compareAndSet(null, ex);
+      } finally {
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        // Interruption by watchdog is cleared before I/O of duration recording
+        if (EnvsLocksController.finishEntity(lock)) {
+          log.warn("Environment was reclaimed by watchdog before the end of entity: {}", entity);
+        }
+        EntityDurations.record(entity, lock.getEnvironment(), durationMs);
+        EnvsLocksController.releaseOrRetain(lock, queues);
+        replay(buffer);
+      }
+    }
+  }
+
+  private static <E extends Event> void record(EventBus bus, Class<E> type, List<Event> buffer) {
+    bus.registerHandlerFor(type, buffer::add);
+  }
+
+  private void replay(List<Event> buffer) {
+    EventBus bus = mainRuntime.getEventBus();
+    replayLock.lock();
+    try {
+      buffer.forEach(bus::send);
+    } finally {
+      replayLock.unlock();
+    }
+    buffer.clear();
+  }
+
+  private static RuntimeException failureOf(EnvironmentLock<? extends TestEntityWrapper> lock) {
+    switch (lock.getLockStatus()) {
+      case FAILURE_UNDEFINED_ENV:
+        TestEntityWrapper wrapper = lock.getTargetEntity();
+        return new RuntimeException(
+            format("Entity %s has undefined environment %s", wrapper, wrapper.getRequiredEnvironmentName())
+        );
+      case FAILURE_TIMEOUT:
+      case FAILURE_INTERRUPTED:
+        return new RuntimeException(lock.getStatusMessage());
+      default:
+        return new IllegalStateException("Unexpected lock status: " + lock.getLockStatus());
+    }
+  }
+
+}
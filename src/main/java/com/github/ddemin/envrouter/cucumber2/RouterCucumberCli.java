@@ -2,19 +2,21 @@ package com.github.ddemin.envrouter.cucumber2;
 
 import static com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus.SUCCESS_HARD_LOCKED;
 import static com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus.SUCCESS_LOCKED;
+import static com.github.ddemin.envrouter.cucumber2.CukeConfig.CLASSES_INDEX_FILE;
 import static com.github.ddemin.envrouter.cucumber2.CukeConfig.CONVERTERS;
 import static com.github.ddemin.envrouter.cucumber2.CukeConfig.GUICE_MODULES;
 import static java.lang.String.format;
 import static java.util.Arrays.asList;
 
+import com.github.ddemin.envrouter.base.EntityDurations;
 import com.github.ddemin.envrouter.base.EnvironmentLock;
 import com.github.ddemin.envrouter.base.EnvironmentsUtils;
 import com.github.ddemin.envrouter.base.EnvsLocksController;
 import com.github.ddemin.envrouter.base.TestEntitiesQueues;
 import com.github.ddemin.envrouter.cucumber2.testng.AbstractCucumberFeatureTest;
-import com.google.common.reflect.ClassPath;
-import com.google.common.reflect.ClassPath.ClassInfo;
+import com.google.common.base.Suppliers;
 import com.google.inject.Guice;
+import com.google.inject.Injector;
 import com.google.inject.Module;
 import cucumber.deps.com.thoughtworks.xstream.annotations.XStreamConverter;
 import cucumber.deps.com.thoughtworks.xstream.converters.ConverterMatcher;
@@ -30,28 +32,58 @@ import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.reflect.FieldUtils;
 import sun.reflect.annotation.AnnotationParser;
 
 @Slf4j
 public class RouterCucumberCli extends AbstractCucumberFeatureTest {
 
   public static final RouterCucumberCli INSTANCE = new RouterCucumberCli();
+  public static final String THREADS_OPTION = "--router-threads";
+  public static final String SCENARIOS_OPTION = "--router-scenarios";
+
+  private static final Supplier<ClassesIndex> CLASSES_INDEX = Suppliers.memoize(
+      () -> new ClassesIndex(
+          RouterCucumberCli.class.getClassLoader(),
+          CLASSES_INDEX_FILE == null ? null : Paths.get(CLASSES_INDEX_FILE),
+          Module.class,
+          ConverterMatcher.class
+      )
+  );
+  private static final Supplier<List<Annotation>> CONVERTERS_ANNOTATIONS = Suppliers.memoize(
+      () -> createConvertersAnnotations(CONVERTERS)
+  );
+
+  private static volatile Injector injector;
 
   public static void main(String[] argv) throws Throwable {
     byte exitStatus = run(argv, Thread.currentThread().getContextClassLoader());
     System.exit(exitStatus);
   }
 
+  /**
+   * Returns injector that was created from Guice modules of CukeConfig.GUICE_MODULES on the first run.
+   *
+   * @return injector or null if CLI wasn't run yet
+   */
+  public static Injector getInjector() {
+    return injector;
+  }
+
   /**
    * Launches the Cucumber-JVM command line.
+   * Besides cucumber options it accepts {@code --router-threads N} (run features in N parallel workers, but not more
+   * than total capacity of environments) and {@code --router-scenarios} (route scenarios instead of features, without
+   * {@code --router-threads} scenarios are run by one worker).
    *
    * @param argv runtime options. See details in the {@code cucumber.api.cli.Usage.txt} resource.
    * @param classLoader classloader used to load the runtime
@@ -61,12 +93,26 @@ public class RouterCucumberCli extends AbstractCucumberFeatureTest {
   public static byte run(String[] argv, ClassLoader classLoader) throws IOException {
     injectGuiceModules(GUICE_MODULES);
 
-    RuntimeOptions runtimeOptions = new RuntimeOptions(new ArrayList<>(asList(argv)));
-    registerConverters(runtimeOptions, CONVERTERS);
+    List<String> args = new ArrayList<>(asList(argv));
+    int threads = extractThreads(args);
+    boolean scenarios = args.remove(SCENARIOS_OPTION);
+
+    RuntimeOptions runtimeOptions = createRuntimeOptions(args);
 
     ResourceLoader resourceLoader = new MultiLoader(classLoader);
     ClassFinder classFinder = new ResourceLoaderClassFinder(resourceLoader, classLoader);
 
+    // Scenarios are routed by parallel run only, so it's used with one worker too
+    if (threads > 1 || scenarios) {
+      Runtime mainRuntime = new Runtime(resourceLoader, classFinder, classLoader, runtimeOptions);
+      return new ParallelRouterRun(
+          mainRuntime,
+          () -> new Runtime(resourceLoader, classFinder, classLoader, createWorkerRuntimeOptions(args)),
+          threads,
+          scenarios
+      ).run(runtimeOptions, resourceLoader, classLoader);
+    }
+
     Runtime runtime = new Runtime(resourceLoader, classFinder, classLoader, runtimeOptions) {
       @Override
       public void runFeature(CucumberFeature feature) {
@@ -80,11 +126,22 @@ public class RouterCucumberCli extends AbstractCucumberFeatureTest {
 
         EnvironmentsUtils.setCurrent(lock.getEnvironment());
 
-        List<PickleEvent> pickleEvents = compileFeature(feature);
-        for (PickleEvent pickleEvent : pickleEvents) {
-          if (matchesFilters(pickleEvent)) {
-            getRunner().runPickle(pickleEvent);
+        long startNanos = System.nanoTime();
+        try {
+          List<PickleEvent> pickleEvents = compileFeature(feature);
+          for (PickleEvent pickleEvent : pickleEvents) {
+            if (matchesFilters(pickleEvent)) {
+              getRunner().runPickle(pickleEvent);
+            }
+          }
+        } finally {
+          long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+          // Interruption by watchdog is cleared before I/O of duration recording
+          if (EnvsLocksController.finishEntity(lock)) {
+            log.warn("Environment was reclaimed by watchdog before the end of entity: {}", lock.getTargetEntity());
           }
+          EntityDurations.record(lock.getTargetEntity(), lock.getEnvironment(), durationMs);
+          EnvsLocksController.releaseOrRetain(lock, queues);
         }
       }
     };
@@ -118,10 +175,55 @@ public class RouterCucumberCli extends AbstractCucumberFeatureTest {
     }
   }
 
-  private static void injectGuiceModules(List<String> packagesNames) {
-    List<Module> guiceModules = packagesNames.stream()
-        .flatMap(RouterCucumberCli::getStreamOfClassesFrom)
-        .filter(Module.class::isAssignableFrom)
+  static int extractThreads(List<String> args) {
+    int index = args.indexOf(THREADS_OPTION);
+    if (index < 0) {
+      return 1;
+    }
+    if (index == args.size() - 1) {
+      throw new IllegalArgumentException("Missing value of " + THREADS_OPTION);
+    }
+    String value = args.remove(index + 1);
+    args.remove(index);
+    try {
+      int threads = Integer.parseInt(value);
+      if (threads < 1) {
+        throw new IllegalArgumentException(format("%s must be positive: %s", THREADS_OPTION, value));
+      }
+      return threads;
+    } catch (NumberFormatException ex) {
+      throw new IllegalArgumentException(format("Invalid value of %s: %s", THREADS_OPTION, value), ex);
+    }
+  }
+
+  // Each runtime needs own options, because options own plugins and bind them to event bus of runtime
+  private static RuntimeOptions createRuntimeOptions(List<String> args) {
+    RuntimeOptions runtimeOptions = new RuntimeOptions(new ArrayList<>(args));
+    registerConverters(runtimeOptions);
+    return runtimeOptions;
+  }
+
+  // Plugins are bound to main runtime only, events of workers are replayed to it (see ParallelRouterRun)
+  private static RuntimeOptions createWorkerRuntimeOptions(List<String> args) {
+    RuntimeOptions runtimeOptions = createRuntimeOptions(args);
+    List<String> pluginsFields = asList(
+        "pluginFormatterNames", "pluginStepDefinitionReporterNames", "pluginSummaryPrinterNames"
+    );
+    for (String field : pluginsFields) {
+      try {
+        ((List<?>) FieldUtils.readField(runtimeOptions, field, true)).clear();
+      } catch (IllegalAccessException ex) {
+        throw new IllegalStateException(ex);
+      }
+    }
+    return runtimeOptions;
+  }
+
+  private static synchronized void injectGuiceModules(List<String> packagesNames) {
+    if (injector != null) {
+      return;
+    }
+    List<Module> guiceModules = CLASSES_INDEX.get().find(packagesNames, Module.class).stream()
         .map(
             clz -> {
               try {
@@ -132,24 +234,12 @@ public class RouterCucumberCli extends AbstractCucumberFeatureTest {
             }
         )
         .collect(Collectors.toList());
-    Guice.createInjector(guiceModules);
+    injector = Guice.createInjector(guiceModules);
   }
 
   // TODO Check converters overlapping
-  private static void registerConverters(RuntimeOptions runtimeOptions, List<String> packagesNames) {
-    List<Annotation> convertersAnnotations = packagesNames.stream()
-        .flatMap(RouterCucumberCli::getStreamOfClassesFrom)
-        .filter(ConverterMatcher.class::isAssignableFrom)
-        .map(
-            converterClass -> {
-              Map<String, Object> annPropertiesMap = new HashMap<>();
-              annPropertiesMap.put("value", converterClass);
-              annPropertiesMap.put("priority", 0);
-              return AnnotationParser.annotationForMap(XStreamConverter.class, annPropertiesMap);
-            }
-        )
-        .collect(Collectors.toList());
-
+  private static void registerConverters(RuntimeOptions runtimeOptions) {
+    List<Annotation> convertersAnnotations = CONVERTERS_ANNOTATIONS.get();
     if (!convertersAnnotations.isEmpty()) {
       try {
         Field field = runtimeOptions.getClass().getDeclaredField("converters");
@@ -170,20 +260,17 @@ public class RouterCucumberCli extends AbstractCucumberFeatureTest {
     }
   }
 
-  private static Stream<Class<?>> getStreamOfClassesFrom(String packageOrClzFullName) {
-    try {
-      if (Thread.currentThread().getContextClassLoader()
-          .getResource(packageOrClzFullName.replace('.', '/')) != null) {
-        return ClassPath.from(RouterCucumberCli.class.getClassLoader())
-            .getTopLevelClassesRecursive(packageOrClzFullName)
-            .stream()
-            .map(ClassInfo::load);
-      } else {
-        return Stream.of(RouterCucumberCli.class.getClassLoader().loadClass(packageOrClzFullName));
-      }
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    }
+  private static List<Annotation> createConvertersAnnotations(List<String> packagesNames) {
+    return CLASSES_INDEX.get().find(packagesNames, ConverterMatcher.class).stream()
+        .map(
+            converterClass -> {
+              Map<String, Object> annPropertiesMap = new HashMap<>();
+              annPropertiesMap.put("value", converterClass);
+              annPropertiesMap.put("priority", 0);
+              return AnnotationParser.annotationForMap(XStreamConverter.class, annPropertiesMap);
+            }
+        )
+        .collect(Collectors.toList());
   }
 
 }
@@ -0,0 +1,159 @@
+package com.github.ddemin.envrouter.cucumber2;
+
+import static com.github.ddemin.envrouter.cucumber2.CukeTags.CUKE_ENV_TAG;
+import static com.github.ddemin.envrouter.cucumber2.CukeTags.CUKE_HARDLOCK_TAG;
+import static com.github.ddemin.envrouter.cucumber2.CukeTags.CUKE_PRIORITY_TAG;
+import static com.github.ddemin.envrouter.cucumber2.CukeTags.CUKE_TIMEOUT_TAG;
+import static com.github.ddemin.envrouter.cucumber2.CukeTags.CUKE_WEIGHT_TAG;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import cucumber.runtime.model.CucumberFeature;
+import gherkin.ast.Tag;
+import gherkin.events.PickleEvent;
+import gherkin.pickles.PickleTag;
+import java.util.Arrays;
+import lombok.NonNull;
+
+/**
+ * Values of router tags (see CukeTags) that are extracted in one pass over tags of feature or scenario.
+ * Values of feature tags are cached per feature, because all scenarios of feature fall back to them.
+ */
+public final class RouterTags {
+
+  static final RouterTags EMPTY = new RouterTags(new String[RouterTag.VALUES.length]);
+
+  private static final LoadingCache<CucumberFeature, RouterTags> FEATURES_TAGS = CacheBuilder.newBuilder()
+      .weakKeys()
+      .build(CacheLoader.from(RouterTags::parseFeatureTags));
+
+  // Tag ending (value) by ordinal of RouterTag, null - tag is absent
+  private final String[] values;
+
+  private RouterTags(String[] values) {
+    this.values = values;
+  }
+
+  /**
+   * Get (cached) values of feature tags. The first tag wins if feature has several tags of the same kind.
+   *
+   * @param feature cucumber-jvm feature
+   * @return values of tags
+   */
+  public static RouterTags of(@NonNull CucumberFeature feature) {
+    return FEATURES_TAGS.getUnchecked(feature);
+  }
+
+  /**
+   * Get values of scenario tags (including inherited feature tags). The last tag wins if scenario has several tags of
+   * the same kind.
+   *
+   * @param scenario cucumber-jvm scenario (PickleEvent)
+   * @return values of tags
+   */
+  public static RouterTags of(@NonNull PickleEvent scenario) {
+    String[] values = new String[RouterTag.VALUES.length];
+    for (PickleTag tag : scenario.pickle.getTags()) {
+      extract(tag.getName(), values, true);
+    }
+    return new RouterTags(values);
+  }
+
+  /**
+   * Returns ending of tag, e.g. "Test1" for @EnvTest1.
+   *
+   * @param tag kind of tag
+   * @return value or null if tag is absent
+   */
+  public String get(@NonNull RouterTag tag) {
+    return values[tag.ordinal()];
+  }
+
+  public boolean isPresent(@NonNull RouterTag tag) {
+    return values[tag.ordinal()] != null;
+  }
+
+  /**
+   * Returns numeric value of tag, e.g. 2 for @Priority2.
+   *
+   * @param tag kind of tag
+   * @param defaultValue value for absent tag or tag without number
+   * @return value of tag or default value
+   */
+  public long getNumber(@NonNull RouterTag tag, long defaultValue) {
+    String value = values[tag.ordinal()];
+    if (value == null || value.isEmpty() || value.length() > 18) {
+      return defaultValue;
+    }
+    long number = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char ch = value.charAt(i);
+      if (ch < '0' || ch > '9') {
+        return defaultValue;
+      }
+      number = number * 10 + (ch - '0');
+    }
+    return number;
+  }
+
+  /**
+   * See #getNumber.
+   *
+   * @param tag kind of tag
+   * @param defaultValue value for absent tag or tag without number
+   * @return value of tag or default value if value doesn't fit to int
+   */
+  public int getInt(@NonNull RouterTag tag, int defaultValue) {
+    long number = getNumber(tag, -1);
+    return number < 0 || number > Integer.MAX_VALUE ? defaultValue : (int) number;
+  }
+
+  @Override
+  public String toString() {
+    return "RouterTags" + Arrays.toString(values);
+  }
+
+  private static RouterTags parseFeatureTags(CucumberFeature feature) {
+    String[] values = new String[RouterTag.VALUES.length];
+    for (Tag tag : feature.getGherkinFeature().getFeature().getTags()) {
+      extract(tag.getName(), values, false);
+    }
+    return new RouterTags(values);
+  }
+
+  private static void extract(String tagName, String[] values, boolean lastWins) {
+    for (RouterTag tag : RouterTag.VALUES) {
+      if (tagName.startsWith(tag.prefix)) {
+        if (lastWins || values[tag.ordinal()] == null) {
+          values[tag.ordinal()] = tagName.substring(tagName.lastIndexOf(tag.prefix) + tag.prefix.length());
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Kinds of router tags. New kind of tag is parsed automatically after adding here.
+   */
+  public enum RouterTag {
+    ENV(CUKE_ENV_TAG),
+    PRIORITY(CUKE_PRIORITY_TAG),
+    HARD_LOCK(CUKE_HARDLOCK_TAG),
+    WEIGHT(CUKE_WEIGHT_TAG),
+    TIMEOUT(CUKE_TIMEOUT_TAG);
+
+    private static final RouterTag[] VALUES = values();
+
+    private final String prefix;
+
+    RouterTag(String prefix) {
+      this.prefix = prefix;
+    }
+
+    public String getPrefix() {
+      return prefix;
+    }
+  }
+
+}
@@ -25,6 +25,16 @@ public class ScenarioWrapper extends TestEntityWrapper<PickleEvent> {
     super(entity, requiredEnvironmentName, priority, requiresHardLocking);
   }
 
+  @SuppressFBWarnings
+  public ScenarioWrapper(
+      @NonNull PickleEvent entity,
+      String requiredEnvironmentName,
+      int priority,
+      boolean requiresHardLocking,
+      int weight) {
+    super(entity, requiredEnvironmentName, priority, requiresHardLocking, weight);
+  }
+
   @Override
   public String toString() {
     return format(
@@ -1,30 +1,35 @@
 package com.github.ddemin.envrouter.cucumber2;
 
-import static com.github.ddemin.envrouter.cucumber2.CukeTags.CUKE_ENV_TAG;
-import static com.github.ddemin.envrouter.cucumber2.CukeTags.CUKE_HARDLOCK_TAG;
-import static com.github.ddemin.envrouter.cucumber2.CukeTags.CUKE_PRIORITY_TAG;
+import static com.github.ddemin.envrouter.cucumber2.RouterTags.RouterTag.ENV;
+import static com.github.ddemin.envrouter.cucumber2.RouterTags.RouterTag.HARD_LOCK;
+import static com.github.ddemin.envrouter.cucumber2.RouterTags.RouterTag.PRIORITY;
+import static com.github.ddemin.envrouter.cucumber2.RouterTags.RouterTag.TIMEOUT;
+import static com.github.ddemin.envrouter.cucumber2.RouterTags.RouterTag.WEIGHT;
 
+import com.github.ddemin.envrouter.base.TestEntitiesQueues;
 import cucumber.runtime.model.CucumberFeature;
 import gherkin.events.PickleEvent;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import lombok.NonNull;
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
 
 /**
  * Created by Dmitrii Demin on 18.09.2017.
  */
 @Slf4j
 @UtilityClass
-// TODO Deduplicate
 public class ScenariosUtils {
 
+  // Features count from which scenarios are compiled and wrapped in parallel
+  static final int PARALLEL_FEATURES_THRESHOLD = 16;
+
   /**
    * Wrap cucumber-jvm feature and parse its priority tag and required environment tag.
    *
@@ -34,12 +39,18 @@ public class ScenariosUtils {
    */
   public static ScenarioWrapper wrapScenario(@NonNull PickleEvent scenario, CucumberFeature feature) {
     log.debug("Wrap scenario: {}", scenario.uri);
-    return new ScenarioWrapper(
+    RouterTags tags = RouterTags.of(scenario);
+    RouterTags featureTags = feature == null ? RouterTags.EMPTY : RouterTags.of(feature);
+    String requiredEnv = tags.get(ENV);
+    ScenarioWrapper wrapper = new ScenarioWrapper(
         scenario,
-        getScenarioRequiredEnvironment(scenario, feature),
-        getScenarioPriority(scenario, feature),
-        getHardLockingRequirement(scenario, feature)
+        requiredEnv == null ? featureTags.get(ENV) : requiredEnv,
+        tags.getInt(PRIORITY, featureTags.getInt(PRIORITY, Integer.MAX_VALUE)),
+        tags.isPresent(HARD_LOCK) || featureTags.isPresent(HARD_LOCK),
+        tags.getInt(WEIGHT, featureTags.getInt(WEIGHT, 1))
     );
+    wrapper.setTimeoutMs(TimeUnit.SECONDS.toMillis(tags.getNumber(TIMEOUT, featureTags.getNumber(TIMEOUT, 0))));
+    return wrapper;
   }
 
   /**
@@ -49,10 +60,8 @@ public class ScenariosUtils {
    * @return list of wrapped features
    */
   public static List<ScenarioWrapper> wrapScenarios(@NonNull Map<CucumberFeature, List<PickleEvent>> scenariosMap) {
-    log.info(
-        "Wrap scenarios: {}",
-        scenariosMap.values().stream().flatMap(Collection::stream).map(ev -> ev.uri).collect(Collectors.toList())
-    );
+    log.info("Wrap scenarios of {} features", scenariosMap.size());
+    logScenariosUris(scenariosMap);
     return scenariosMap.entrySet().stream()
         .flatMap(
             entry ->
@@ -61,29 +70,49 @@ public class ScenariosUtils {
         .collect(Collectors.toList());
   }
 
-  static int getScenarioPriority(@NonNull PickleEvent scenario, CucumberFeature feature) {
-    return extractTagEnding(scenario, CUKE_PRIORITY_TAG)
-        .filter(priorityStr -> priorityStr.matches("[\\d]+"))
-        .map(Integer::parseInt)
-        .orElse(FeaturesUtils.getFeaturePriority(feature));
-  }
-
-  static String getScenarioRequiredEnvironment(@NonNull PickleEvent scenario, CucumberFeature feature) {
-    return extractTagEnding(scenario, CUKE_ENV_TAG)
-        .orElse(FeaturesUtils.getFeatureRequiredEnvironment(feature));
+  /**
+   * Wrap cucumber-jvm scenarios of features (in parallel for large suites) and add them straight to queues.
+   *
+   * @param scenariosMap feature:scenarios map
+   * @param queues target queues
+   */
+  public static void wrapScenarios(
+      @NonNull Map<CucumberFeature, List<PickleEvent>> scenariosMap,
+      @NonNull TestEntitiesQueues<ScenarioWrapper> queues
+  ) {
+    logScenariosUris(scenariosMap);
+    wrapScenarios(scenariosMap.keySet(), scenariosMap::get, queues);
   }
 
-  static boolean getHardLockingRequirement(@NonNull PickleEvent scenario, CucumberFeature feature) {
-    return extractTagEnding(scenario, CUKE_HARDLOCK_TAG)
-        .map(Objects::nonNull)
-        .orElse(FeaturesUtils.getHardLockingRequirement(feature));
+  /**
+   * Compile scenarios of cucumber-jvm features, wrap them and add straight to queues. Large suites are processed in
+   * parallel (one fork-join task per feature).
+   *
+   * @param features cucumber-jvm features
+   * @param compiler thread-safe function that returns (filtered) scenarios of feature
+   * @param queues target queues
+   */
+  public static void wrapScenarios(
+      @NonNull Collection<CucumberFeature> features,
+      @NonNull Function<CucumberFeature, List<PickleEvent>> compiler,
+      @NonNull TestEntitiesQueues<ScenarioWrapper> queues
+  ) {
+    log.info("Wrap scenarios of {} features", features.size());
+    Stream<CucumberFeature> stream = features.size() < PARALLEL_FEATURES_THRESHOLD
+        ? features.stream()
+        : features.parallelStream();
+    stream
+        .flatMap(feature -> compiler.apply(feature).stream().map(scenario -> wrapScenario(scenario, feature)))
+        .forEach(queues::add);
   }
 
-  private static Optional<String> extractTagEnding(@NonNull PickleEvent scenario, @NonNull String str) {
-    return scenario.pickle.getTags().stream()
-        .filter(tag -> tag.getName().startsWith(str))
-        .map(tag -> StringUtils.substringAfterLast(tag.getName(), str))
-        .reduce((first, second) -> second);
+  private static void logScenariosUris(Map<CucumberFeature, List<PickleEvent>> scenariosMap) {
+    if (log.isDebugEnabled()) {
+      log.debug(
+          "Wrap scenarios: {}",
+          scenariosMap.values().stream().flatMap(Collection::stream).map(ev -> ev.uri).collect(Collectors.toList())
+      );
+    }
   }
 
 }
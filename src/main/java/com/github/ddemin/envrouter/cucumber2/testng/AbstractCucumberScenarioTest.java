@@ -1,21 +1,13 @@
 package com.github.ddemin.envrouter.cucumber2.testng;
 
-import static java.util.stream.Collectors.mapping;
-import static java.util.stream.Collectors.toList;
-
 import com.github.ddemin.envrouter.base.EnvironmentLock;
+import com.github.ddemin.envrouter.base.TestEntitiesQueues;
 import com.github.ddemin.envrouter.cucumber2.ScenarioWrapper;
 import com.github.ddemin.envrouter.cucumber2.ScenariosUtils;
-import cucumber.api.testng.CucumberFeatureWrapper;
-import cucumber.api.testng.PickleEventWrapper;
-import cucumber.runtime.model.CucumberFeature;
+import cucumber.runtime.Runtime;
 import gherkin.events.PickleEvent;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+import gherkin.pickles.Compiler;
 import java.util.stream.Collectors;
-import javafx.util.Pair;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -24,28 +16,21 @@ public abstract class AbstractCucumberScenarioTest extends AbstractCucumberTest<
   protected abstract void processFailedLocking(EnvironmentLock<ScenarioWrapper> lock);
 
   @Override
-  List<ScenarioWrapper> wrapEntities() {
-    Map<CucumberFeature, List<PickleEvent>> scenariosMap = Arrays.stream(tlCukeRunner.get().provideScenarios())
-        .filter(Objects::nonNull)
-        .filter(objs -> objs.length == 2 && objs[0] != null && objs[1] != null)
-        .map(objs ->
-            new Pair<>(
-                ((CucumberFeatureWrapper) objs[1]).getCucumberFeature(),
-                ((PickleEventWrapper) objs[0]).getPickleEvent()
-            )
-        )
-        .collect(
-            Collectors.groupingBy(
-                Pair::getKey,
-                mapping(Pair::getValue, toList())
-            )
-        );
-    return ScenariosUtils.wrapScenarios(scenariosMap);
+  void wrapEntities(TestEntitiesQueues<ScenarioWrapper> queues) {
+    Runtime runtime = SharedFeatures.runtimeOf(getCukeRunner());
+    ScenariosUtils.wrapScenarios(
+        getFeatures(),
+        feature -> new Compiler().compile(feature.getGherkinFeature()).stream()
+            .map(pickle -> new PickleEvent(feature.getUri(), pickle))
+            .filter(runtime::matchesFilters)
+            .collect(Collectors.toList()),
+        queues
+    );
   }
 
   @Override
   void runCucumberEntity(ScenarioWrapper cucumberEntityWrapper) throws Throwable {
-    tlCukeRunner.get().runScenario(cucumberEntityWrapper.getEntity());
+    getCukeRunner().runScenario(cucumberEntityWrapper.getEntity());
   }
 
 }
@@ -2,6 +2,7 @@ package com.github.ddemin.envrouter.cucumber2.testng;
 
 import static com.github.ddemin.envrouter.util.ReflectionUtils.changeAnnotationValue;
 
+import com.github.ddemin.envrouter.base.EntityDurations;
 import com.github.ddemin.envrouter.base.Environment;
 import com.github.ddemin.envrouter.base.EnvironmentLock;
 import com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus;
@@ -13,14 +14,19 @@ import com.github.ddemin.envrouter.cucumber2.CukeConfig;
 import com.google.common.base.Splitter;
 import cucumber.api.CucumberOptions;
 import cucumber.api.testng.TestNGCucumberRunner;
+import cucumber.runtime.model.CucumberFeature;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.MDC;
 import org.testng.ITest;
 import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterSuite;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.DataProvider;
 
@@ -29,16 +35,17 @@ public abstract class AbstractCucumberTest<T extends TestEntityWrapper> implemen
 
   private static final Map<Class<? extends AbstractCucumberTest>, TestEntitiesQueues<? extends TestEntityWrapper>>
       QUEUES = new HashMap<>();
+  // Count of test instances (one per entity) that haven't run yet, see #routerDataProvider
+  private static final Map<Class<? extends AbstractCucumberTest>, AtomicInteger> UNFINISHED_ENTITIES
+      = new ConcurrentHashMap<>();
   private static final String LOGBACK_MDC_KEY = "mdc";
 
-  final ThreadLocal<TestNGCucumberRunner> tlCukeRunner
-      = ThreadLocal.withInitial(() -> new TestNGCucumberRunner(this.getClass()));
   private final ThreadLocal<EnvironmentLock<T>> tlEnvLock = ThreadLocal.withInitial(() -> null);
   private boolean annotationIsUpdated = false;
 
   protected abstract void processFailedLocking(EnvironmentLock<T> lock);
 
-  abstract List<T> wrapEntities();
+  abstract void wrapEntities(TestEntitiesQueues<T> queues);
 
   abstract void runCucumberEntity(T cucumberEntityWrapper) throws Throwable;
 
@@ -65,6 +72,8 @@ public abstract class AbstractCucumberTest<T extends TestEntityWrapper> implemen
       return tlEnvLock.get().getTargetEntity().getName();
     } else if (tlEnvLock.get().getLockStatus() == LockStatus.FAILURE_TIMEOUT) {
       return "Tests routing timeout occurred " + UUID.randomUUID().toString();
+    } else if (tlEnvLock.get().getLockStatus() == LockStatus.FAILURE_INTERRUPTED) {
+      return "Tests routing was interrupted " + UUID.randomUUID().toString();
     } else {
       return "Undefined entity. Global error occurred " + UUID.randomUUID().toString();
     }
@@ -101,39 +110,62 @@ public abstract class AbstractCucumberTest<T extends TestEntityWrapper> implemen
   }
 
   /**
-   * Finish cucumber-jvm runner.
+   * Clear logging context of entity.
    */
   @AfterClass(alwaysRun = true)
-  public void finishCucumberRunner() {
-    if (tlCukeRunner.get() != null) {
-      log.debug("Finish current Cucumber runner");
-      tlCukeRunner.get().finish();
-    }
+  public void clearLoggingContext() {
     MDC.remove(LOGBACK_MDC_KEY);
   }
 
+  /**
+   * Finish cucumber-jvm runners of all threads that weren't finished with their test classes.
+   */
+  @AfterSuite(alwaysRun = true)
+  public void finishCucumberRunners() {
+    SharedFeatures.finishRunners();
+  }
+
   protected void testCucumberEntity() throws Throwable {
     log.debug("Try to run cucumber entity. Lock info: {}", tlEnvLock.get());
     Environment env = tlEnvLock.get().getEnvironment();
     LockStatus lockStatus = tlEnvLock.get().getLockStatus();
-    switch (lockStatus) {
-      case SUCCESS_HARD_LOCKED:
-      case SUCCESS_LOCKED:
-        try {
-          EnvironmentsUtils.setCurrent(env);
-          // For init purposes
-          tlCukeRunner.get().getFeatures();
-          runCucumberEntity(tlEnvLock.get().getTargetEntity());
-        } finally {
-          EnvsLocksController.release(env);
-        }
-        break;
-      default:
-        log.warn("Lock unsuccessful. Process failure...");
-        processFailedLocking(tlEnvLock.get());
+    try {
+      switch (lockStatus) {
+        case SUCCESS_HARD_LOCKED:
+        case SUCCESS_LOCKED:
+          T entity = tlEnvLock.get().getTargetEntity();
+          long startNanos = System.nanoTime();
+          try {
+            EnvironmentsUtils.setCurrent(env);
+            runCucumberEntity(entity);
+          } finally {
+            long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            // Interruption by watchdog is cleared before I/O of duration recording
+            if (EnvsLocksController.finishEntity(tlEnvLock.get())) {
+              log.warn("Environment was reclaimed by watchdog before the end of entity: {}", entity);
+            }
+            EntityDurations.record(entity, env, durationMs);
+            EnvsLocksController.releaseOrRetain(tlEnvLock.get(), getEnvsQueuesForThisClass());
+          }
+          break;
+        default:
+          log.warn("Lock unsuccessful. Process failure...");
+          processFailedLocking(tlEnvLock.get());
+      }
+    } finally {
+      countFinishedEntity();
     }
   }
 
+  // Features are shared, runner of thread holds execution state only
+  TestNGCucumberRunner getCukeRunner() {
+    return SharedFeatures.runnerOf(getClass());
+  }
+
+  List<CucumberFeature> getFeatures() {
+    return SharedFeatures.of(getClass());
+  }
+
   private TestEntitiesQueues<T> getEnvsQueuesForThisClass() {
     return (TestEntitiesQueues<T>) QUEUES.computeIfAbsent(
         this.getClass(),
@@ -143,9 +175,18 @@ public abstract class AbstractCucumberTest<T extends TestEntityWrapper> implemen
 
   private int initQueues() {
     TestEntitiesQueues<T> envQueues = getEnvsQueuesForThisClass();
-    envQueues.addAll(wrapEntities());
+    wrapEntities(envQueues);
     log.info("Save all scenarios to queues. Processed {}", envQueues.entitiesInAllQueues());
+    UNFINISHED_ENTITIES.put(getClass(), new AtomicInteger(envQueues.entitiesInAllQueues()));
     return envQueues.entitiesInAllQueues();
   }
 
+  // Runners of test class aren't used after its last entity, so they are finished without waiting for suite end
+  private void countFinishedEntity() {
+    AtomicInteger unfinished = UNFINISHED_ENTITIES.get(getClass());
+    if (unfinished != null && unfinished.decrementAndGet() == 0) {
+      SharedFeatures.finishRunners(getClass());
+    }
+  }
+
 }
@@ -0,0 +1,128 @@
+package com.github.ddemin.envrouter.cucumber2.testng;
+
+import static com.github.ddemin.envrouter.util.ReflectionUtils.readField;
+
+import com.github.ddemin.envrouter.cucumber2.CukeConfig;
+import com.github.ddemin.envrouter.cucumber2.GherkinCache;
+import cucumber.api.event.TestRunStarted;
+import cucumber.api.testng.TestNGCucumberRunner;
+import cucumber.runner.EventBus;
+import cucumber.runtime.Runtime;
+import cucumber.runtime.RuntimeOptions;
+import cucumber.runtime.RuntimeOptionsFactory;
+import cucumber.runtime.io.MultiLoader;
+import cucumber.runtime.model.CucumberFeature;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Features of test classes that are parsed once and shared (read-only) by cucumber runners of all threads. A runner
+ * keeps per-thread execution state only (backends, glue, event bus, plugins), one runner is created for each thread
+ * and test class and is used by all entities of this thread. Runners of test class are finished when all its entities
+ * are finished (see AbstractCucumberTest), so their reports are completed without waiting for the end of suite.
+ */
+@Slf4j
+@UtilityClass
+class SharedFeatures {
+
+  private static final Map<Class<?>, List<CucumberFeature>> FEATURES = new ConcurrentHashMap<>();
+  // Runners by test class and thread id. Id isn't reused while thread is alive, and Thread objects aren't kept
+  private static final Map<Class<?>, Map<Long, TestNGCucumberRunner>> RUNNERS = new ConcurrentHashMap<>();
+
+  /**
+   * Get (load and parse once) features of test class.
+   *
+   * @param testClass class with cucumber options
+   * @return unmodifiable list of features
+   */
+  static List<CucumberFeature> of(Class<?> testClass) {
+    return FEATURES.computeIfAbsent(testClass, SharedFeatures::load);
+  }
+
+  /**
+   * Get (create once) runner of current thread for test class.
+   *
+   * @param testClass class with cucumber options
+   * @return runner
+   */
+  static TestNGCucumberRunner runnerOf(Class<?> testClass) {
+    Map<Long, TestNGCucumberRunner> runners = RUNNERS.computeIfAbsent(testClass, key -> new ConcurrentHashMap<>());
+    long threadId = Thread.currentThread().getId();
+    // Key is used by current thread only, so runner is created without locking
+    TestNGCucumberRunner runner = runners.get(threadId);
+    if (runner == null) {
+      runner = createRunner(testClass);
+      runners.put(threadId, runner);
+    }
+    return runner;
+  }
+
+  /**
+   * Finish runners of all threads for test class. Runner that is requested after that is created again.
+   *
+   * @param testClass class with cucumber options
+   */
+  static void finishRunners(Class<?> testClass) {
+    Map<Long, TestNGCucumberRunner> runners = RUNNERS.remove(testClass);
+    if (runners != null) {
+      runners.values().forEach(TestNGCucumberRunner::finish);
+      log.debug("Cucumber runners of {} are finished", testClass.getSimpleName());
+    }
+  }
+
+  /**
+   * Finish runners of all threads and test classes.
+   */
+  static void finishRunners() {
+    for (Class<?> testClass : RUNNERS.keySet()) {
+      finishRunners(testClass);
+    }
+  }
+
+  /**
+   * Create runner for current thread. Shared features are announced to runner's plugins, because plugins (e.g.
+   * reporters) expect TestSourceRead events before scenarios of feature run.
+   *
+   * @param testClass class with cucumber options
+   * @return new runner
+   */
+  private static TestNGCucumberRunner createRunner(Class<?> testClass) {
+    TestNGCucumberRunner runner = new TestNGCucumberRunner(testClass);
+    RuntimeOptions runtimeOptions = readField(runner, "runtimeOptions");
+    EventBus bus = runtimeOf(runner).getEventBus();
+    // Instantiate plugins, so they are subscribed to event bus
+    runtimeOptions.getPlugins();
+    bus.send(new TestRunStarted(bus.getTime()));
+    for (CucumberFeature feature : of(testClass)) {
+      feature.sendTestSourceRead(bus);
+    }
+    return runner;
+  }
+
+  static Runtime runtimeOf(TestNGCucumberRunner runner) {
+    return readField(runner, "runtime");
+  }
+
+  private static List<CucumberFeature> load(Class<?> testClass) {
+    long startNanos = System.nanoTime();
+    RuntimeOptions runtimeOptions = new RuntimeOptionsFactory(testClass).create();
+    MultiLoader resourceLoader = new MultiLoader(testClass.getClassLoader());
+    List<CucumberFeature> features = CukeConfig.GHERKIN_CACHE_DIR == null
+        ? CucumberFeature.load(resourceLoader, runtimeOptions.getFeaturePaths(), System.out)
+        : new GherkinCache(Paths.get(CukeConfig.GHERKIN_CACHE_DIR))
+            .loadFeatures(resourceLoader, runtimeOptions.getFeaturePaths());
+    log.info(
+        "Features of {} are parsed: {} in {} ms",
+        testClass.getSimpleName(),
+        features.size(),
+        (System.nanoTime() - startNanos) / 1_000_000
+    );
+    return Collections.unmodifiableList(features);
+  }
+
+}
@@ -0,0 +1,61 @@
+package com.github.ddemin.envrouter.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram with power-of-two buckets: bucket N contains durations in [2^(N-1), 2^N) ns.
+ * Percentiles are reported as upper bound of bucket, so they are accurate within factor of 2.
+ */
+class LatencyHistogram {
+
+  private static final int BUCKETS = Long.SIZE + 1;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sumNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+  LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  void record(long nanos) {
+    long positiveNanos = Math.max(0, nanos);
+    buckets[Long.SIZE - Long.numberOfLeadingZeros(positiveNanos)].increment();
+    count.increment();
+    sumNanos.add(positiveNanos);
+    maxNanos.accumulate(positiveNanos);
+  }
+
+  LatencySnapshot snapshot() {
+    long total = count.sum();
+    return new LatencySnapshot(
+        total,
+        total == 0 ? 0 : toMs(sumNanos.sum()) / total,
+        toMs(percentileNanos(total, 0.5)),
+        toMs(percentileNanos(total, 0.95)),
+        toMs(maxNanos.get())
+    );
+  }
+
+  private long percentileNanos(long total, double percentile) {
+    long rank = (long) Math.ceil(total * percentile);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS && total > 0; i++) {
+      seen += buckets[i].sum();
+      if (seen >= rank) {
+        return i == 0 ? 0 : i >= Long.SIZE - 1 ? Long.MAX_VALUE : 1L << i;
+      }
+    }
+    return maxNanos.get();
+  }
+
+  private static double toMs(long nanos) {
+    return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+}
@@ -0,0 +1,21 @@
+package com.github.ddemin.envrouter.metrics;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Summary of latency histogram. Percentiles are upper bounds of power-of-two buckets.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class LatencySnapshot {
+
+  private final long count;
+  private final double meanMs;
+  private final double p50Ms;
+  private final double p95Ms;
+  private final double maxMs;
+
+}
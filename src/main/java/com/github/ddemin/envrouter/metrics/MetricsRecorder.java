@@ -0,0 +1,27 @@
+package com.github.ddemin.envrouter.metrics;
+
+/**
+ * Receiver of routing metrics (e.g. adapter to Micrometer or Dropwizard registry). Implementations must be
+ * thread-safe and cheap, because they are called by routing threads.
+ */
+public interface MetricsRecorder {
+
+  /**
+   * Increment counter.
+   *
+   * @param metric name of metric
+   * @param envName name of environment (or key of environment queue)
+   * @param delta increment
+   */
+  void increment(String metric, String envName, long delta);
+
+  /**
+   * Record duration to histogram.
+   *
+   * @param metric name of metric
+   * @param envName name of environment
+   * @param nanos duration
+   */
+  void recordNanos(String metric, String envName, long nanos);
+
+}
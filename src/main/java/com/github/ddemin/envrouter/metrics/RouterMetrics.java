@@ -0,0 +1,242 @@
+package com.github.ddemin.envrouter.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Routing metrics: lock-free counters and latency histograms per environment, gauges that are computed on read.
+ * Metrics are published via MXBean (see OBJECT_NAME) and can be forwarded to other registries via MetricsRecorder.
+ */
+@Slf4j
+@UtilityClass
+public class RouterMetrics {
+
+  public static final String OBJECT_NAME = "com.github.ddemin.envrouter:type=RouterMetrics";
+
+  // Counters
+  public static final String LOCKS_ACQUIRED = "locks.acquired";
+  public static final String LOCKS_BATCHED = "locks.batched";
+  public static final String LOCKS_TIMEOUTS = "locks.timeouts";
+  public static final String LEASES_RECLAIMED = "leases.reclaimed";
+  public static final String ENTITIES_REENQUEUED = "entities.reenqueued";
+  public static final String SLOTS_BUSY_NANOS = "slots.busyNanos";
+  // Latencies
+  public static final String LOCK_WAIT = "lock.wait";
+  public static final String HEAVY_LOCK_DRAIN = "lock.drain";
+  public static final String ENVS_DISCOVERY = "envs.discovery";
+  // Gauges
+  public static final String SLOTS_BUSY = "slots.busy";
+  public static final String SLOTS_CAPACITY = "slots.capacity";
+  public static final String QUEUE_DEPTH = "queue.depth";
+
+  public static final String ALL_ENVS = "all";
+
+  private static final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> COUNTERS = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> LATENCIES
+      = new ConcurrentHashMap<>();
+  private static final Map<String, Supplier<Map<String, ? extends Number>>> GAUGES = new ConcurrentHashMap<>();
+  private static final List<MetricsRecorder> RECORDERS = new CopyOnWriteArrayList<>();
+  private static volatile long resetAtNanos = System.nanoTime();
+
+  static {
+    registerMxBean();
+  }
+
+  public static void increment(@NonNull String metric, @NonNull String envName) {
+    increment(metric, envName, 1);
+  }
+
+  /**
+   * Increment counter.
+   *
+   * @param metric name of metric
+   * @param envName name of environment
+   * @param delta increment
+   */
+  public static void increment(@NonNull String metric, @NonNull String envName, long delta) {
+    ConcurrentMap<String, LongAdder> byEnv = getOrCreate(COUNTERS, metric, key -> new ConcurrentHashMap<>());
+    getOrCreate(byEnv, envName, key -> new LongAdder()).add(delta);
+    for (MetricsRecorder recorder : RECORDERS) {
+      recorder.increment(metric, envName, delta);
+    }
+  }
+
+  /**
+   * Record duration to histogram.
+   *
+   * @param metric name of metric
+   * @param envName name of environment
+   * @param nanos duration
+   */
+  public static void recordNanos(@NonNull String metric, @NonNull String envName, long nanos) {
+    ConcurrentMap<String, LatencyHistogram> byEnv = getOrCreate(LATENCIES, metric, key -> new ConcurrentHashMap<>());
+    getOrCreate(byEnv, envName, key -> new LatencyHistogram()).record(nanos);
+    for (MetricsRecorder recorder : RECORDERS) {
+      recorder.recordNanos(metric, envName, nanos);
+    }
+  }
+
+  /**
+   * Register gauge that is computed on read.
+   *
+   * @param metric name of metric
+   * @param valuesByEnv supplier of values by environment name
+   */
+  public static void registerGauge(
+      @NonNull String metric,
+      @NonNull Supplier<Map<String, ? extends Number>> valuesByEnv
+  ) {
+    GAUGES.put(metric, valuesByEnv);
+  }
+
+  public static void addRecorder(@NonNull MetricsRecorder recorder) {
+    RECORDERS.add(recorder);
+  }
+
+  public static void removeRecorder(@NonNull MetricsRecorder recorder) {
+    RECORDERS.remove(recorder);
+  }
+
+  /**
+   * Returns value of counter.
+   *
+   * @param metric name of metric
+   * @param envName name of environment
+   * @return value or 0 if counter wasn't incremented yet
+   */
+  public static long getCounter(@NonNull String metric, @NonNull String envName) {
+    Map<String, LongAdder> byEnv = COUNTERS.get(metric);
+    LongAdder counter = byEnv == null ? null : byEnv.get(envName);
+    return counter == null ? 0 : counter.sum();
+  }
+
+  /**
+   * Returns summary of latencies.
+   *
+   * @param metric name of metric
+   * @param envName name of environment
+   * @return snapshot or null if nothing was recorded yet
+   */
+  public static LatencySnapshot getLatency(@NonNull String metric, @NonNull String envName) {
+    Map<String, LatencyHistogram> byEnv = LATENCIES.get(metric);
+    LatencyHistogram histogram = byEnv == null ? null : byEnv.get(envName);
+    return histogram == null ? null : histogram.snapshot();
+  }
+
+  static Map<String, Long> getCounters() {
+    Map<String, Long> values = new TreeMap<>();
+    COUNTERS.forEach(
+        (metric, byEnv) -> byEnv.forEach((env, counter) -> values.put(key(metric, env), counter.sum()))
+    );
+    return values;
+  }
+
+  /**
+   * Returns current values of all gauges.
+   *
+   * @return map of "metric[environment]" to value
+   */
+  public static Map<String, Long> getGauges() {
+    Map<String, Long> values = new TreeMap<>();
+    GAUGES.forEach(
+        (metric, supplier) -> supplier.get().forEach((env, value) -> values.put(key(metric, env), value.longValue()))
+    );
+    return values;
+  }
+
+  static Map<String, LatencySnapshot> getLatencies() {
+    Map<String, LatencySnapshot> values = new TreeMap<>();
+    LATENCIES.forEach(
+        (metric, byEnv) -> byEnv.forEach((env, histogram) -> values.put(key(metric, env), histogram.snapshot()))
+    );
+    return values;
+  }
+
+  static Map<String, Double> getSlotsUtilization() {
+    Map<String, Double> values = new TreeMap<>();
+    Supplier<Map<String, ? extends Number>> capacities = GAUGES.get(SLOTS_CAPACITY);
+    long elapsedNanos = Math.max(1, System.nanoTime() - resetAtNanos);
+    if (capacities != null) {
+      capacities.get().forEach(
+          (env, capacity) -> values.put(
+              env,
+              (double) getCounter(SLOTS_BUSY_NANOS, env) / (capacity.doubleValue() * elapsedNanos)
+          )
+      );
+    }
+    return values;
+  }
+
+  /**
+   * Reset all counters and histograms. Gauges and recorders are kept.
+   */
+  public static void reset() {
+    COUNTERS.clear();
+    LATENCIES.clear();
+    resetAtNanos = System.nanoTime();
+  }
+
+  private static String key(String metric, String envName) {
+    return metric + "[" + envName + "]";
+  }
+
+  // ConcurrentHashMap#computeIfAbsent of Java 8 locks bin even if key exists, so existing value is read first
+  private static <V> V getOrCreate(ConcurrentMap<String, V> map, String key, Function<String, V> factory) {
+    V value = map.get(key);
+    return value == null ? map.computeIfAbsent(key, factory) : value;
+  }
+
+  private static void registerMxBean() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new RouterMetricsBean(), new ObjectName(OBJECT_NAME));
+    } catch (InstanceAlreadyExistsException ex) {
+      log.debug("Router metrics MBean is already registered (another classloader?)");
+    } catch (JMException | SecurityException ex) {
+      log.warn("Router metrics MBean wasn't registered: {}", ex.toString());
+    }
+  }
+
+  private static class RouterMetricsBean implements RouterMetricsMxBean {
+
+    @Override
+    public Map<String, Long> getCounters() {
+      return RouterMetrics.getCounters();
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+      return RouterMetrics.getGauges();
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getLatencies() {
+      return RouterMetrics.getLatencies();
+    }
+
+    @Override
+    public Map<String, Double> getSlotsUtilization() {
+      return RouterMetrics.getSlotsUtilization();
+    }
+
+    @Override
+    public void reset() {
+      RouterMetrics.reset();
+    }
+
+  }
+
+}
@@ -0,0 +1,27 @@
+package com.github.ddemin.envrouter.metrics;
+
+import java.util.Map;
+import javax.management.MXBean;
+
+/**
+ * JMX view of routing metrics. Keys have format "metric[environment]".
+ */
+@MXBean
+public interface RouterMetricsMxBean {
+
+  Map<String, Long> getCounters();
+
+  Map<String, Long> getGauges();
+
+  Map<String, LatencySnapshot> getLatencies();
+
+  /**
+   * Returns share of slots time that was used by entities since the last reset (0..1).
+   *
+   * @return map of environment name to utilization
+   */
+  Map<String, Double> getSlotsUtilization();
+
+  void reset();
+
+}
@@ -2,9 +2,11 @@ package com.github.ddemin.envrouter.util;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -26,20 +28,13 @@ public class FileSystemUtils {
   public static Set<Path> getSubdirectories(URI pathToDirectory) {
     log.debug("Get names of all 1st-level subdirectories in: {}", pathToDirectory);
 
-    try (Stream<Path> paths = Files.walk(Paths.get(pathToDirectory), 1)) {
-      return paths
-          .filter(path -> Files.isDirectory(path))
-          .filter(path -> {
-            try {
-              return !Files.isSameFile(path, Paths.get(pathToDirectory));
-            } catch (IOException ex) {
-              throw new RuntimeException(ex);
-            }
-          })
-          .collect(Collectors.toSet());
+    Set<Path> subdirectories = new HashSet<>();
+    try (DirectoryStream<Path> paths = Files.newDirectoryStream(Paths.get(pathToDirectory), Files::isDirectory)) {
+      paths.forEach(subdirectories::add);
     } catch (IOException ex) {
       throw new RuntimeException(ex);
     }
+    return subdirectories;
   }
 
   /**
@@ -0,0 +1,229 @@
+package com.github.ddemin.envrouter.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import lombok.NonNull;
+
+/**
+ * Immutable chain of properties layers: value is looked up in own layer first, then in parent layers. Parent layers
+ * (e.g. common properties of all environments, system properties) are shared instead of being copied to each child.
+ * Reads don't take any monitor.
+ */
+public final class LayeredProperties {
+
+  private final Map<String, String> layer;
+  private final LayeredProperties parent;
+  // Flattened layers are computed once on demand, layers are immutable
+  private volatile Properties flattened;
+
+  private LayeredProperties(Map<String, String> layer, LayeredProperties parent) {
+    this.layer = layer;
+    this.parent = parent;
+  }
+
+  /**
+   * Create layer on top of parent layer.
+   *
+   * @param properties own properties of layer (are copied)
+   * @param parent parent layer or null
+   * @return new layer
+   */
+  public static LayeredProperties of(@NonNull Map<?, ?> properties, LayeredProperties parent) {
+    return new LayeredProperties(toStringMap(properties), parent);
+  }
+
+  /**
+   * Create root layer with snapshot of system properties.
+   *
+   * @return new layer
+   */
+  public static LayeredProperties ofSystemProperties() {
+    Properties systemProperties = System.getProperties();
+    Map<String, String> layer = new HashMap<>();
+    for (String key : systemProperties.stringPropertyNames()) {
+      String value = systemProperties.getProperty(key);
+      if (value != null) {
+        layer.put(key, value);
+      }
+    }
+    return new LayeredProperties(Collections.unmodifiableMap(layer), null);
+  }
+
+  /**
+   * Get value from the nearest layer that contains key.
+   *
+   * @param key name of property
+   * @return value or null
+   */
+  public String getProperty(@NonNull String key) {
+    for (LayeredProperties props = this; props != null; props = props.parent) {
+      String value = props.layer.get(key);
+      if (value != null) {
+        return value;
+      }
+    }
+    return null;
+  }
+
+  public String getProperty(@NonNull String key, String defaultValue) {
+    String value = getProperty(key);
+    return value == null ? defaultValue : value;
+  }
+
+  /**
+   * Create copy of this layer with additional properties that override existing ones. Parent layers are shared.
+   *
+   * @param properties additional properties
+   * @return new layer
+   */
+  public LayeredProperties with(@NonNull Map<?, ?> properties) {
+    Map<String, String> newLayer = new HashMap<>(layer);
+    newLayer.putAll(toStringMap(properties));
+    return new LayeredProperties(Collections.unmodifiableMap(newLayer), parent);
+  }
+
+  /**
+   * Create copy of this layer with other own properties. Parent layers are shared.
+   *
+   * @param properties new own properties
+   * @return new layer
+   */
+  public LayeredProperties replaceLayer(@NonNull Map<?, ?> properties) {
+    return new LayeredProperties(toStringMap(properties), parent);
+  }
+
+  /**
+   * Flatten all layers. Layers are flattened once, the same object is returned by the next calls.
+   *
+   * @return read-only Properties object, its changes throw UnsupportedOperationException
+   */
+  public Properties toProperties() {
+    Properties properties = flattened;
+    if (properties == null) {
+      properties = new ReadOnlyProperties(parent == null ? Collections.emptyMap() : parent.toProperties(), layer);
+      flattened = properties;
+    }
+    return properties;
+  }
+
+  private static Map<String, String> toStringMap(Map<?, ?> properties) {
+    Map<String, String> layer = new HashMap<>();
+    properties.forEach(
+        (key, value) -> {
+          if (key != null && value != null) {
+            layer.put(key.toString(), value.toString());
+          }
+        }
+    );
+    return Collections.unmodifiableMap(layer);
+  }
+
+  private static final class ReadOnlyProperties extends Properties {
+
+    private static final long serialVersionUID = 1L;
+
+    ReadOnlyProperties(Map<?, ?> parent, Map<String, String> layer) {
+      for (Map.Entry<?, ?> entry : parent.entrySet()) {
+        super.put(entry.getKey(), entry.getValue());
+      }
+      for (Map.Entry<String, String> entry : layer.entrySet()) {
+        super.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    @Override
+    public synchronized Object put(Object key, Object value) {
+      throw new UnsupportedOperationException("Properties of layers are read-only");
+    }
+
+    @Override
+    public synchronized Object remove(Object key) {
+      throw new UnsupportedOperationException("Properties of layers are read-only");
+    }
+
+    @Override
+    public synchronized boolean remove(Object key, Object value) {
+      throw new UnsupportedOperationException("Properties of layers are read-only");
+    }
+
+    @Override
+    public synchronized void putAll(Map<?, ?> map) {
+      throw new UnsupportedOperationException("Properties of layers are read-only");
+    }
+
+    @Override
+    public synchronized void clear() {
+      throw new UnsupportedOperationException("Properties of layers are read-only");
+    }
+
+    @Override
+    public synchronized Object putIfAbsent(Object key, Object value) {
+      throw new UnsupportedOperationException("Properties of layers are read-only");
+    }
+
+    @Override
+    public synchronized Object replace(Object key, Object value) {
+      throw new UnsupportedOperationException("Properties of layers are read-only");
+    }
+
+    @Override
+    public synchronized boolean replace(Object key, Object oldValue, Object newValue) {
+      throw new UnsupportedOperationException("Properties of layers are read-only");
+    }
+
+    @Override
+    public synchronized void replaceAll(BiFunction<? super Object, ? super Object, ?> function) {
+      throw new UnsupportedOperationException("Properties of layers are read-only");
+    }
+
+    @Override
+    public synchronized Object computeIfAbsent(Object key, Function<? super Object, ?> function) {
+      throw new UnsupportedOperationException("Properties of layers are read-only");
+    }
+
+    @Override
+    public synchronized Object computeIfPresent(
+        Object key,
+        BiFunction<? super Object, ? super Object, ?> function
+    ) {
+      throw new UnsupportedOperationException("Properties of layers are read-only");
+    }
+
+    @Override
+    public synchronized Object compute(Object key, BiFunction<? super Object, ? super Object, ?> function) {
+      throw new UnsupportedOperationException("Properties of layers are read-only");
+    }
+
+    @Override
+    public synchronized Object merge(
+        Object key,
+        Object value,
+        BiFunction<? super Object, ? super Object, ?> function
+    ) {
+      throw new UnsupportedOperationException("Properties of layers are read-only");
+    }
+
+    @Override
+    public Set<Object> keySet() {
+      return Collections.unmodifiableSet(super.keySet());
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+      return Collections.unmodifiableSet(super.entrySet());
+    }
+
+    @Override
+    public Collection<Object> values() {
+      return Collections.unmodifiableCollection(super.values());
+    }
+
+  }
+
+}
@@ -0,0 +1,141 @@
+package com.github.ddemin.envrouter.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.NonNull;
+
+/**
+ * Thread-safe prefix tree. Values can be replaced and removed, but nodes of keys are never removed. Each node counts
+ * values of its subtree, so all lookups are O(key length). Writes are serialized, reads are lock-free.
+ *
+ * @param <V> type of values
+ */
+public class PrefixTrie<V> {
+
+  private final Node<V> root = new Node<>();
+  // Not a monitor, so virtual thread doesn't pin carrier thread
+  private final ReentrantLock writeLock = new ReentrantLock();
+
+  /**
+   * Put value by key.
+   *
+   * @param key key
+   * @param value value
+   * @return previous value or null
+   */
+  public V put(@NonNull String key, @NonNull V value) {
+    writeLock.lock();
+    try {
+      Node<V> node = root;
+      for (int i = 0; i < key.length(); i++) {
+        node = node.children.computeIfAbsent(key.charAt(i), ch -> new Node<>());
+      }
+      V previous = node.value;
+      node.value = value;
+      if (previous == null) {
+        changeValuesCount(key, 1);
+      }
+      return previous;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Remove value by key.
+   *
+   * @param key key
+   * @return previous value or null
+   */
+  public V remove(@NonNull String key) {
+    writeLock.lock();
+    try {
+      Node<V> node = find(key);
+      if (node == null || node.value == null) {
+        return null;
+      }
+      V previous = node.value;
+      node.value = null;
+      changeValuesCount(key, -1);
+      return previous;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Get value by exact key.
+   *
+   * @param key key
+   * @return value or null
+   */
+  public V get(@NonNull String key) {
+    Node<V> node = find(key);
+    return node == null ? null : node.value;
+  }
+
+  /**
+   * Get values of all keys that are prefixes of string (including string itself).
+   *
+   * @param str some string
+   * @return values, the longest key goes first
+   */
+  public List<V> getByPrefixesOf(@NonNull String str) {
+    List<V> values = new ArrayList<>();
+    Node<V> node = root;
+    if (node.value != null) {
+      values.add(node.value);
+    }
+    for (int i = 0; i < str.length() && node != null; i++) {
+      node = node.children.get(str.charAt(i));
+      if (node != null && node.value != null) {
+        values.add(node.value);
+      }
+    }
+    Collections.reverse(values);
+    return values;
+  }
+
+  /**
+   * Check that trie contains at least one key that starts with prefix.
+   *
+   * @param prefix prefix
+   * @return true if some key starts with prefix
+   */
+  public boolean containsKeyStartingWith(@NonNull String prefix) {
+    Node<V> node = find(prefix);
+    return node != null && node.valuesCount > 0;
+  }
+
+  // Nodes of key must exist
+  private void changeValuesCount(String key, int delta) {
+    Node<V> node = root;
+    node.valuesCount += delta;
+    for (int i = 0; i < key.length(); i++) {
+      node = node.children.get(key.charAt(i));
+      node.valuesCount += delta;
+    }
+  }
+
+  private Node<V> find(String key) {
+    Node<V> node = root;
+    for (int i = 0; i < key.length() && node != null; i++) {
+      node = node.children.get(key.charAt(i));
+    }
+    return node;
+  }
+
+  private static class Node<V> {
+
+    private final Map<Character, Node<V>> children = new ConcurrentHashMap<>();
+    private volatile V value;
+    // Values of node and its descendants, changed under write lock only
+    private volatile int valuesCount;
+
+  }
+
+}
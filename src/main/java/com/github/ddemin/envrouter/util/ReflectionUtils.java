@@ -37,4 +37,21 @@ public class ReflectionUtils {
     memberValues.put(key, newValue);
   }
 
+  /**
+   * Read value of (private) field.
+   * @param target object that has field
+   * @param fieldName name of field declared in class of object
+   * @param <V> type of field
+   * @return value of field
+   */
+  public static <V> V readField(Object target, String fieldName) {
+    try {
+      Field f = target.getClass().getDeclaredField(fieldName);
+      f.setAccessible(true);
+      return (V) f.get(target);
+    } catch (NoSuchFieldException | SecurityException | IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
 }
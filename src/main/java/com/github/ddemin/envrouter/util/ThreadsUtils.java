@@ -0,0 +1,64 @@
+package com.github.ddemin.envrouter.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+@UtilityClass
+public class ThreadsUtils {
+
+  // Thread.ofVirtual() and methods of Thread.Builder (Java 21+), null - virtual threads aren't supported by JVM
+  private static final Method OF_VIRTUAL;
+  private static final Method BUILDER_NAME;
+  private static final Method BUILDER_FACTORY;
+
+  static {
+    Method ofVirtual = null;
+    Method builderName = null;
+    Method builderFactory = null;
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      builderName = builderClass.getMethod("name", String.class, long.class);
+      builderFactory = builderClass.getMethod("factory");
+    } catch (ClassNotFoundException | NoSuchMethodException ex) {
+      log.debug("Virtual threads aren't supported by JVM");
+    }
+    OF_VIRTUAL = ofVirtual;
+    BUILDER_NAME = builderName;
+    BUILDER_FACTORY = builderFactory;
+  }
+
+  public static boolean isVirtualThreadsSupported() {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * Creates factory of worker threads named as prefix + number (from 0).
+   * Virtual threads don't occupy platform thread while they are blocked (e.g. by I/O or waiting for environment), so
+   * count of workers can be as large as total capacity of environments.
+   *
+   * @param namePrefix prefix of threads names
+   * @param virtual create virtual threads if JVM supports them (Java 21+), otherwise daemon platform threads
+   * @return factory of threads
+   */
+  public static ThreadFactory workersFactory(@NonNull String namePrefix, boolean virtual) {
+    if (virtual) {
+      if (isVirtualThreadsSupported()) {
+        try {
+          Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 0L);
+          return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+      log.warn("Virtual threads aren't supported by JVM (Java 21+ is required), platform threads are used");
+    }
+    return new ThreadFactoryBuilder().setNameFormat(namePrefix + "%d").setDaemon(true).build();
+  }
+
+}
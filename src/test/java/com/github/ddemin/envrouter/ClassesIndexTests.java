@@ -0,0 +1,89 @@
+package com.github.ddemin.envrouter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+
+import com.github.ddemin.envrouter.base.EntityDurationsStore;
+import com.github.ddemin.envrouter.base.FileDurationsStore;
+import com.github.ddemin.envrouter.base.InMemoryDurationsStore;
+import com.github.ddemin.envrouter.cucumber2.ClassesIndex;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class ClassesIndexTests extends UnitTestsBase {
+
+  private static final String PACKAGE = "com.github.ddemin.envrouter.base";
+
+  private Path indexFile;
+
+  @BeforeMethod
+  public void createFile() throws IOException {
+    indexFile = Files.createTempFile("classes", ".index");
+    Files.delete(indexFile);
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void deleteFile() throws IOException {
+    Files.deleteIfExists(indexFile);
+  }
+
+  public void checkFindingOfClasses() {
+    ClassesIndex index = new ClassesIndex(getClass().getClassLoader(), null, EntityDurationsStore.class);
+
+    assertThat(
+        index.find(Collections.singletonList(PACKAGE), EntityDurationsStore.class),
+        containsInAnyOrder(InMemoryDurationsStore.class, FileDurationsStore.class)
+    );
+    assertThat(
+        "Class can be configured by full name",
+        index.find(Collections.singletonList(InMemoryDurationsStore.class.getName()), EntityDurationsStore.class),
+        contains(InMemoryDurationsStore.class)
+    );
+    assertThat(
+        index.find(Collections.singletonList("com.github.ddemin.envrouter.metrics"), EntityDurationsStore.class),
+        empty()
+    );
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void checkNotIndexedType() {
+    new ClassesIndex(getClass().getClassLoader(), null, EntityDurationsStore.class)
+        .find(Collections.singletonList(PACKAGE), Runnable.class);
+  }
+
+  public void checkPersistedIndex() throws IOException {
+    List<String> packages = Arrays.asList(PACKAGE, InMemoryDurationsStore.class.getName());
+    List<Class<? extends EntityDurationsStore>> found
+        = new ClassesIndex(getClass().getClassLoader(), indexFile, EntityDurationsStore.class)
+        .find(packages, EntityDurationsStore.class);
+
+    String persisted = new String(Files.readAllBytes(indexFile), StandardCharsets.UTF_8);
+    assertThat(persisted, containsString(FileDurationsStore.class.getName()));
+    assertThat(
+        new ClassesIndex(getClass().getClassLoader(), indexFile, EntityDurationsStore.class)
+            .find(packages, EntityDurationsStore.class),
+        contains(found.toArray())
+    );
+
+    Files.write(indexFile, persisted.replaceAll("fingerprint=\\w+", "fingerprint=changed").getBytes());
+    assertThat(
+        "Index must be rebuilt if classpath was changed",
+        new ClassesIndex(getClass().getClassLoader(), indexFile, EntityDurationsStore.class)
+            .find(packages, EntityDurationsStore.class),
+        contains(found.toArray())
+    );
+  }
+
+}
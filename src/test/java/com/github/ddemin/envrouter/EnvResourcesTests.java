@@ -0,0 +1,180 @@
+package com.github.ddemin.envrouter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+import com.github.ddemin.envrouter.base.EnvResources;
+import com.github.ddemin.envrouter.base.Environment;
+import com.github.ddemin.envrouter.base.EnvironmentLock;
+import com.github.ddemin.envrouter.base.EnvsLocksController;
+import com.github.ddemin.envrouter.base.TestEntitiesQueues;
+import com.github.ddemin.envrouter.base.TestEntityWrapper;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit", singleThreaded = true)
+public class EnvResourcesTests extends UnitTestsBase {
+
+  private static final String ENV1 = "test1";
+  private static final String CLIENT = "client";
+
+  private final AtomicInteger createdClients = new AtomicInteger();
+  private final List<Object> closedClients = new CopyOnWriteArrayList<>();
+
+  private Environment env1;
+
+  @BeforeMethod
+  public void registerClient() {
+    EnvsLocksController.reinit();
+    EnvsLocksController.resetLockingOfAll();
+    env1 = EnvsLocksController.getByName(ENV1);
+    createdClients.set(0);
+    closedClients.clear();
+    EnvResources.register(
+        CLIENT,
+        env -> env.getName() + "-client-" + createdClients.incrementAndGet(),
+        closedClients::add
+    );
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void unregisterClient() {
+    EnvResources.unregister(CLIENT);
+  }
+
+  public void checkResourceIsReusedByNextLock() {
+    EnvironmentLock<TestEntityWrapper<String>> lock = lock(new TestEntityWrapper<>("first", ENV1, 1));
+    String client = EnvResources.get(CLIENT);
+    assertThat(client, equalTo("test1-client-1"));
+    assertThat("Resource must be kept by lock", EnvResources.get(CLIENT), sameInstance(client));
+    assertThat(EnvResources.idleResources(CLIENT, env1), equalTo(0));
+    EnvsLocksController.release(lock);
+    assertThat(EnvResources.idleResources(CLIENT, env1), equalTo(1));
+
+    lock = lock(new TestEntityWrapper<>("second", ENV1, 2));
+    assertThat("Resource must be reused", EnvResources.get(CLIENT), sameInstance(client));
+    EnvsLocksController.release(lock);
+    assertThat(createdClients.get(), equalTo(1));
+    assertThat(closedClients.isEmpty(), is(true));
+  }
+
+  public void checkPoolKeepsNotMoreThanCapacity() {
+    EnvironmentLock<TestEntityWrapper<String>> lock = lock(new TestEntityWrapper<>("first", ENV1, 1));
+    String client = EnvResources.get(CLIENT);
+    // Pool is filled while resource is borrowed
+    EnvResources.prewarm(CLIENT);
+    assertThat(EnvResources.idleResources(CLIENT, env1), equalTo(env1.getThreadsMax()));
+
+    EnvsLocksController.release(lock);
+    assertThat(EnvResources.idleResources(CLIENT, env1), equalTo(env1.getThreadsMax()));
+    assertThat("Excess resource must be closed", closedClients, equalTo(Collections.singletonList(client)));
+  }
+
+  public void checkResourcesOfReclaimedLockAreClosed() {
+    TestEntityWrapper<String> wrpEnv1Hung = new TestEntityWrapper<>("hung", ENV1, 1);
+    wrpEnv1Hung.setTimeoutMs(200);
+    EnvironmentLock<TestEntityWrapper<String>> lock = lock(wrpEnv1Hung);
+    String client = EnvResources.get(CLIENT);
+    try {
+      // Hung entity
+      Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+    } catch (InterruptedException ex) {
+      EnvsLocksController.release(lock);
+    }
+
+    assertThat("Lock must be reclaimed by watchdog", lock.isReclaimed(), is(true));
+    assertThat(closedClients, equalTo(Collections.singletonList(client)));
+    assertThat(EnvResources.idleResources(CLIENT, env1), equalTo(0));
+  }
+
+  public void checkPrewarmingUpToCapacity() throws IllegalAccessException {
+    changeRouterConfigConstants("ENV_THREADS_MAX", 3);
+    EnvsLocksController.reinit();
+    env1 = EnvsLocksController.getByName(ENV1);
+
+    EnvResources.prewarm(CLIENT);
+    assertThat(EnvResources.idleResources(CLIENT, env1), equalTo(3));
+    EnvResources.prewarm(CLIENT);
+    assertThat("Prewarmed pool must not grow", EnvResources.idleResources(CLIENT, env1), equalTo(3));
+
+    EnvironmentLock<TestEntityWrapper<String>> lock = lock(new TestEntityWrapper<>("first", ENV1, 1));
+    EnvResources.get(CLIENT);
+    assertThat(EnvResources.idleResources(CLIENT, env1), equalTo(2));
+    EnvsLocksController.release(lock);
+    assertThat(createdClients.get(), equalTo(3 * EnvsLocksController.getAll().size()));
+  }
+
+  public void checkPrewarmingFailureIsIsolatedByEnvironment() {
+    EnvResources.register(
+        CLIENT,
+        env -> {
+          if (env.getName().equals(ENV1)) {
+            throw new IllegalStateException("Environment is down");
+          }
+          return env.getName() + "-client-" + createdClients.incrementAndGet();
+        },
+        closedClients::add
+    );
+
+    EnvResources.prewarm(CLIENT);
+    assertThat(EnvResources.idleResources(CLIENT, env1), equalTo(0));
+    for (Environment env : EnvsLocksController.getAll()) {
+      if (env != env1) {
+        assertThat(EnvResources.idleResources(CLIENT, env), equalTo(env.getThreadsMax()));
+      }
+    }
+  }
+
+  public void checkIdleResourcesAreClosedOnUnregistration() {
+    EnvironmentLock<TestEntityWrapper<String>> lock = lock(new TestEntityWrapper<>("first", ENV1, 1));
+    String client = EnvResources.get(CLIENT);
+    EnvsLocksController.release(lock);
+
+    EnvResources.unregister(CLIENT);
+    assertThat(closedClients, equalTo(Collections.singletonList(client)));
+    assertThat(EnvResources.idleResources(CLIENT, env1), equalTo(0));
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void checkResourceCantBeRequestedWithoutLock() {
+    EnvironmentLock<TestEntityWrapper<String>> lock = lock(new TestEntityWrapper<>("first", ENV1, 1));
+    EnvsLocksController.release(lock);
+    EnvResources.get(CLIENT);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void checkResourceCantBeRequestedByReleasedLock() {
+    EnvironmentLock<TestEntityWrapper<String>> lock = lock(new TestEntityWrapper<>("first", ENV1, 1));
+    EnvsLocksController.release(lock);
+    try {
+      EnvResources.get(lock, CLIENT);
+    } finally {
+      assertThat("Resource must not be borrowed by released lock", createdClients.get(), equalTo(0));
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void checkUnregisteredResourceCantBeRequested() {
+    EnvironmentLock<TestEntityWrapper<String>> lock = lock(new TestEntityWrapper<>("first", ENV1, 1));
+    try {
+      EnvResources.get("unknown");
+    } finally {
+      EnvsLocksController.release(lock);
+    }
+  }
+
+  private static EnvironmentLock<TestEntityWrapper<String>> lock(TestEntityWrapper<String> wrapper) {
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.add(wrapper);
+    return EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+  }
+
+}
@@ -2,13 +2,22 @@ package com.github.ddemin.envrouter;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.hamcrest.collection.IsMapContaining.hasKey;
 import static org.hamcrest.core.IsNot.not;
+import static org.testng.Assert.fail;
 
+import com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys;
 import com.github.ddemin.envrouter.base.Environment;
+import com.github.ddemin.envrouter.base.EnvironmentsUtils;
+import com.github.ddemin.envrouter.util.LayeredProperties;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
 import org.testng.annotations.Test;
 
 @Test(groups = "unit")
@@ -43,12 +52,37 @@ public class EnvironmentTests extends UnitTestsBase {
     );
   }
 
+  @Test
+  public void checkDiscovery() {
+    System.setProperty("some.global.prop", "123");
+    Set<Environment> envs = EnvironmentsUtils.getAllEnvironmentsFromDirectory(RouterConfig.ENVS_DIRECTORY);
+    assertThat(
+        envs.stream().map(Environment::getName).collect(Collectors.toList()),
+        containsInAnyOrder(ENV1, ENV2, "test3")
+    );
+    envs.forEach(
+        env -> {
+          assertThat(
+              "Discovered environment must have system properties",
+              env.getProperties(),
+              hasKey("some.global.prop")
+          );
+          assertThat(
+              "Discovered environment must have properties from files that stored in environments directory",
+              env.getProperties(),
+              hasKey("common.property")
+          );
+        }
+    );
+  }
+
   @Test
   public void checkEqualsMethod() {
     Environment env1 = new Environment(Paths.get("src/test/resources", RouterConfig.ENVS_DIRECTORY, ENV1));
     Environment env11 = new Environment(Paths.get("src/test/resources", RouterConfig.ENVS_DIRECTORY, ENV1));
     Environment env2 = new Environment(Paths.get("src/test/resources", RouterConfig.ENVS_DIRECTORY, ENV2));
     assertThat(env1, equalTo(env11));
+    assertThat(env1.hashCode(), equalTo(env11.hashCode()));
     assertThat(env1, not(equalTo(env2)));
   }
 
@@ -61,6 +95,68 @@ public class EnvironmentTests extends UnitTestsBase {
     assertThat(env.getProperties(), hasKey("test"));
   }
 
+  @Test
+  public void checkPropertiesLayers() {
+    LayeredProperties system = LayeredProperties.of(Collections.singletonMap("prop", "system"), null);
+    LayeredProperties common = LayeredProperties.of(Collections.singletonMap("prop", "common"), system);
+    LayeredProperties env = LayeredProperties.of(Collections.singletonMap("other", "env"), common);
+    assertThat("Value of the nearest layer must be used", env.getProperty("prop"), equalTo("common"));
+    assertThat(env.with(Collections.singletonMap("prop", "env")).getProperty("prop"), equalTo("env"));
+    assertThat("Layer must be immutable", env.getProperty("prop"), equalTo("common"));
+    assertThat(env.getProperty("absent", "default"), equalTo("default"));
+    assertThat(env.toProperties().getProperty("prop"), equalTo("common"));
+    assertThat(env.toProperties().getProperty("other"), equalTo("env"));
+  }
+
+  @Test
+  public void checkPropertiesViewIsReadOnly() {
+    System.setProperty("some.global.prop", "123");
+    Environment env = new Environment(Paths.get("src/test/resources", RouterConfig.ENVS_DIRECTORY, ENV1));
+    Properties properties = env.getProperties();
+    assertThat("Flattened properties must be reused", env.getProperties(), sameInstance(properties));
+    for (Runnable change : new Runnable[]{
+        () -> properties.remove("test.step1"),
+        () -> properties.setProperty("test.step1", "changed"),
+        () -> properties.keySet().remove("test.step1")
+    }) {
+      try {
+        change.run();
+        fail("Change of properties must be rejected");
+      } catch (UnsupportedOperationException ex) {
+        assertThat(env.getProperty("test.step1"), equalTo("step 1 for env 1"));
+      }
+    }
+
+    env.withProperties(Collections.singletonMap("some.global.prop", "456"));
+    assertThat("Added properties must override system ones", env.getProperty("some.global.prop"), equalTo("456"));
+    assertThat(env.getProperties().getProperty("some.global.prop"), equalTo("456"));
+    assertThat("Snapshot must not be changed", properties.getProperty("some.global.prop"), equalTo("123"));
+  }
+
+  @Test
+  public void checkThreadsMax() throws IllegalAccessException {
+    changeRouterConfigConstants("ENV_THREADS_MAX", 3);
+    Environment env = new Environment(Paths.get("src/test/resources", RouterConfig.ENVS_DIRECTORY, ENV1));
+    assertThat("Global value must be used by default", env.getThreadsMax(), equalTo(3));
+
+    Properties properties = new Properties();
+    properties.put(RouterConfigKeys.ENV_THREADS_MAX_KEY, "8");
+    env.withProperties(properties);
+    assertThat(env.getThreadsMax(), equalTo(8));
+  }
+
+  @Test(
+      expectedExceptions = IllegalArgumentException.class,
+      expectedExceptionsMessageRegExp = "Environment test1 has invalid router.threadsPerEnv: 0"
+  )
+  public void catchInvalidThreadsMax() {
+    Environment env = new Environment(Paths.get("src/test/resources", RouterConfig.ENVS_DIRECTORY, ENV1));
+    Properties properties = new Properties();
+    properties.put(RouterConfigKeys.ENV_THREADS_MAX_KEY, "0");
+    env.withProperties(properties);
+    env.getThreadsMax();
+  }
+
   @SuppressFBWarnings
   @Test(expectedExceptions = NullPointerException.class, expectedExceptionsMessageRegExp = "pathToPropertiesDir")
   public void catchNpe() {
@@ -0,0 +1,87 @@
+package com.github.ddemin.envrouter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import com.github.ddemin.envrouter.base.Environment;
+import com.github.ddemin.envrouter.base.EnvironmentsRegistry;
+import java.nio.file.Paths;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class EnvironmentsRegistryTests extends UnitTestsBase {
+
+  private static final String ENV1 = "test1";
+  private static final String ENV2 = "test2";
+
+  public void checkIdsAndLookup() {
+    Environment env1 = new Environment(Paths.get("src/test/resources", RouterConfig.ENVS_DIRECTORY, ENV1));
+    Environment env2 = new Environment(Paths.get("src/test/resources", RouterConfig.ENVS_DIRECTORY, ENV2));
+    EnvironmentsRegistry registry = new EnvironmentsRegistry();
+
+    assertThat(registry.register(env1), is(0));
+    assertThat(registry.register(env2), is(1));
+    assertThat(
+        "Registration of the same environment must return the same id",
+        registry.register(new Environment(Paths.get("src/test/resources", RouterConfig.ENVS_DIRECTORY, ENV2))),
+        is(1)
+    );
+
+    assertThat(registry.getAll(), contains(env1, env2));
+    assertThat(registry.getById(1), equalTo(env2));
+    assertThat(registry.getById(2), nullValue());
+    assertThat(registry.getByName("TEST1"), equalTo(env1));
+    assertThat(registry.getByName("test"), nullValue());
+  }
+
+  public void checkPrefixLookup() {
+    EnvironmentsRegistry registry = new EnvironmentsRegistry();
+    registry.register(new Environment(Paths.get("src/test/resources", RouterConfig.ENVS_DIRECTORY, ENV1)));
+
+    assertThat(registry.containsPrefix("test"), is(true));
+    assertThat(registry.containsPrefix("test1"), is(true));
+    assertThat(registry.containsPrefix("test2"), is(false));
+    assertThat(registry.containsPrefix("test11"), is(false));
+  }
+
+  public void checkPrefixLookupAfterUnregistration() {
+    Environment env1 = new Environment(Paths.get("src/test/resources", RouterConfig.ENVS_DIRECTORY, ENV1));
+    Environment env2 = new Environment(Paths.get("src/test/resources", RouterConfig.ENVS_DIRECTORY, ENV2));
+    EnvironmentsRegistry registry = new EnvironmentsRegistry();
+    registry.register(env1);
+    registry.register(env2);
+
+    registry.unregister(env1);
+    assertThat(registry.containsPrefix("test1"), is(false));
+    assertThat(registry.containsPrefix("test"), is(true));
+    registry.unregister(env2);
+    assertThat("Nodes of removed keys must not match prefix", registry.containsPrefix("test"), is(false));
+    assertThat(registry.containsPrefix(""), is(false));
+
+    registry.register(env1);
+    assertThat(registry.containsPrefix("test"), is(true));
+  }
+
+  public void checkChangesOfCopyDontAffectOriginal() {
+    Environment env1 = new Environment(Paths.get("src/test/resources", RouterConfig.ENVS_DIRECTORY, ENV1));
+    Environment env2 = new Environment(Paths.get("src/test/resources", RouterConfig.ENVS_DIRECTORY, ENV2));
+    EnvironmentsRegistry registry = new EnvironmentsRegistry();
+    registry.register(env1);
+
+    EnvironmentsRegistry copy = registry.copy();
+    assertThat(copy.register(env2), is(1));
+    copy.unregister(env1);
+    assertThat(copy.getAll(), contains(env2));
+    assertThat(copy.containsPrefix("test1"), is(false));
+    assertThat("Id of unregistered environment must not be reused", copy.getById(0), equalTo(env1));
+
+    assertThat(registry.getAll(), contains(env1));
+    assertThat(registry.getByName(ENV2), nullValue());
+    assertThat(registry.containsPrefix("test2"), is(false));
+    assertThat(registry.size(), is(1));
+  }
+
+}
@@ -0,0 +1,121 @@
+package com.github.ddemin.envrouter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import com.github.ddemin.envrouter.base.Environment;
+import com.github.ddemin.envrouter.base.EnvironmentLock;
+import com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus;
+import com.github.ddemin.envrouter.base.EnvsLocksController;
+import com.github.ddemin.envrouter.base.TestEntitiesQueues;
+import com.github.ddemin.envrouter.base.TestEntityWrapper;
+import com.github.ddemin.envrouter.metrics.RouterMetrics;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit", singleThreaded = true)
+public class EnvsLocksControllerBatchingTests extends UnitTestsBase {
+
+  private static final String ENV1 = "test1";
+
+  private TestEntityWrapper<String> wrpEnv1First = new TestEntityWrapper<>("first", ENV1, 1);
+  private TestEntityWrapper<String> wrpEnv1Second = new TestEntityWrapper<>("second", ENV1, 2);
+  private TestEntityWrapper<String> wrpEnv1Third = new TestEntityWrapper<>("third", ENV1, 3);
+  private TestEntityWrapper<String> wrpEnv1HardLock = new TestEntityWrapper<>("hard", ENV1, 4, true);
+
+  private Environment env1;
+
+  @BeforeMethod
+  public void releaseEnvs() {
+    EnvsLocksController.reinit();
+    EnvsLocksController.resetLockingOfAll();
+    env1 = EnvsLocksController.getByName(ENV1);
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void releaseRetainedSlots() {
+    // Kept slots are released by search without compatible entities
+    EnvsLocksController.findUntestedEntityAndLockEnv(new TestEntitiesQueues<TestEntityWrapper<String>>());
+  }
+
+  public void checkBatchOfEntities() throws IllegalAccessException {
+    changeRouterConfigConstants("LOCK_BATCH_SIZE", 2);
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.add(wrpEnv1First);
+    queues.add(wrpEnv1Second);
+    queues.add(wrpEnv1Third);
+    long batchedBefore = RouterMetrics.getCounter(RouterMetrics.LOCKS_BATCHED, ENV1);
+
+    EnvironmentLock<TestEntityWrapper<String>> lock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+    assertThat(lock.getTargetEntity(), equalTo(wrpEnv1First));
+    EnvsLocksController.releaseOrRetain(lock, queues);
+    assertThat("Slots must be kept for the next entity", EnvsLocksController.isAvailable(env1), is(false));
+    assertThat(lock.isReleased(), is(false));
+
+    EnvironmentLock<TestEntityWrapper<String>> batchLock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+    assertThat(batchLock.getLockStatus(), equalTo(LockStatus.SUCCESS_LOCKED));
+    assertThat(batchLock.getTargetEntity(), equalTo(wrpEnv1Second));
+    assertThat(lock.isReleased(), is(true));
+    assertThat(RouterMetrics.getCounter(RouterMetrics.LOCKS_BATCHED, ENV1), equalTo(batchedBefore + 1));
+
+    EnvsLocksController.releaseOrRetain(batchLock, queues);
+    assertThat("Slots must be released at the end of batch", EnvsLocksController.isAvailable(env1), is(true));
+
+    lock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+    assertThat(lock.getTargetEntity(), equalTo(wrpEnv1Third));
+    EnvsLocksController.release(lock);
+    assertThat(EnvsLocksController.isAvailable(env1), is(true));
+  }
+
+  public void checkIncompatibleEntityEndsBatch() throws IllegalAccessException {
+    changeRouterConfigConstants("LOCK_BATCH_SIZE", 10);
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.add(wrpEnv1First);
+    queues.add(wrpEnv1HardLock);
+
+    EnvironmentLock<TestEntityWrapper<String>> lock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+    EnvsLocksController.releaseOrRetain(lock, queues);
+    assertThat("Slots must be released without compatible entity", EnvsLocksController.isAvailable(env1), is(true));
+
+    EnvironmentLock<TestEntityWrapper<String>> hardLock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+    assertThat(lock.isReleased(), is(true));
+    assertThat(hardLock.getLockStatus(), equalTo(LockStatus.SUCCESS_HARD_LOCKED));
+    assertThat(hardLock.getTargetEntity(), equalTo(wrpEnv1HardLock));
+    EnvsLocksController.release(hardLock);
+    assertThat(EnvsLocksController.isAvailable(env1), is(true));
+  }
+
+  public void checkIdleSlotsAreReleased() throws Exception {
+    changeRouterConfigConstants("LOCK_BATCH_SIZE", 10);
+    changeRouterConfigConstants("LOCK_BATCH_IDLE_MS", 100L);
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.add(wrpEnv1First);
+    queues.add(wrpEnv1Second);
+
+    EnvironmentLock<TestEntityWrapper<String>> lock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+    EnvsLocksController.releaseOrRetain(lock, queues);
+    assertThat(EnvsLocksController.isAvailable(env1), is(false));
+
+    Thread.sleep(1000);
+    assertThat("Unused slots must be released after idle timeout", EnvsLocksController.isAvailable(env1), is(true));
+
+    EnvironmentLock<TestEntityWrapper<String>> nextLock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+    assertThat(nextLock.getLockStatus(), equalTo(LockStatus.SUCCESS_LOCKED));
+    assertThat(nextLock.getTargetEntity(), equalTo(wrpEnv1Second));
+    EnvsLocksController.release(nextLock);
+    assertThat(EnvsLocksController.isAvailable(env1), is(true));
+  }
+
+  public void checkBatchingIsDisabledByDefault() {
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.add(wrpEnv1First);
+
+    EnvironmentLock<TestEntityWrapper<String>> lock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+    EnvsLocksController.releaseOrRetain(lock, queues);
+    assertThat(lock.isReleased(), is(true));
+    assertThat(EnvsLocksController.isAvailable(env1), is(true));
+  }
+
+}
@@ -1,17 +1,29 @@
 package com.github.ddemin.envrouter;
 
+import static com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus.FAILURE_INTERRUPTED;
 import static com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus.FAILURE_TIMEOUT;
 import static com.github.ddemin.envrouter.base.TestEntityWrapper.ANY_ENV;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.MatcherAssert.assertThat;
 
+import com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys;
+import com.github.ddemin.envrouter.base.Environment;
 import com.github.ddemin.envrouter.base.EnvironmentLock;
 import com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus;
 import com.github.ddemin.envrouter.base.EnvsLocksController;
 import com.github.ddemin.envrouter.base.TestEntitiesQueues;
 import com.github.ddemin.envrouter.base.TestEntityWrapper;
-import org.awaitility.core.ConditionTimeoutException;
+import com.github.ddemin.envrouter.metrics.RouterMetrics;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.lang3.reflect.FieldUtils;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -144,6 +156,248 @@ public class EnvsLocksControllerFindingTests extends UnitTestsBase {
     );
   }
 
+  public void checkWaitingThreadIsWokenUpByRelease() throws Exception {
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.add(wrpEnv2P1);
+
+    EnvsLocksController.lock(EnvsLocksController.getByName(ENV2));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      long start = System.nanoTime();
+      Future<EnvironmentLock<TestEntityWrapper<String>>> futureLock = executor.submit(
+          () -> EnvsLocksController.findUntestedEntityAndLockEnv(queues)
+      );
+      Thread.sleep(100);
+      EnvsLocksController.release(EnvsLocksController.getByName(ENV2));
+
+      EnvironmentLock<TestEntityWrapper<String>> lock = futureLock.get(5, TimeUnit.SECONDS);
+      assertThat(
+          lock.getLockStatus(),
+          equalTo(LockStatus.SUCCESS_LOCKED)
+      );
+      assertThat(
+          "Waiting thread must be woken up by release, not by polling",
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+          lessThan(500L)
+      );
+      EnvsLocksController.release(lock.getEnvironment());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void checkReclaimingOfExpiredLease() throws Exception {
+    Environment env1 = EnvsLocksController.getByName(ENV1);
+    TestEntityWrapper<String> wrpEnv1Hung = new TestEntityWrapper<>("hung", ENV1, 1);
+    wrpEnv1Hung.setTimeoutMs(200);
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.add(wrpEnv1Hung);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<EnvironmentLock<TestEntityWrapper<String>>> futureLock = executor.submit(
+          () -> {
+            EnvironmentLock<TestEntityWrapper<String>> lock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+            try {
+              // Hung entity
+              Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException ex) {
+              EnvsLocksController.release(lock);
+            }
+            return lock;
+          }
+      );
+
+      EnvironmentLock<TestEntityWrapper<String>> lock = futureLock.get(5, TimeUnit.SECONDS);
+      assertThat(lock.getLockStatus(), equalTo(LockStatus.SUCCESS_LOCKED));
+      assertThat("Lock must be reclaimed by watchdog", lock.isReclaimed(), is(true));
+      assertThat(
+          EnvsLocksController.getExpiredLeaseEvents().stream()
+              .anyMatch(event -> event.getEnvironmentName().equals(ENV1) && event.getEntity().startsWith("hung")),
+          is(true)
+      );
+      assertThat("Reclaimed environment must be free", EnvsLocksController.lock(env1), is(true));
+      EnvsLocksController.release(lock);
+      assertThat("Late release by owner must be ignored", EnvsLocksController.isAvailable(env1), is(false));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void checkReleaseConcurrentWithExpiryDoesntInterruptOwner() throws Exception {
+    Environment env1 = EnvsLocksController.getByName(ENV1);
+    TestEntityWrapper<String> wrpEnv1Watched = new TestEntityWrapper<>("watched", ENV1, 1);
+    wrpEnv1Watched.setTimeoutMs(TimeUnit.MINUTES.toMillis(1));
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.add(wrpEnv1Watched);
+    EnvironmentLock<TestEntityWrapper<String>> lock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+
+    // Owner claims lock by release, then deadline of lease comes before owner unwatches lock
+    Method markReleased = EnvironmentLock.class.getDeclaredMethod("markReleased");
+    markReleased.setAccessible(true);
+    assertThat(markReleased.invoke(lock), is(true));
+    Object watchdog = FieldUtils.readStaticField(EnvsLocksController.class, "WATCHDOG", true);
+    Method expire = watchdog.getClass()
+        .getDeclaredMethod("expire", EnvironmentLock.class, Thread.class, long.class);
+    expire.setAccessible(true);
+    expire.invoke(watchdog, lock, Thread.currentThread(), 1L);
+
+    assertThat("Owner must not be interrupted after release", Thread.interrupted(), is(false));
+    assertThat("Released lock must not be reclaimed", lock.isReclaimed(), is(false));
+    assertThat("Slots must be freed by owner only", EnvsLocksController.isAvailable(env1), is(false));
+    Method freeSlots = EnvsLocksController.class.getDeclaredMethod("freeSlots", EnvironmentLock.class);
+    freeSlots.setAccessible(true);
+    freeSlots.invoke(null, lock);
+    assertThat(EnvsLocksController.isAvailable(env1), is(true));
+  }
+
+  public void checkWatchdogInterruptionDoesntLeakToNextEntity() throws Exception {
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    for (String name : new String[]{"finished", "hung"}) {
+      TestEntityWrapper<String> wrpEnv1Watched = new TestEntityWrapper<>(name, ENV1, 1);
+      wrpEnv1Watched.setTimeoutMs(TimeUnit.MINUTES.toMillis(1));
+      queues.add(wrpEnv1Watched);
+    }
+    Object watchdog = FieldUtils.readStaticField(EnvsLocksController.class, "WATCHDOG", true);
+    Method expire = watchdog.getClass()
+        .getDeclaredMethod("expire", EnvironmentLock.class, Thread.class, long.class);
+    expire.setAccessible(true);
+
+    // Owner finishes entity, then deadline of lease comes before owner releases lock
+    EnvironmentLock<TestEntityWrapper<String>> lock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+    assertThat(EnvsLocksController.finishEntity(lock), is(false));
+    expire.invoke(watchdog, lock, Thread.currentThread(), 1L);
+    assertThat("Owner must not be interrupted after the end of entity", Thread.interrupted(), is(false));
+    assertThat(lock.isReclaimed(), is(true));
+
+    // Deadline of lease comes before the end of entity
+    lock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+    expire.invoke(watchdog, lock, Thread.currentThread(), 1L);
+    assertThat(Thread.currentThread().isInterrupted(), is(true));
+    assertThat(EnvsLocksController.finishEntity(lock), is(true));
+    assertThat("Interruption by watchdog must be cleared by owner", Thread.interrupted(), is(false));
+  }
+
+  public void checkFittingOfLighterEntity() throws Exception {
+    Environment env1 = envWithCapacity(ENV1, 4);
+    TestEntityWrapper<String> wrpEnv1Heavy = new TestEntityWrapper<>("demo", ENV1, 1, false, 3);
+    TestEntityWrapper<String> wrpEnv1Light = new TestEntityWrapper<>("demo", ENV1, 2, false, 2);
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.add(wrpEnv1Heavy);
+    queues.add(wrpEnv1Light);
+
+    assertThat(EnvsLocksController.lock(env1, 2), is(true));
+    EnvironmentLock<TestEntityWrapper<String>> lock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+    assertThat(lock.getLockStatus(), equalTo(LockStatus.SUCCESS_LOCKED));
+    assertThat("Lighter entity must be fitted into free slots", lock.getTargetEntity(), equalTo(wrpEnv1Light));
+    assertThat(EnvsLocksController.isAvailable(env1), is(false));
+
+    EnvsLocksController.release(lock);
+    EnvsLocksController.release(env1, 2);
+    lock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+    assertThat(lock.getTargetEntity(), equalTo(wrpEnv1Heavy));
+    assertThat("1 slot must be free after locking with weight 3", EnvsLocksController.lock(env1), is(true));
+    assertThat(EnvsLocksController.isAvailable(env1), is(false));
+  }
+
+  public void checkDrainingOfEnvForHardLock() throws Exception {
+    changeRouterConfigConstants("HARD_LOCK_DRAIN_MS", 5000);
+    Environment env1 = envWithCapacity(ENV1, 2);
+    TestEntityWrapper<String> wrpEnv1HardLock = new TestEntityWrapper<>("demo", ENV1, 1, true);
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.add(wrpEnv1HardLock);
+
+    assertThat(EnvsLocksController.lock(env1), is(true));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<EnvironmentLock<TestEntityWrapper<String>>> futureLock = executor.submit(
+          () -> EnvsLocksController.findUntestedEntityAndLockEnv(queues)
+      );
+      Thread.sleep(200);
+      assertThat(
+          "Environment that is reserved for hard-lock must reject new locks",
+          EnvsLocksController.lock(env1),
+          is(false)
+      );
+
+      EnvsLocksController.release(env1);
+      EnvironmentLock<TestEntityWrapper<String>> lock = futureLock.get(5, TimeUnit.SECONDS);
+      assertThat(lock.getLockStatus(), equalTo(LockStatus.SUCCESS_HARD_LOCKED));
+      assertThat(lock.getTargetEntity(), equalTo(wrpEnv1HardLock));
+
+      EnvsLocksController.release(env1);
+      assertThat(
+          "Reservation must be removed after hard-lock",
+          EnvsLocksController.lock(env1),
+          is(true)
+      );
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void checkRenewalOfExpiredDrainForHardLock() throws Exception {
+    changeRouterConfigConstants("HARD_LOCK_DRAIN_MS", 300);
+    Environment env1 = envWithCapacity(ENV1, 2);
+    TestEntityWrapper<String> wrpEnv1HardLock = new TestEntityWrapper<>("demo", ENV1, 1, true);
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.add(wrpEnv1HardLock);
+
+    assertThat(EnvsLocksController.lock(env1), is(true));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<EnvironmentLock<TestEntityWrapper<String>>> futureLock = executor.submit(
+          () -> EnvsLocksController.findUntestedEntityAndLockEnv(queues)
+      );
+      Thread.sleep(100);
+      assertThat("Environment must be drained", EnvsLocksController.lock(env1), is(false));
+
+      Thread.sleep(350);
+      assertThat("Lighter entity must get environment after drain timeout", EnvsLocksController.lock(env1), is(true));
+      Thread.sleep(300);
+      // Waiting heavy entity is woken up by release after pause
+      EnvsLocksController.release(env1);
+      Thread.sleep(100);
+      assertThat("Environment must be drained again", EnvsLocksController.lock(env1), is(false));
+
+      EnvsLocksController.release(env1);
+      EnvironmentLock<TestEntityWrapper<String>> lock = futureLock.get(5, TimeUnit.SECONDS);
+      assertThat(lock.getLockStatus(), equalTo(LockStatus.SUCCESS_HARD_LOCKED));
+      assertThat(lock.getTargetEntity(), equalTo(wrpEnv1HardLock));
+      EnvsLocksController.release(lock);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void checkInterruptedWaitingIsNotTimeout() throws Exception {
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.add(wrpEnv2P1);
+    long timeoutsBefore = RouterMetrics.getCounter(RouterMetrics.LOCKS_TIMEOUTS, RouterMetrics.ALL_ENVS);
+    AtomicBoolean isInterrupted = new AtomicBoolean();
+
+    EnvsLocksController.lock(EnvsLocksController.getByName(ENV2));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Future<EnvironmentLock<TestEntityWrapper<String>>> futureLock = executor.submit(
+        () -> {
+          EnvironmentLock<TestEntityWrapper<String>> lock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+          isInterrupted.set(Thread.currentThread().isInterrupted());
+          return lock;
+        }
+    );
+    Thread.sleep(200);
+    executor.shutdownNow();
+
+    EnvironmentLock<TestEntityWrapper<String>> lock = futureLock.get(5, TimeUnit.SECONDS);
+    assertThat(lock.getLockStatus(), is(FAILURE_INTERRUPTED));
+    assertThat("Interruption flag must be kept", isInterrupted.get(), is(true));
+    assertThat(
+        "Interruption must not be counted as timeout",
+        RouterMetrics.getCounter(RouterMetrics.LOCKS_TIMEOUTS, RouterMetrics.ALL_ENVS),
+        equalTo(timeoutsBefore)
+    );
+  }
+
   @Test(priority = 999)
   public void checkPullingTimeoutIfAllEnvsAreBusy() throws IllegalAccessException {
     changeRouterConfigConstants("LOCK_TIMEOUT_MS", 700);
@@ -158,4 +412,12 @@ public class EnvsLocksControllerFindingTests extends UnitTestsBase {
     );
   }
 
+  // JIT can fold RouterConfig.ENV_THREADS_MAX changed by reflection, so capacity is set via environment properties
+  private static Environment envWithCapacity(String envName, int capacity) {
+    Environment env = EnvsLocksController.getByName(envName);
+    env.withProperties(Collections.singletonMap(RouterConfigKeys.ENV_THREADS_MAX_KEY, String.valueOf(capacity)));
+    EnvsLocksController.resetLock(env);
+    return env;
+  }
+
 }
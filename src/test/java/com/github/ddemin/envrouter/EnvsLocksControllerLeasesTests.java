@@ -0,0 +1,106 @@
+package com.github.ddemin.envrouter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys;
+import com.github.ddemin.envrouter.base.Environment;
+import com.github.ddemin.envrouter.base.EnvsLocksController;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit", singleThreaded = true)
+public class EnvsLocksControllerLeasesTests extends UnitTestsBase {
+
+  private static final String ENV1 = "test1";
+  private static final String LOCKED_MARKER = "ENV IS LOCKED BY ANOTHER JVM";
+
+  private Path leasesDir;
+
+  @BeforeMethod
+  public void enableLeases() throws IOException, IllegalAccessException {
+    leasesDir = Files.createTempDirectory("leases");
+    changeRouterConfigConstants("LEASES_DIR", leasesDir.toString());
+    changeRouterConfigConstants("ENV_THREADS_MAX", 2);
+    EnvsLocksController.reinit();
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void disableLeases() throws IllegalAccessException {
+    changeRouterConfigConstants("LEASES_DIR", null);
+    EnvsLocksController.reinit();
+  }
+
+  public void checkLeasesAreReturnedOnRelease() {
+    Environment env1 = EnvsLocksController.getByName(ENV1);
+    assertThat(EnvsLocksController.lock(env1, 2), is(true));
+    assertThat(EnvsLocksController.lock(env1), is(false));
+    EnvsLocksController.release(env1, 2);
+
+    assertThat(EnvsLocksController.hardLock(env1), is(true));
+    EnvsLocksController.release(env1);
+    assertThat(EnvsLocksController.lock(env1), is(true));
+    assertThat(EnvsLocksController.lock(env1), is(true));
+  }
+
+  public void checkLeasesOfAnotherJvmAndReclaimingAfterCrash() throws Exception {
+    Environment env1 = EnvsLocksController.getByName(ENV1);
+    Process anotherJvm = new ProcessBuilder(
+        System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+        "-cp", System.getProperty("java.class.path"),
+        "-D" + RouterConfigKeys.LEASES_DIR_KEY + "=" + leasesDir,
+        "-D" + RouterConfigKeys.ENV_THREADS_MAX_KEY + "=2",
+        LeaseHolder.class.getName(),
+        ENV1
+    ).redirectErrorStream(true).start();
+    try {
+      waitForMarker(anotherJvm);
+      assertThat("1 slot must be free in all JVMs", EnvsLocksController.lock(env1), is(true));
+      assertThat("2nd slot is taken by another JVM", EnvsLocksController.lock(env1), is(false));
+      assertThat(EnvsLocksController.hardLock(env1), is(false));
+    } finally {
+      anotherJvm.destroyForcibly().waitFor(10, TimeUnit.SECONDS);
+    }
+
+    assertThat("Lease of crashed JVM must be reclaimed", EnvsLocksController.lock(env1), is(true));
+  }
+
+  private static void waitForMarker(Process process) throws IOException {
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)
+    );
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.contains(LOCKED_MARKER)) {
+        return;
+      }
+    }
+    throw new IllegalStateException("Another JVM exited without locking");
+  }
+
+  /**
+   * Locks one slot of environment and hangs until it will be killed.
+   */
+  public static class LeaseHolder {
+
+    public static void main(String[] args) throws InterruptedException {
+      if (!EnvsLocksController.lock(EnvsLocksController.getByName(args[0]))) {
+        System.exit(1);
+      }
+      System.out.println(LOCKED_MARKER);
+      System.out.flush();
+      Thread.sleep(TimeUnit.MINUTES.toMillis(5));
+    }
+
+  }
+
+}
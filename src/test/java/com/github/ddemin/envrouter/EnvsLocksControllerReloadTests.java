@@ -0,0 +1,144 @@
+package com.github.ddemin.envrouter;
+
+import static com.github.ddemin.envrouter.base.EnvironmentLock.LockStatus.FAILURE_UNDEFINED_ENV;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys;
+import com.github.ddemin.envrouter.base.Environment;
+import com.github.ddemin.envrouter.base.EnvironmentLock;
+import com.github.ddemin.envrouter.base.EnvironmentsUtils;
+import com.github.ddemin.envrouter.base.EnvsLocksController;
+import com.github.ddemin.envrouter.base.TestEntitiesQueues;
+import com.github.ddemin.envrouter.base.TestEntityWrapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class EnvsLocksControllerReloadTests extends UnitTestsBase {
+
+  private static final String NEW_ENV = "test4";
+
+  private Path newEnvDir;
+
+  @BeforeMethod
+  public void prepareEnvs() throws IOException {
+    newEnvDir = Paths.get(EnvironmentsUtils.resolveDirectory(RouterConfig.ENVS_DIRECTORY)).resolve(NEW_ENV);
+    deleteNewEnv();
+    EnvsLocksController.reinit();
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void restoreEnvs() throws IOException {
+    EnvsLocksController.stopEnvironmentsWatcher();
+    deleteNewEnv();
+    EnvsLocksController.reinit();
+  }
+
+  public void checkAddingWithoutResetOfLocks() throws IOException {
+    Environment env1 = EnvsLocksController.getByName("test1");
+    assertThat(EnvsLocksController.lock(env1), is(true));
+
+    writeNewEnv(2);
+    EnvsLocksController.refreshEnvironments();
+
+    assertThat(EnvsLocksController.getAll(), hasSize(4));
+    assertThat("Lock of existing environment must be kept", EnvsLocksController.isAvailable(env1), is(false));
+    Environment env4 = EnvsLocksController.getByName(NEW_ENV);
+    assertThat(env4.getProperty("common.property"), equalTo("common property"));
+    assertThat(EnvsLocksController.lock(env4), is(true));
+    assertThat(EnvsLocksController.lock(env4), is(true));
+    assertThat("Capacity must be read from new environment", EnvsLocksController.lock(env4), is(false));
+  }
+
+  public void checkRemovingDrainsEnvironment() throws IOException {
+    writeNewEnv(2);
+    EnvsLocksController.refreshEnvironments();
+    Environment env4 = EnvsLocksController.getByName(NEW_ENV);
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.add(new TestEntityWrapper<>("demo", NEW_ENV, 1));
+    EnvironmentLock<TestEntityWrapper<String>> lock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+    assertThat(lock.getEnvironment(), equalTo(env4));
+
+    deleteNewEnv();
+    EnvsLocksController.refreshEnvironments();
+
+    assertThat(EnvsLocksController.getAll(), hasSize(3));
+    assertThat(EnvsLocksController.getByName(NEW_ENV), nullValue());
+    assertThat("Removed environment must reject new locks", EnvsLocksController.lock(env4), is(false));
+    EnvsLocksController.release(lock);
+    assertThat(EnvsLocksController.isAvailable(env4), is(false));
+
+    queues.add(new TestEntityWrapper<>("demo", NEW_ENV, 1));
+    assertThat(
+        "Entities for removed environment must be reported as undefined",
+        EnvsLocksController.findUntestedEntityAndLockEnv(queues).getLockStatus(),
+        equalTo(FAILURE_UNDEFINED_ENV)
+    );
+  }
+
+  public void checkReloadingOfProperties() throws IOException {
+    writeNewEnv(1);
+    EnvsLocksController.refreshEnvironments();
+    Environment env4 = EnvsLocksController.getByName(NEW_ENV);
+    assertThat(EnvsLocksController.lock(env4), is(true));
+
+    writeNewEnv(3);
+    EnvsLocksController.reloadEnvironment(NEW_ENV);
+
+    assertThat(env4.getThreadsMax(), equalTo(3));
+    assertThat("Taken slot must be kept after resize", EnvsLocksController.lock(env4, 2), is(true));
+    assertThat(EnvsLocksController.lock(env4), is(false));
+  }
+
+  public void checkWatcher() throws Exception {
+    EnvsLocksController.startEnvironmentsWatcher();
+    writeNewEnv(2);
+    await(() -> EnvsLocksController.getByName(NEW_ENV) != null);
+    assertThat(EnvsLocksController.getByName(NEW_ENV), notNullValue());
+
+    Environment env4 = EnvsLocksController.getByName(NEW_ENV);
+    writeNewEnv(5);
+    await(() -> env4.getThreadsMax() == 5);
+    assertThat(env4.getThreadsMax(), equalTo(5));
+
+    deleteNewEnv();
+    await(() -> EnvsLocksController.getByName(NEW_ENV) == null);
+    assertThat(EnvsLocksController.getByName(NEW_ENV), nullValue());
+  }
+
+  private void writeNewEnv(int threadsMax) throws IOException {
+    Files.createDirectories(newEnvDir);
+    Files.write(
+        newEnvDir.resolve("env.properties"),
+        Collections.singletonList(RouterConfigKeys.ENV_THREADS_MAX_KEY + "=" + threadsMax),
+        StandardCharsets.UTF_8
+    );
+  }
+
+  private void deleteNewEnv() throws IOException {
+    Files.deleteIfExists(newEnvDir.resolve("env.properties"));
+    Files.deleteIfExists(newEnvDir);
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean() && System.nanoTime() < deadlineNanos) {
+      Thread.sleep(50);
+    }
+  }
+
+}
@@ -6,6 +6,7 @@ import static org.hamcrest.Matchers.endsWith;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.collection.IsMapContaining.hasKey;
 
 import com.github.ddemin.envrouter.RouterConfig.RouterConfigKeys;
@@ -13,6 +14,14 @@ import com.github.ddemin.envrouter.base.Environment;
 import com.github.ddemin.envrouter.base.EnvsLocksController;
 import com.github.ddemin.envrouter.base.TestEntityWrapper;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -111,6 +120,37 @@ public class EnvsLocksControllerTests extends UnitTestsBase {
     );
   }
 
+  @Test
+  public void checkWeightedLocking() throws IllegalAccessException {
+    changeRouterConfigConstants("ENV_THREADS_MAX", 4);
+    Environment env1 = EnvsLocksController.getByName(ENV1);
+    EnvsLocksController.resetLock(env1);
+
+    assertThat("Locking with weight 3 must be successful (limit = 4)", EnvsLocksController.lock(env1, 3), is(true));
+    assertThat(
+        "Locking with weight 2 must be not successful (1 slot is free)",
+        EnvsLocksController.lock(env1, 2),
+        is(false)
+    );
+    assertThat("Lighter entity must fit into the last slot", EnvsLocksController.lock(env1), is(true));
+    assertThat(EnvsLocksController.isAvailable(env1), is(false));
+
+    EnvsLocksController.release(env1, 3);
+    assertThat(EnvsLocksController.isAvailable(env1), is(true));
+    assertThat(EnvsLocksController.lock(env1, 3), is(true));
+    EnvsLocksController.release(env1, 3);
+    EnvsLocksController.release(env1);
+
+    assertThat(
+        "Weight that exceeds capacity must take all slots",
+        EnvsLocksController.lock(env1, 10),
+        is(true)
+    );
+    assertThat(EnvsLocksController.isAvailable(env1), is(false));
+    EnvsLocksController.release(env1, 10);
+    assertThat(EnvsLocksController.lock(env1, 4), is(true));
+  }
+
   @Test
   public void checkHardLocking() throws IllegalAccessException {
     Environment env1 = EnvsLocksController.getByName(ENV1);
@@ -149,6 +189,59 @@ public class EnvsLocksControllerTests extends UnitTestsBase {
     );
   }
 
+  @Test
+  public void checkConcurrentLocking() throws Exception {
+    Environment env1 = EnvsLocksController.getByName(ENV1);
+    AtomicInteger inUse = new AtomicInteger();
+    AtomicInteger maxInUse = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(executor.submit(() -> {
+          for (int j = 0; j < 1000; j++) {
+            if (EnvsLocksController.lock(env1)) {
+              maxInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+              inUse.decrementAndGet();
+              EnvsLocksController.release(env1);
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(10, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(
+        "Environment must be never used by more threads than limit (limit = 2)",
+        maxInUse.get(),
+        lessThanOrEqualTo(2)
+    );
+    assertThat(
+        "Hard-lock must be possible after all releases",
+        EnvsLocksController.hardLock(env1),
+        is(true)
+    );
+  }
+
+  @Test
+  public void checkCapacityFromEnvironmentProperties() {
+    Environment env1 = EnvsLocksController.getByName(ENV1);
+    env1.withProperties(Collections.singletonMap(RouterConfigKeys.ENV_THREADS_MAX_KEY, "3"));
+    try {
+      EnvsLocksController.resetLock(env1);
+      for (int i = 1; i <= 3; i++) {
+        assertThat("Locking #" + i + " must be successful (limit = 3)", EnvsLocksController.lock(env1), is(true));
+      }
+      assertThat("4th locking must be unsuccessful (limit = 3)", EnvsLocksController.lock(env1), is(false));
+    } finally {
+      EnvsLocksController.reinit();
+    }
+  }
+
   @Test
   public void checkConstructorAndGetterByName() {
     assertThat(
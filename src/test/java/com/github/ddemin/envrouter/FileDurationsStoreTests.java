@@ -0,0 +1,184 @@
+package com.github.ddemin.envrouter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import com.github.ddemin.envrouter.base.DurationStats;
+import com.github.ddemin.envrouter.base.FileDurationsStore;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class FileDurationsStoreTests extends UnitTestsBase {
+
+  private static final String KEY = "features/demo.feature:Demo";
+  private static final String ENV1 = "test1";
+  private static final String ENV2 = "test2";
+
+  private Path storePath;
+
+  @BeforeMethod
+  public void createTempDir() throws IOException {
+    storePath = Files.createTempDirectory("durations").resolve("durations.bin");
+  }
+
+  public void checkRollingStats() {
+    FileDurationsStore store = FileDurationsStore.open(storePath);
+    store.record(KEY, ENV1, 100);
+    store.record(KEY, ENV1, 200);
+    assertThat(store.getStats(KEY, ENV1).getEwmaMs(), closeTo(130, 0.001));
+    assertThat(store.getExpectedDurationMs(KEY, ENV1), equalTo(130L));
+    assertThat(store.getExpectedDurationMs(KEY, ENV2), equalTo(-1L));
+    assertThat(store.getExpectedDurationMs("unknown", null), equalTo(-1L));
+
+    for (int i = 1; i <= 40; i++) {
+      store.record(KEY, ENV2, i);
+    }
+    DurationStats stats = store.getStats(KEY, ENV2);
+    assertThat(stats.getCount(), equalTo(40L));
+    assertThat("Only the last measurements are used for p95", stats.getLastSamplesMs().length, equalTo(32));
+    assertThat(stats.getP95Ms(), equalTo(39L));
+    assertThat(
+        "Longest expected duration on all environments must be returned",
+        store.getExpectedDurationMs(KEY, null),
+        equalTo(130L)
+    );
+  }
+
+  public void checkReloading() {
+    FileDurationsStore store = FileDurationsStore.open(storePath);
+    store.record(KEY, ENV1, 100);
+    store.record(KEY, ENV1, 200);
+    store.record(KEY, ENV2, 5000);
+    DurationStats stats = store.getStats(KEY, ENV1);
+
+    FileDurationsStore reloadedStore = FileDurationsStore.open(storePath);
+    DurationStats reloadedStats = reloadedStore.getStats(KEY, ENV1);
+    assertThat(reloadedStats.getCount(), equalTo(stats.getCount()));
+    assertThat(reloadedStats.getEwmaMs(), closeTo(stats.getEwmaMs(), 0.001));
+    assertThat(reloadedStats.getLastSamplesMs(), equalTo(stats.getLastSamplesMs()));
+    assertThat(reloadedStore.getExpectedDurationMs(KEY, ENV2), equalTo(5000L));
+  }
+
+  public void checkBrokenTailIsDropped() throws IOException {
+    FileDurationsStore.open(storePath).record(KEY, ENV1, 100);
+    Files.write(storePath, new byte[]{1, 0, 42}, StandardOpenOption.APPEND);
+
+    FileDurationsStore store = FileDurationsStore.open(storePath);
+    assertThat(store.getExpectedDurationMs(KEY, ENV1), equalTo(100L));
+    store.record(KEY, ENV2, 300);
+
+    FileDurationsStore reloadedStore = FileDurationsStore.open(storePath);
+    assertThat(reloadedStore.getExpectedDurationMs(KEY, ENV1), equalTo(100L));
+    assertThat(reloadedStore.getExpectedDurationMs(KEY, ENV2), equalTo(300L));
+  }
+
+  public void checkRecordsAfterTornRecordAreLoaded() throws IOException {
+    FileDurationsStore store = FileDurationsStore.open(storePath);
+    store.record(KEY, ENV1, 100);
+    int tornRecordPosition = (int) Files.size(storePath);
+    store.record(KEY, ENV2, 200);
+    // Writer has crashed in the middle of record
+    byte[] bytes = Files.readAllBytes(storePath);
+    Files.write(storePath, Arrays.copyOf(bytes, tornRecordPosition + (bytes.length - tornRecordPosition) / 2));
+    store.record("other", ENV1, 300);
+
+    FileDurationsStore reloadedStore = FileDurationsStore.open(storePath);
+    assertThat(reloadedStore.getExpectedDurationMs(KEY, ENV1), equalTo(100L));
+    assertThat(reloadedStore.getStats(KEY, ENV2), nullValue());
+    assertThat(
+        "Record after torn one must be loaded",
+        reloadedStore.getExpectedDurationMs("other", ENV1),
+        equalTo(300L)
+    );
+    assertThat(FileDurationsStore.open(storePath).getExpectedDurationMs("other", ENV1), equalTo(300L));
+  }
+
+  public void checkUnknownFormatIsRewritten() throws IOException {
+    Files.write(storePath, "not a durations log".getBytes("UTF-8"));
+    FileDurationsStore store = FileDurationsStore.open(storePath);
+    assertThat(store.getStats(KEY, ENV1), nullValue());
+    store.record(KEY, ENV1, 100);
+    assertThat(FileDurationsStore.open(storePath).getExpectedDurationMs(KEY, ENV1), equalTo(100L));
+  }
+
+  public void checkTooLongKeyIsSkipped() {
+    StringBuilder longKey = new StringBuilder();
+    for (int i = 0; i < 0x8000; i++) {
+      // 2 bytes in UTF-8
+      longKey.append('\u0436');
+    }
+    FileDurationsStore store = FileDurationsStore.open(storePath);
+    store.record(longKey.toString(), ENV1, 100);
+    store.record(KEY, ENV1, 200);
+    assertThat(store.getStats(longKey.toString(), ENV1), nullValue());
+
+    FileDurationsStore reloadedStore = FileDurationsStore.open(storePath);
+    assertThat(reloadedStore.getStats(longKey.toString(), ENV1), nullValue());
+    assertThat(reloadedStore.getExpectedDurationMs(KEY, ENV1), equalTo(200L));
+  }
+
+  public void checkRecordingAfterCompactionByAnotherStore() throws IOException {
+    FileDurationsStore store = FileDurationsStore.open(storePath);
+    for (int i = 0; i < 2000; i++) {
+      store.record(KEY, ENV1, 100);
+    }
+    long sizeBeforeCompaction = Files.size(storePath);
+    FileDurationsStore.open(storePath);
+    assertThat("Log must be replaced by compacted one", Files.size(storePath) < sizeBeforeCompaction, is(true));
+
+    store.record(KEY, ENV2, 300);
+    assertThat(FileDurationsStore.open(storePath).getExpectedDurationMs(KEY, ENV2), equalTo(300L));
+  }
+
+  public void checkConcurrentWriters() throws Exception {
+    int threads = 4;
+    int recordsPerThread = 300;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        // Separate stores emulate separate JVMs
+        FileDurationsStore store = FileDurationsStore.open(storePath);
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int j = 0; j < recordsPerThread; j++) {
+                    store.record(KEY, ENV1, j);
+                  }
+                }
+            )
+        );
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    FileDurationsStore store = FileDurationsStore.open(storePath);
+    assertThat(store.getStats(KEY, ENV1).getCount(), equalTo((long) threads * recordsPerThread));
+    assertThat(
+        "Log must be compacted after loading of many records",
+        FileDurationsStore.open(storePath).getStats(KEY, ENV1).getCount(),
+        is((long) threads * recordsPerThread)
+    );
+    assertThat(Files.size(storePath) < 1024, is(true));
+  }
+
+}
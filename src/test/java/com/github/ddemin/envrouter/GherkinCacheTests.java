@@ -0,0 +1,135 @@
+package com.github.ddemin.envrouter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.nullValue;
+
+import com.github.ddemin.envrouter.cucumber2.GherkinCache;
+import cucumber.runtime.io.MultiLoader;
+import cucumber.runtime.model.CucumberFeature;
+import gherkin.AstBuilder;
+import gherkin.Parser;
+import gherkin.ast.GherkinDocument;
+import gherkin.deps.com.google.gson.Gson;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class GherkinCacheTests extends UnitTestsBase {
+
+  private static final String SOURCE = "# language: en\n"
+      + "@EnvTest1 @Priority3\n"
+      + "Feature: Feature for cache\n"
+      + "  Description of feature\n"
+      + "\n"
+      + "  Background:\n"
+      + "    Given step with table\n"
+      + "      | name | value |\n"
+      + "      | a    | 1     |\n"
+      + "\n"
+      + "  # Comment\n"
+      + "  @Weight2\n"
+      + "  Scenario: Scenario with doc string\n"
+      + "    When step with doc string\n"
+      + "      \"\"\"json\n"
+      + "      {\"ключ\": \"значение\"}\n"
+      + "      \"\"\"\n"
+      + "\n"
+      + "  Scenario Outline: Outline <name>\n"
+      + "    Then step <name>\n"
+      + "\n"
+      + "    @SingleThread\n"
+      + "    Examples: First\n"
+      + "      | name |\n"
+      + "      | x    |\n"
+      + "      | y    |\n"
+      + "\n"
+      + "    Examples: Empty\n";
+
+  private Path cacheDir;
+  private Path featuresDir;
+
+  @BeforeMethod
+  public void createDirs() throws IOException {
+    cacheDir = Files.createTempDirectory("gherkin-cache");
+    featuresDir = Files.createTempDirectory("features");
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void deleteDirs() throws IOException {
+    for (Path dir : new Path[]{cacheDir, featuresDir}) {
+      try (Stream<Path> files = Files.walk(dir)) {
+        for (Path file : files.sorted(Collections.reverseOrder()).collect(Collectors.toList())) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+  }
+
+  public void checkDocumentFromCacheIsEqualToParsed() {
+    GherkinDocument parsed = new Parser<>(new AstBuilder()).parse(SOURCE);
+    GherkinCache cache = new GherkinCache(cacheDir);
+
+    assertThat(toJson(cache.parseCached(SOURCE)), equalTo(toJson(parsed)));
+    assertThat("Document must be read from cache", toJson(cache.parseCached(SOURCE)), equalTo(toJson(parsed)));
+    assertThat(new GherkinCache(cacheDir).parseCached("").getFeature(), nullValue());
+  }
+
+  public void checkLoadingOfFeatures() throws IOException {
+    writeFeature("b.feature", SOURCE);
+    writeFeature("a.feature", SOURCE.replace("Feature for cache", "Another feature"));
+    writeFeature("dir/duplicate.feature", SOURCE);
+    List<String> paths = Collections.singletonList(featuresDir.toString());
+    MultiLoader loader = new MultiLoader(getClass().getClassLoader());
+
+    List<CucumberFeature> expected = CucumberFeature.load(loader, paths);
+    List<CucumberFeature> loaded = new GherkinCache(cacheDir).loadFeatures(loader, paths);
+    List<CucumberFeature> cached = new GherkinCache(cacheDir).loadFeatures(loader, paths);
+
+    assertThat(loaded, hasSize(expected.size()));
+    assertThat(cached, hasSize(expected.size()));
+    for (int i = 0; i < expected.size(); i++) {
+      assertThat(loaded.get(i).getUri(), equalTo(expected.get(i).getUri()));
+      assertThat(cached.get(i).getUri(), equalTo(expected.get(i).getUri()));
+      assertThat(toJson(cached.get(i).getGherkinFeature()), equalTo(toJson(expected.get(i).getGherkinFeature())));
+    }
+    try (Stream<Path> files = Files.list(cacheDir)) {
+      assertThat(files.collect(Collectors.toList()), hasSize(2));
+    }
+  }
+
+  public void checkBrokenCacheFileIsReparsed() throws IOException {
+    GherkinCache cache = new GherkinCache(cacheDir);
+    cache.parseCached(SOURCE);
+    try (Stream<Path> files = Files.list(cacheDir)) {
+      for (Path file : files.collect(Collectors.toList())) {
+        Files.write(file, new byte[]{1, 2, 3});
+      }
+    }
+
+    GherkinDocument parsed = new Parser<>(new AstBuilder()).parse(SOURCE);
+    assertThat(toJson(cache.parseCached(SOURCE)), equalTo(toJson(parsed)));
+    assertThat("Cache file must be rewritten", toJson(cache.parseCached(SOURCE)), equalTo(toJson(parsed)));
+  }
+
+  private void writeFeature(String name, String source) throws IOException {
+    Path file = featuresDir.resolve(name);
+    Files.createDirectories(file.getParent());
+    Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String toJson(GherkinDocument document) {
+    return new Gson().toJson(document);
+  }
+
+}
@@ -0,0 +1,154 @@
+package com.github.ddemin.envrouter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.testng.Assert.fail;
+
+import com.github.ddemin.envrouter.base.EnvsLocksController;
+import com.github.ddemin.envrouter.cucumber2.RouterCucumberCli;
+import cucumber.api.event.EventPublisher;
+import cucumber.api.event.TestCaseFinished;
+import cucumber.api.event.TestRunFinished;
+import cucumber.api.formatter.Formatter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit", singleThreaded = true)
+public class RouterCucumberCliTests extends UnitTestsBase {
+
+  private static final String FEATURES = "src/test/resources/features/";
+
+  @BeforeMethod
+  public void resetCounters() {
+    EnvsLocksController.reinit();
+    EnvsLocksController.resetLockingOfAll();
+    CountingPlugin.reset();
+  }
+
+  public void checkParallelRunOfFeatures() throws IOException {
+    byte exitStatus = run("--router-threads", "2", "some1.feature", "some3.feature", "some5.feature");
+    assertThat(exitStatus, equalTo((byte) 0));
+    assertThat("Events of all scenarios must be replayed", CountingPlugin.FINISHED_CASES.get(), equalTo(6));
+    assertThat(CountingPlugin.FINISHED_RUNS.get(), equalTo(1));
+    assertThat(CountingPlugin.THREADS.size(), lessThanOrEqualTo(2));
+  }
+
+  public void checkRunOfScenariosByOneWorker() throws IOException {
+    byte exitStatus = run("--router-scenarios", "some2.feature", "some6.feature");
+    assertThat(exitStatus, equalTo((byte) 0));
+    assertThat(CountingPlugin.FINISHED_CASES.get(), equalTo(4));
+    assertThat(CountingPlugin.FINISHED_RUNS.get(), equalTo(1));
+    assertThat("Scenarios must be run by one worker", CountingPlugin.THREADS.size(), equalTo(1));
+  }
+
+  public void checkCountOfWorkersIsLimitedByEntities() throws IOException {
+    byte exitStatus = run("--router-threads", "10", "some2.feature", "some5.feature");
+    assertThat(exitStatus, equalTo((byte) 0));
+    assertThat(CountingPlugin.FINISHED_CASES.get(), equalTo(4));
+    assertThat("Workers must not exceed count of features", CountingPlugin.THREADS.size(), lessThanOrEqualTo(2));
+  }
+
+  public void checkCountOfWorkersIsLimitedByCapacity() throws IOException {
+    byte exitStatus = run(
+        "--router-scenarios", "--router-threads", "10", "some1.feature", "some2.feature", "some3.feature"
+    );
+    assertThat(exitStatus, equalTo((byte) 0));
+    assertThat(CountingPlugin.FINISHED_CASES.get(), equalTo(6));
+    int capacity = EnvsLocksController.getAll().stream().mapToInt(env -> env.getThreadsMax()).sum();
+    assertThat("Workers must not exceed capacity", CountingPlugin.THREADS.size(), lessThanOrEqualTo(capacity));
+  }
+
+  public void checkUndefinedEnvironmentFailsRun() throws IOException {
+    try {
+      run("--router-threads", "2", "some72.feature", "some5.feature");
+      fail("Run must fail because of undefined environment");
+    } catch (RuntimeException ex) {
+      assertThat(ex.getMessage(), containsString("has undefined environment unknowntest3"));
+    }
+    assertThat("Features with known environment must be run", CountingPlugin.FINISHED_CASES.get(), equalTo(2));
+    assertThat(CountingPlugin.FINISHED_RUNS.get(), equalTo(1));
+  }
+
+  public void checkRunIsFinishedAfterFailureOfWorker() throws IOException {
+    CountingPlugin.failOnTestCaseFinished = true;
+    try {
+      run("--router-threads", "2", "some2.feature", "some5.feature");
+      fail("Run must fail because of failed worker");
+    } catch (IllegalStateException ex) {
+      assertThat(ex.getMessage(), equalTo("Worker failed"));
+    }
+    assertThat("Plugins must be notified about the end of run", CountingPlugin.FINISHED_RUNS.get(), equalTo(1));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Missing value.*")
+  public void checkMissingThreadsValue() throws IOException {
+    run("some1.feature", "--router-threads");
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = ".*must be positive.*")
+  public void checkNonPositiveThreadsValue() throws IOException {
+    run("--router-threads", "0", "some1.feature");
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Invalid value.*")
+  public void checkNotNumericThreadsValue() throws IOException {
+    run("--router-threads", "two", "some1.feature");
+  }
+
+  private static byte run(String... args) throws IOException {
+    List<String> argv = new ArrayList<>(
+        Arrays.asList(
+            "--glue", "com.github.ddemin.envrouter.demo.step",
+            "--plugin", CountingPlugin.class.getName()
+        )
+    );
+    for (String arg : args) {
+      argv.add(arg.endsWith(".feature") ? FEATURES + arg : arg);
+    }
+    return RouterCucumberCli.run(argv.toArray(new String[0]), RouterCucumberCliTests.class.getClassLoader());
+  }
+
+  /**
+   * Counts events that are received by plugins of main runtime.
+   */
+  public static class CountingPlugin implements Formatter {
+
+    static final AtomicInteger FINISHED_CASES = new AtomicInteger();
+    static final AtomicInteger FINISHED_RUNS = new AtomicInteger();
+    static final Set<String> THREADS = ConcurrentHashMap.newKeySet();
+    static volatile boolean failOnTestCaseFinished;
+
+    static void reset() {
+      FINISHED_CASES.set(0);
+      FINISHED_RUNS.set(0);
+      THREADS.clear();
+      failOnTestCaseFinished = false;
+    }
+
+    @Override
+    public void setEventPublisher(EventPublisher publisher) {
+      publisher.registerHandlerFor(TestCaseFinished.class, this::onTestCaseFinished);
+      publisher.registerHandlerFor(TestRunFinished.class, event -> FINISHED_RUNS.incrementAndGet());
+    }
+
+    private void onTestCaseFinished(TestCaseFinished event) {
+      FINISHED_CASES.incrementAndGet();
+      // Events are replayed by worker that has run test case
+      THREADS.add(Thread.currentThread().getName());
+      if (failOnTestCaseFinished) {
+        throw new IllegalStateException("Plugin failed");
+      }
+    }
+
+  }
+
+}
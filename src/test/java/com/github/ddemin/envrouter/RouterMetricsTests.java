@@ -0,0 +1,130 @@
+package com.github.ddemin.envrouter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+
+import com.github.ddemin.envrouter.base.EnvironmentLock;
+import com.github.ddemin.envrouter.base.EnvsLocksController;
+import com.github.ddemin.envrouter.base.TestEntitiesQueues;
+import com.github.ddemin.envrouter.base.TestEntityWrapper;
+import com.github.ddemin.envrouter.metrics.LatencySnapshot;
+import com.github.ddemin.envrouter.metrics.MetricsRecorder;
+import com.github.ddemin.envrouter.metrics.RouterMetrics;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class RouterMetricsTests extends UnitTestsBase {
+
+  private static final String ENV1 = "test1";
+
+  @BeforeMethod
+  public void resetMetrics() {
+    EnvsLocksController.reinit();
+    EnvsLocksController.resetLockingOfAll();
+    RouterMetrics.reset();
+  }
+
+  public void checkCountersAndLatencies() {
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.add(new TestEntityWrapper<>("demo", ENV1, 1));
+    queues.add(new TestEntityWrapper<>("demo", ENV1, 1));
+
+    EnvironmentLock<TestEntityWrapper<String>> lock = EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+    assertThat(RouterMetrics.getCounter(RouterMetrics.LOCKS_ACQUIRED, ENV1), equalTo(1L));
+    assertThat(
+        "Queue depth gauge must count entities that are waiting for routing",
+        RouterMetrics.getGauges().get(RouterMetrics.QUEUE_DEPTH + "[" + ENV1 + "]"),
+        greaterThanOrEqualTo(1L)
+    );
+    assertThat(RouterMetrics.getGauges().get(RouterMetrics.SLOTS_BUSY + "[" + ENV1 + "]"), equalTo(1L));
+
+    EnvsLocksController.release(lock);
+    assertThat(RouterMetrics.getGauges().get(RouterMetrics.SLOTS_BUSY + "[" + ENV1 + "]"), equalTo(0L));
+    assertThat(RouterMetrics.getCounter(RouterMetrics.SLOTS_BUSY_NANOS, ENV1), greaterThan(0L));
+
+    LatencySnapshot waits = RouterMetrics.getLatency(RouterMetrics.LOCK_WAIT, ENV1);
+    assertThat(waits, notNullValue());
+    assertThat(waits.getCount(), equalTo(1L));
+  }
+
+  public void checkTimeoutIsCounted() throws IllegalAccessException {
+    changeRouterConfigConstants("LOCK_TIMEOUT_MS", 100);
+    EnvsLocksController.lock(EnvsLocksController.getByName(ENV1));
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.add(new TestEntityWrapper<>("demo", ENV1, 1));
+
+    EnvsLocksController.findUntestedEntityAndLockEnv(queues);
+    assertThat(RouterMetrics.getCounter(RouterMetrics.LOCKS_TIMEOUTS, RouterMetrics.ALL_ENVS), equalTo(1L));
+  }
+
+  public void checkHistogramPercentiles() {
+    for (int i = 1; i <= 100; i++) {
+      RouterMetrics.recordNanos("test.latency", ENV1, TimeUnit.MILLISECONDS.toNanos(i));
+    }
+    LatencySnapshot snapshot = RouterMetrics.getLatency("test.latency", ENV1);
+    assertThat(snapshot.getCount(), equalTo(100L));
+    assertThat(snapshot.getMeanMs(), is(50.5));
+    assertThat("p50 is upper bound of bucket", snapshot.getP50Ms(), greaterThanOrEqualTo(50.0));
+    assertThat(snapshot.getP50Ms(), lessThanOrEqualTo(100.0));
+    assertThat(snapshot.getP95Ms(), greaterThanOrEqualTo(95.0));
+    assertThat(snapshot.getMaxMs(), is(100.0));
+  }
+
+  public void checkRecorderReceivesMetrics() {
+    AtomicLong counted = new AtomicLong();
+    MetricsRecorder recorder = new MetricsRecorder() {
+      @Override
+      public void increment(String metric, String envName, long delta) {
+        counted.addAndGet(delta);
+      }
+
+      @Override
+      public void recordNanos(String metric, String envName, long nanos) {
+      }
+    };
+    RouterMetrics.addRecorder(recorder);
+    try {
+      RouterMetrics.increment("test.counter", ENV1, 5);
+    } finally {
+      RouterMetrics.removeRecorder(recorder);
+    }
+    RouterMetrics.increment("test.counter", ENV1, 5);
+    assertThat(counted.get(), equalTo(5L));
+    assertThat(RouterMetrics.getCounter("test.counter", ENV1), equalTo(10L));
+  }
+
+  public void checkMxBeanAttributes() throws Exception {
+    RouterMetrics.increment("test.counter", ENV1, 3);
+    RouterMetrics.recordNanos("test.latency", ENV1, TimeUnit.MILLISECONDS.toNanos(2));
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(RouterMetrics.OBJECT_NAME);
+    TabularData counters = (TabularData) server.getAttribute(name, "Counters");
+    CompositeData counter = counters.get(new Object[] {"test.counter[" + ENV1 + "]"});
+    assertThat(counter.get("value"), equalTo(3L));
+
+    TabularData latencies = (TabularData) server.getAttribute(name, "Latencies");
+    CompositeData latency = (CompositeData) latencies.get(new Object[] {"test.latency[" + ENV1 + "]"}).get("value");
+    assertThat(latency.get("count"), equalTo(1L));
+
+    TabularData utilization = (TabularData) server.getAttribute(name, "SlotsUtilization");
+    assertThat(utilization.get(new Object[] {ENV1}), notNullValue());
+
+    server.invoke(name, "reset", null, null);
+    assertThat(RouterMetrics.getCounter("test.counter", ENV1), equalTo(0L));
+  }
+
+}
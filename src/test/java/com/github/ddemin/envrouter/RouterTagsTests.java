@@ -0,0 +1,84 @@
+package com.github.ddemin.envrouter;
+
+import static com.github.ddemin.envrouter.cucumber2.RouterTags.RouterTag.ENV;
+import static com.github.ddemin.envrouter.cucumber2.RouterTags.RouterTag.HARD_LOCK;
+import static com.github.ddemin.envrouter.cucumber2.RouterTags.RouterTag.PRIORITY;
+import static com.github.ddemin.envrouter.cucumber2.RouterTags.RouterTag.WEIGHT;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import com.github.ddemin.envrouter.cucumber2.FeatureWrapper;
+import com.github.ddemin.envrouter.cucumber2.FeaturesUtils;
+import com.github.ddemin.envrouter.cucumber2.RouterTags;
+import com.github.ddemin.envrouter.cucumber2.ScenarioWrapper;
+import com.github.ddemin.envrouter.cucumber2.ScenariosUtils;
+import cucumber.runtime.model.CucumberFeature;
+import gherkin.AstBuilder;
+import gherkin.Parser;
+import gherkin.ast.GherkinDocument;
+import gherkin.events.PickleEvent;
+import gherkin.pickles.Compiler;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class RouterTagsTests extends UnitTestsBase {
+
+  private static final String SOURCE = "@EnvTest1 @Priority3 @Team1 @Priority5 @Timeout60\n"
+      + "Feature: Feature with tags\n"
+      + "\n"
+      + "  Scenario: Scenario without own tags\n"
+      + "    Given Step 1\n"
+      + "\n"
+      + "  @EnvTest2 @Weight2 @SingleThread @PriorityX\n"
+      + "  Scenario: Scenario with own tags\n"
+      + "    Given Step 1\n";
+
+  public void checkFeatureTags() {
+    CucumberFeature feature = parseFeature();
+    RouterTags tags = RouterTags.of(feature);
+    assertThat(tags.get(ENV), equalTo("Test1"));
+    assertThat("The first tag of feature must win", tags.getInt(PRIORITY, 0), equalTo(3));
+    assertThat(tags.isPresent(HARD_LOCK), is(false));
+    assertThat(tags.getInt(WEIGHT, 1), equalTo(1));
+    assertThat("Tags of feature must be cached", RouterTags.of(feature), sameInstance(tags));
+
+    FeatureWrapper wrapper = FeaturesUtils.wrapFeature(feature);
+    assertThat(wrapper.getRequiredEnvironmentName(), equalTo("test1"));
+    assertThat(wrapper.getPriority(), equalTo(3));
+    assertThat(wrapper.getTimeoutMs(), equalTo(TimeUnit.SECONDS.toMillis(60)));
+  }
+
+  public void checkScenarioTags() {
+    CucumberFeature feature = parseFeature();
+    List<PickleEvent> scenarios = new Compiler().compile(feature.getGherkinFeature()).stream()
+        .map(pickle -> new PickleEvent(feature.getUri(), pickle))
+        .collect(Collectors.toList());
+
+    ScenarioWrapper inheriting = ScenariosUtils.wrapScenario(scenarios.get(0), feature);
+    assertThat(inheriting.getRequiredEnvironmentName(), equalTo("test1"));
+    assertThat("The last tag of scenario must win", inheriting.getPriority(), equalTo(5));
+    assertThat(inheriting.isRequiresHardLock(), is(false));
+    assertThat(inheriting.getWeight(), equalTo(1));
+    assertThat(inheriting.getTimeoutMs(), equalTo(TimeUnit.SECONDS.toMillis(60)));
+
+    ScenarioWrapper overriding = ScenariosUtils.wrapScenario(scenarios.get(1), feature);
+    assertThat(overriding.getRequiredEnvironmentName(), equalTo("test2"));
+    assertThat("Invalid priority falls back to feature priority", overriding.getPriority(), equalTo(3));
+    assertThat(overriding.isRequiresHardLock(), is(true));
+    assertThat(overriding.getWeight(), equalTo(2));
+    assertThat(RouterTags.of(scenarios.get(1)).get(PRIORITY), equalTo("X"));
+    assertThat(RouterTags.of(scenarios.get(0)).get(HARD_LOCK), nullValue());
+  }
+
+  private static CucumberFeature parseFeature() {
+    GherkinDocument document = new Parser<>(new AstBuilder()).parse(SOURCE);
+    return new CucumberFeature(document, "features/tags.feature", SOURCE);
+  }
+
+}
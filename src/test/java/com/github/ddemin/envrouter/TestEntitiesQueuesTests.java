@@ -2,21 +2,31 @@ package com.github.ddemin.envrouter;
 
 import static com.github.ddemin.envrouter.base.TestEntityWrapper.ANY_ENV;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.core.IsEqual.equalTo;
 
+import com.github.ddemin.envrouter.base.EntityDurations;
+import com.github.ddemin.envrouter.base.EntityDurationsStore;
 import com.github.ddemin.envrouter.base.Environment;
+import com.github.ddemin.envrouter.base.InMemoryDurationsStore;
 import com.github.ddemin.envrouter.base.TestEntitiesQueues;
 import com.github.ddemin.envrouter.base.TestEntityWrapper;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
@@ -124,6 +134,22 @@ public class TestEntitiesQueuesTests extends UnitTestsBase {
     assertThat(queues.getQueueFor(ENV2), containsInAnyOrder(wrpEnv2P1, wrpEnv2P2));
   }
 
+  public void checkWrappingAndAddingInParallel() {
+    TestEntitiesQueues<TestEntityWrapper> queues = new TestEntitiesQueues<>(false);
+    List<Integer> sources = new ArrayList<>();
+    for (int i = 0; i < TestEntitiesQueues.PARALLEL_WRAPPING_THRESHOLD * 4; i++) {
+      sources.add(i);
+    }
+    queues.wrapAndAddAll(
+        sources,
+        i -> i % 10 == 0 ? null : (i % 2 == 0 ? wrpEnv1P2 : wrpEnv2P1)
+    );
+    int expectedCount = (int) sources.stream().filter(i -> i % 10 != 0).count();
+    assertThat(queues.entitiesInAllQueues(), equalTo(expectedCount));
+    assertThat(queues.getQueueFor(ENV1).size() + queues.getQueueFor(ENV2).size(), equalTo(expectedCount));
+    assertThat(queues.getQueueFor(ENV2).peek(), equalTo(wrpEnv2P1));
+  }
+
   @Test(dependsOnMethods = {"checkAddingByOneAndRecoilByEnv"})
   public void checkTotalCount() {
     TestEntitiesQueues<TestEntityWrapper> queues = new TestEntitiesQueues<>();
@@ -186,4 +212,85 @@ public class TestEntitiesQueuesTests extends UnitTestsBase {
     assertThat(queues.pollEntityFor(ENV1), equalTo(wrpEnv1P1));
   }
 
+  @Test(dependsOnMethods = {"checkAddingByOneAndRecoilByEnv"})
+  public void checkFilteredPolling() {
+    TestEntitiesQueues<TestEntityWrapper> queues = new TestEntitiesQueues<>();
+    queues.add(wrpEnv1P1);
+    queues.add(wrpEnv1P2);
+    queues.add(wrpEnvAnyP1);
+    assertThat(queues.pollEntityFor(ENV1, it -> it.getPriority() > 1), equalTo(wrpEnv1P2));
+    assertThat(queues.pollEntityFor(ENV1, it -> it.getPriority() > 1), nullValue());
+    assertThat(queues.entitiesInAllQueues(), equalTo(2));
+  }
+
+  public void checkFilteredPollingOfWeightedAndHardLockEntities() {
+    TestEntityWrapper<String> wrpHardLock = new TestEntityWrapper<>("hard", ENV1, 1, true);
+    TestEntityWrapper<String> wrpHeavyP2 = new TestEntityWrapper<>("heavy2", ENV1, 2, false, 3);
+    TestEntityWrapper<String> wrpHeavyP3 = new TestEntityWrapper<>("heavy3", ANY_ENV, 3, false, 3);
+    TestEntityWrapper<String> wrpLight = new TestEntityWrapper<>("light", ENV1, 4);
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    queues.addAll(Arrays.asList(wrpLight, wrpHeavyP3, wrpHardLock, wrpHeavyP2));
+
+    assertThat(queues.pollEntityFor(ENV1, it -> it.getWeight() == 3), equalTo(wrpHeavyP2));
+    assertThat(queues.pollEntityFor(ENV1, it -> !it.isRequiresHardLock()), equalTo(wrpHeavyP3));
+    assertThat(queues.pollEntityFor(ENV1, it -> it.getWeight() == 3), nullValue());
+    assertThat(queues.pollEntityFor(ENV1), equalTo(wrpHardLock));
+    assertThat(queues.getQueueFor(ENV1), contains(wrpLight));
+    assertThat(queues.entitiesInAllQueues(), equalTo(1));
+  }
+
+  public void checkLongestFirstOrdering() {
+    TestEntityWrapper<String> wrpShort = new TestEntityWrapper<>("short", ENV1, 2);
+    TestEntityWrapper<String> wrpLong = new TestEntityWrapper<>("long", ENV1, 2);
+    TestEntityWrapper<String> wrpUnknown = new TestEntityWrapper<>("unknown", ANY_ENV, 2);
+    TestEntityWrapper<String> wrpHighPriority = new TestEntityWrapper<>("high", ENV1, 1);
+
+    EntityDurationsStore previousStore = EntityDurations.getStore();
+    EntityDurations.setStore(new InMemoryDurationsStore());
+    try {
+      Environment env1 = new Environment(Paths.get("src/test/resources", RouterConfig.ENVS_DIRECTORY, ENV1));
+      EntityDurations.record(wrpShort, env1, 1000);
+      EntityDurations.record(wrpLong, env1, 20000);
+      EntityDurations.record(wrpHighPriority, env1, 10);
+
+      TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>(true);
+      queues.addAll(Arrays.asList(wrpShort, wrpHighPriority, wrpLong, wrpUnknown));
+      assertThat(queues.pollEntityFor(ENV1), equalTo(wrpHighPriority));
+      assertThat(queues.pollEntityFor(ENV1), equalTo(wrpUnknown));
+      assertThat(queues.pollEntityFor(ENV1), equalTo(wrpLong));
+      assertThat(queues.pollEntityFor(ENV1), equalTo(wrpShort));
+    } finally {
+      EntityDurations.setStore(previousStore);
+    }
+  }
+
+  public void checkConcurrentAddingAndPolling() throws Exception {
+    TestEntitiesQueues<TestEntityWrapper<String>> queues = new TestEntitiesQueues<>();
+    List<TestEntityWrapper<String>> wrappers = Arrays.asList(wrpEnv1P1, wrpEnv1P2, wrpEnvAnyP1, wrpEnvAnyP2);
+    AtomicInteger polled = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(executor.submit(() -> {
+          for (int j = 0; j < 1000; j++) {
+            queues.add(wrappers.get(j % wrappers.size()));
+          }
+          while (queues.pollEntityFor(ENV1) != null) {
+            polled.incrementAndGet();
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(10, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(polled.get(), equalTo(8000));
+    assertThat(queues.entitiesInAllQueues(), equalTo(0));
+    assertThat(queues.untestedEntities(), equalTo(0));
+  }
+
 }
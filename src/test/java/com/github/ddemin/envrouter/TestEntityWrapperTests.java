@@ -47,4 +47,15 @@ public class TestEntityWrapperTests extends UnitTestsBase {
     );
   }
 
+  @Test
+  public void checkWeight() {
+    assertThat(new TestEntityWrapper<>("entity", null, 1).getWeight(), equalTo(1));
+    assertThat(new TestEntityWrapper<>("entity", null, 1, false, 3).getWeight(), equalTo(3));
+    assertThat(
+        "Weight must be at least 1",
+        new TestEntityWrapper<>("entity", null, 1, false, 0).getWeight(),
+        equalTo(1)
+    );
+  }
+
 }
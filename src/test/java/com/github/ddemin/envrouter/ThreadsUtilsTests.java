@@ -0,0 +1,41 @@
+package com.github.ddemin.envrouter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import com.github.ddemin.envrouter.util.ThreadsUtils;
+import java.util.concurrent.ThreadFactory;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class ThreadsUtilsTests extends UnitTestsBase {
+
+  public void checkPlatformWorkers() {
+    ThreadFactory factory = ThreadsUtils.workersFactory("test-worker-", false);
+    Thread first = factory.newThread(() -> { });
+    Thread second = factory.newThread(() -> { });
+    assertThat(first.getName(), equalTo("test-worker-0"));
+    assertThat(second.getName(), equalTo("test-worker-1"));
+    assertThat(first.isDaemon(), is(true));
+    assertThat(isVirtual(first), is(false));
+  }
+
+  public void checkVirtualWorkersOrFallback() throws InterruptedException {
+    Thread thread = ThreadsUtils.workersFactory("test-virtual-", true).newThread(() -> { });
+    thread.start();
+    thread.join();
+    assertThat(thread.getName(), equalTo("test-virtual-0"));
+    assertThat(thread.isDaemon(), is(true));
+    assertThat(isVirtual(thread), is(ThreadsUtils.isVirtualThreadsSupported()));
+  }
+
+  private static boolean isVirtual(Thread thread) {
+    try {
+      return (boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+    } catch (ReflectiveOperationException ex) {
+      return false;
+    }
+  }
+
+}
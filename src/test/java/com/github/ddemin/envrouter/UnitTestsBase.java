@@ -14,10 +14,19 @@ public class UnitTestsBase {
   public void resetConfig() {
     try {
       changeRouterConfigConstants("LOCK_TIMEOUT_MS", 60000);
+      changeRouterConfigConstants("HARD_LOCK_DRAIN_MS", 0);
+      changeRouterConfigConstants("LOCK_BATCH_SIZE", 1);
+      changeRouterConfigConstants("LOCK_BATCH_TIME_MS", 0L);
+      changeRouterConfigConstants("LOCK_BATCH_IDLE_MS", 500L);
       changeRouterConfigConstants("ENV_THREADS_MAX", 1);
+      changeRouterConfigConstants("QUEUE_LONGEST_FIRST", false);
       changeRouterConfigConstants("ENVS_DIRECTORY", "environments");
       changeRouterConfigConstants("ENV_DEFAULT", null);
       changeRouterConfigConstants("ENV_FORCED", null);
+      changeRouterConfigConstants("LEASES_DIR", null);
+      changeRouterConfigConstants("LEASE_TIMEOUT_MS", 0L);
+      changeRouterConfigConstants("LEASE_HISTORY_FACTOR", 0.0);
+      changeRouterConfigConstants("RESOURCES_PREWARM", false);
     } catch (IllegalAccessException e) {
       throw new RuntimeException(e);
     }
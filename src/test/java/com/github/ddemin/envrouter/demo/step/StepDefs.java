@@ -7,7 +7,6 @@ import com.github.ddemin.envrouter.base.Environment;
 import com.github.ddemin.envrouter.base.EnvironmentsUtils;
 import cucumber.api.java.en.Given;
 import io.qameta.allure.Step;
-import java.util.Properties;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.RandomUtils;
 
@@ -16,24 +15,24 @@ public class StepDefs {
 
   @Given("^Step 1$")
   public void step1() throws InterruptedException {
-    log.info(getProperties().getProperty("test.step1"));
+    log.info(getProperty("test.step1"));
 
     assertThat("This assert must be successful", 7, greaterThan(6));
 
-    allureStep(getProperties().getProperty("common.property"));
-    allureStep(getProperties().getProperty("test.step1"));
+    allureStep(getProperty("common.property"));
+    allureStep(getProperty("test.step1"));
     sleep();
   }
 
   @Given("^Step 2$")
   public void step2() throws InterruptedException {
-    log.info(getProperties().getProperty("test.step2"));
+    log.info(getProperty("test.step2"));
     sleep();
   }
 
   @Given("^Step 3$")
   public void step3() throws InterruptedException {
-    log.info(getProperties().getProperty("test.step3"));
+    log.info(getProperty("test.step3"));
     sleep();
   }
 
@@ -45,9 +44,9 @@ public class StepDefs {
     Thread.sleep(RandomUtils.nextInt(333, 777));
   }
 
-  private Properties getProperties() {
+  private String getProperty(String key) {
     Environment env = EnvironmentsUtils.getCurrent();
-    return env.getProperties();
+    return env.getProperty(key);
   }
 
 }